@@ -0,0 +1,68 @@
+package cn.wanghw.bench;
+
+import cn.wanghw.IHeapHolder;
+import cn.wanghw.hprof.HprofHeapHolder;
+import org.graalvm.visualvm.lib.jfluid.heap.GraalvmHeapHolder;
+import org.netbeans.lib.profiler.heap.NetbeansHeapHolder;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The synthetic dumps the benchmarks run on. A dump of a given scale is generated once into the
+ * temp directory (or {@code -Djdumpspider.bench.dir}) and reused by later forks and runs.
+ * <p>
+ * {@code scale} is the number of filler Strings. Per 100 of them the {@link DumpGenerator} adds a
+ * bean and a 16 entry HashMap, and per 1000 a Properties table and a copy of every spider's
+ * target objects.
+ */
+public class BenchmarkFixture {
+    /**
+     * Bump when the generated content changes, so stale fixtures are not reused.
+     */
+    static final int VERSION = 2;
+    static final String PROPERTY_SOURCE = "org.springframework.boot.env.OriginTrackedMapPropertySource";
+
+    public static synchronized File get(int scale) throws IOException {
+        File dir = new File(System.getProperty("jdumpspider.bench.dir", System.getProperty("java.io.tmpdir")));
+        File dump = new File(dir, "jdumpspider-bench-v" + VERSION + "-" + scale + ".hprof");
+        if (!dump.exists()) {
+            File partial = new File(dir, dump.getName() + ".tmp");
+            write(partial, scale);
+            if (!partial.renameTo(dump)) {
+                throw new IOException("Cannot rename " + partial + " to " + dump);
+            }
+        }
+        return dump;
+    }
+
+    /**
+     * Opens the dump without a decoded String cache, which would otherwise turn every iteration
+     * after the first into cache hits.
+     */
+    public static IHeapHolder open(String engine, File dump) throws IOException {
+        if (engine.equals("native")) {
+            return new HprofHeapHolder(dump);
+        } else if (engine.equals("graalvm")) {
+            GraalvmHeapHolder heapHolder = new GraalvmHeapHolder(dump);
+            heapHolder.setStringCache(null);
+            return heapHolder;
+        } else if (engine.equals("netbeans")) {
+            NetbeansHeapHolder heapHolder = new NetbeansHeapHolder(dump);
+            heapHolder.setStringCache(null);
+            return heapHolder;
+        }
+        throw new IllegalArgumentException("Unknown engine " + engine);
+    }
+
+    static void write(File file, int scale) throws IOException {
+        DumpGenerator generator = new DumpGenerator();
+        generator.strings = scale;
+        generator.instances = scale / 100;
+        generator.maps = scale / 100;
+        generator.properties = scale / 1000;
+        generator.planted = Math.max(1, scale / 1000);
+        generator.seed = scale;
+        generator.write(file);
+    }
+}
@@ -0,0 +1,314 @@
+package cn.wanghw.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Writes a synthetic heap dump of any size: filler Strings, beans and maps, plus planted objects
+ * for every spider, so scale runs and benchmarks never need a real dump with real secrets in it.
+ * Output is streamed, so tens of GB take no more memory than a small dump. The same options and
+ * seed always give the same objects.
+ * <p>
+ * Usage: {@code java -cp benchmarks.jar cn.wanghw.bench.DumpGenerator -out <file> [options]},
+ * see {@link #USAGE}.
+ */
+public class DumpGenerator {
+    static final String USAGE = "Usage: DumpGenerator -out <file> [options]\r\n"
+            + "  -strings <N>     filler Strings (default 1000000)\r\n"
+            + "  -length <N>      average filler String length (default 24)\r\n"
+            + "  -utf16 <N>       one in N filler Strings needs UTF-16, 0 for none (default 16)\r\n"
+            + "  -classes <N>     filler bean classes (default 100)\r\n"
+            + "  -instances <N>   filler bean instances (default 100000)\r\n"
+            + "  -maps <N>        filler HashMaps (default 1000)\r\n"
+            + "  -entries <N>     entries per filler HashMap and Properties (default 16)\r\n"
+            + "  -properties <N>  filler Properties tables (default 100)\r\n"
+            + "  -planted <N>     copies of each spider's target objects (default 1)\r\n"
+            + "  -jdk <N>         String and Properties layout of JDK N (default 11)\r\n"
+            + "  -version <V>     HPROF version, 1.0.1 or 1.0.2 (default 1.0.2)\r\n"
+            + "  -ids <N>         identifier size, 4 or 8 (default 8)\r\n"
+            + "  -seed <N>        random seed (default 0)";
+
+    private static final String[] WORDS = {
+            "server", "port", "name", "timeout", "enabled", "pool", "size", "cache", "user", "path",
+            "queue", "retry", "thread", "buffer", "region", "client", "mode", "level", "limit", "count"
+    };
+    private static final String[] UTF16_WORDS = {"配置", "服务", "用户", "缓存", "数据"};
+
+    public long strings = 1000000;
+    public int length = 24;
+    public int utf16 = 16;
+    public int classes = 100;
+    public long instances = 100000;
+    public long maps = 1000;
+    public int entries = 16;
+    public long properties = 100;
+    public int planted = 1;
+    public int jdk = 11;
+    public String version = HprofWriter.VERSION_1_0_2;
+    public int idSize = 8;
+    public long seed = 0;
+
+    private Random random;
+    private final StringBuilder text = new StringBuilder();
+
+    public static void main(String[] args) throws Exception {
+        DumpGenerator generator = new DumpGenerator();
+        File out = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String flag = args[i];
+                if (flag.equals("-h") || flag.equals("--help")) {
+                    System.out.println(USAGE);
+                    return;
+                }
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("[-] Get '" + flag + "' value failed!");
+                }
+                String value = args[++i];
+                if (flag.equals("-out")) out = new File(value);
+                else if (flag.equals("-strings")) generator.strings = Long.parseLong(value);
+                else if (flag.equals("-length")) generator.length = Integer.parseInt(value);
+                else if (flag.equals("-utf16")) generator.utf16 = Integer.parseInt(value);
+                else if (flag.equals("-classes")) generator.classes = Integer.parseInt(value);
+                else if (flag.equals("-instances")) generator.instances = Long.parseLong(value);
+                else if (flag.equals("-maps")) generator.maps = Long.parseLong(value);
+                else if (flag.equals("-entries")) generator.entries = Integer.parseInt(value);
+                else if (flag.equals("-properties")) generator.properties = Long.parseLong(value);
+                else if (flag.equals("-planted")) generator.planted = Integer.parseInt(value);
+                else if (flag.equals("-jdk")) generator.jdk = Integer.parseInt(value);
+                else if (flag.equals("-version")) generator.version = "JAVA PROFILE " + value;
+                else if (flag.equals("-ids")) generator.idSize = Integer.parseInt(value);
+                else if (flag.equals("-seed")) generator.seed = Long.parseLong(value);
+                else throw new IllegalArgumentException("[-] Unknown option '" + flag + "'");
+            }
+            if (out == null) {
+                throw new IllegalArgumentException("[-] Missing '-out <file>'");
+            }
+        } catch (IllegalArgumentException ex) {
+            System.out.println(ex.getMessage());
+            System.out.println(USAGE);
+            System.exit(1);
+        }
+        long start = System.currentTimeMillis();
+        generator.write(out);
+        System.out.println("[+] Wrote " + out + " (" + out.length() + " bytes) in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    public void write(File file) throws IOException {
+        random = new Random(seed);
+        HeapDumpBuilder builder = new HeapDumpBuilder(file, version, idSize, jdk);
+        try {
+            // every class goes ahead of the first object, see HprofWriter
+            defineTargetClasses(builder);
+            for (int i = 0; i < classes; i++) {
+                builder.defineClass(beanClass(i), "java.lang.Object", beanFields(i));
+            }
+            for (int i = 0; i < planted; i++) {
+                writeTargets(builder, i);
+            }
+            for (long i = 0; i < strings; i++) {
+                builder.string(fillerString(utf16 > 0 && i % utf16 == 0));
+            }
+            for (long i = 0; i < instances && classes > 0; i++) {
+                writeBean(builder, (int) (i % classes), i);
+            }
+            for (long i = 0; i < maps; i++) {
+                builder.hashMap(fillerMap("app.m" + i + "."));
+            }
+            for (long i = 0; i < properties; i++) {
+                builder.properties(fillerMap("prop.p" + i + "."));
+            }
+        } finally {
+            builder.close();
+        }
+    }
+
+    private static void defineTargetClasses(HeapDumpBuilder builder) throws IOException {
+        String object = "java.lang.Object";
+        builder.defineClass("org.springframework.boot.autoconfigure.jdbc.DataSourceProperties", object,
+                "classLoader", "name", "generateUniqueName:boolean", "type", "driverClassName", "url", "username", "password");
+
+        builder.defineClass("weblogic.jdbc.common.internal.ConnectionInfo", object, "username", "p");
+        builder.defineClass("weblogic.jdbc.common.internal.DataSourceConnectionPoolConfig", object,
+                "name", "url", "driver", "defaultConnectionInfo");
+
+        builder.defineClass("com.mongodb.ServerAddress", object, "host", "port:int");
+        builder.defineClass("com.mongodb.MongoCredential", object, "mechanism", "userName", "source", "password");
+        builder.defineClass("java.util.Collections$UnmodifiableCollection", object, "c");
+        builder.defineClass("java.util.Collections$UnmodifiableList", "java.util.Collections$UnmodifiableCollection", "list");
+        builder.defineClass("java.util.Collections$UnmodifiableRandomAccessList", "java.util.Collections$UnmodifiableList");
+        builder.defineClass("com.mongodb.connection.ClusterSettings", object, "srvHost", "hosts", "mode");
+        builder.defineClass("com.mongodb.internal.connection.SingleServerCluster", object, "settings");
+        builder.defineClass("com.mongodb.Mongo", object, "cluster", "credentialsList");
+        builder.defineClass("com.mongodb.MongoClient", "com.mongodb.Mongo", "options");
+
+        builder.defineClass("com.alibaba.druid.pool.DruidAbstractDataSource", object,
+                "username", "password", "jdbcUrl", "driverClass", "initialSize:int", "maxActive:int");
+        builder.defineClass("com.alibaba.druid.pool.DruidDataSource", "com.alibaba.druid.pool.DruidAbstractDataSource", "connections");
+        builder.defineClass("com.alibaba.druid.spring.boot.autoconfigure.DruidDataSourceWrapper", "com.alibaba.druid.pool.DruidDataSource");
+
+        builder.defineClass("com.zaxxer.hikari.util.DriverDataSource", object, "jdbcUrl", "driverProperties", "driver");
+        builder.defineClass("com.zaxxer.hikari.HikariConfig", object,
+                "poolName", "jdbcUrl", "driverClassName", "username", "password", "dataSourceProperties", "maxPoolSize:int");
+        builder.defineClass("com.zaxxer.hikari.HikariDataSource", "com.zaxxer.hikari.HikariConfig", "isShutdown:boolean", "dataSource");
+
+        builder.defineClass("org.springframework.data.redis.connection.RedisPassword", object, "thePassword");
+        builder.defineClass("org.springframework.data.redis.connection.RedisStandaloneConfiguration", object,
+                "hostName", "port:int", "database:int", "username", "password");
+        builder.defineClass("redis.clients.jedis.Connection", object, "hostname", "port:int", "socket");
+        builder.defineClass("redis.clients.jedis.BinaryClient", "redis.clients.jedis.Connection", "password", "db:int", "isInMulti:boolean");
+        builder.defineClass("redis.clients.jedis.Client", "redis.clients.jedis.BinaryClient");
+
+        builder.defineClass("org.apache.shiro.crypto.AesCipherService", object, "algorithmName", "modeName", "keySize:int");
+        builder.defineClass("org.apache.shiro.web.mgt.CookieRememberMeManager", object,
+                "cipherService", "encryptionCipherKey", "decryptionCipherKey", "cookie");
+
+        builder.defineClass("org.springframework.core.env.PropertySource", object, "logger", "name", "source");
+        builder.defineClass("org.springframework.core.env.EnumerablePropertySource", "org.springframework.core.env.PropertySource");
+        builder.defineClass("org.springframework.core.env.MapPropertySource", "org.springframework.core.env.EnumerablePropertySource");
+        builder.defineClass("org.springframework.boot.env.OriginTrackedMapPropertySource",
+                "org.springframework.core.env.MapPropertySource", "immutable:boolean");
+        builder.defineClass("org.springframework.cloud.consul.config.ConsulPropertySource",
+                "org.springframework.core.env.EnumerablePropertySource", "context", "properties");
+        builder.defineClass("java.util.concurrent.CopyOnWriteArrayList", object, "lock", "array");
+        builder.defineClass("org.springframework.core.env.MutablePropertySources", object, "propertySourceList");
+
+        builder.defineClass("java.lang.ProcessEnvironment", "java.util.HashMap");
+    }
+
+    /**
+     * Plants copy {@code i} of the objects every spider looks for.
+     */
+    private void writeTargets(HeapDumpBuilder b, int i) throws IOException {
+        b.instance("org.springframework.boot.autoconfigure.jdbc.DataSourceProperties",
+                0, b.string("dataSource"), false, 0, b.string("com.mysql.cj.jdbc.Driver"),
+                b.string("jdbc:mysql://mysql" + i + ".internal:3306/app"), b.string("app" + i), b.string("mysql-secret-" + i));
+
+        long connectionInfo = b.instance("weblogic.jdbc.common.internal.ConnectionInfo",
+                b.string("weblogic" + i), b.string("weblogic-secret-" + i));
+        b.instance("weblogic.jdbc.common.internal.DataSourceConnectionPoolConfig",
+                b.string("JDBC Data Source-" + i), b.string("jdbc:oracle:thin:@oracle" + i + ".internal:1521:orcl"),
+                b.string("oracle.jdbc.OracleDriver"), connectionInfo);
+
+        long serverAddress = b.instance("com.mongodb.ServerAddress", b.string("mongo" + i + ".internal"), 27017);
+        long hostList = b.arrayList(serverAddress);
+        long hosts = b.instance("java.util.Collections$UnmodifiableRandomAccessList", hostList, hostList);
+        long settings = b.instance("com.mongodb.connection.ClusterSettings", 0, hosts, 0);
+        long cluster = b.instance("com.mongodb.internal.connection.SingleServerCluster", settings);
+        long credential = b.instance("com.mongodb.MongoCredential", 0, b.string("mongo" + i), b.string("admin"), b.chars("mongo-secret-" + i));
+        long credentials = b.arrayList(credential);
+        long credentialsList = b.instance("java.util.Collections$UnmodifiableRandomAccessList", credentials, credentials);
+        b.instance("com.mongodb.MongoClient", 0, cluster, credentialsList);
+
+        b.instance("com.alibaba.druid.spring.boot.autoconfigure.DruidDataSourceWrapper",
+                0, b.string("druid" + i), b.string("druid-secret-" + i), b.string("jdbc:mysql://druid" + i + ".internal:3306/app"),
+                b.string("com.mysql.cj.jdbc.Driver"), 0, 8);
+
+        Map<String, String> driverProperties = new LinkedHashMap<String, String>();
+        driverProperties.put("user", "hikari" + i);
+        driverProperties.put("password", "hikari-secret-" + i);
+        String hikariUrl = "jdbc:postgresql://postgres" + i + ".internal:5432/app";
+        long driverDataSource = b.instance("com.zaxxer.hikari.util.DriverDataSource",
+                b.string(hikariUrl), b.properties(driverProperties), 0);
+        b.instance("com.zaxxer.hikari.HikariDataSource", false, driverDataSource,
+                b.string("HikariPool-" + i), b.string(hikariUrl), b.string("org.postgresql.Driver"),
+                b.string("hikari" + i), b.string("hikari-secret-" + i), 0, 10);
+
+        long redisPassword = b.instance("org.springframework.data.redis.connection.RedisPassword", b.chars("redis-secret-" + i));
+        b.instance("org.springframework.data.redis.connection.RedisStandaloneConfiguration",
+                b.string("redis" + i + ".internal"), 6379, i % 16, 0, redisPassword);
+        b.instance("redis.clients.jedis.Client", b.string("jedis-secret-" + i), i % 16, false, b.string("jedis" + i + ".internal"), 6379, 0);
+
+        long cipherService = b.instance("org.apache.shiro.crypto.AesCipherService", b.string("AES"), b.string("CBC"), 128);
+        byte[] key = new byte[16];
+        random.nextBytes(key);
+        long keyId = b.bytes(key);
+        b.instance("org.apache.shiro.web.mgt.CookieRememberMeManager", cipherService, keyId, keyId, 0);
+
+        Map<String, String> application = new LinkedHashMap<String, String>();
+        application.put("spring.datasource.url", "jdbc:mysql://mysql" + i + ".internal:3306/app");
+        application.put("spring.datasource.username", "app" + i);
+        application.put("spring.datasource.password", "mysql-secret-" + i);
+        application.put("aliyun.oss.access-key-id", "LTAI" + i);
+        application.put("aliyun.oss.access-key-secret", "oss-secret-" + i);
+        application.put("aliyun.oss.endpoint", "oss-cn-hangzhou.aliyuncs.com");
+        application.put("security.authorization", "Bearer token-" + i);
+        long applicationSource = b.instance("org.springframework.boot.env.OriginTrackedMapPropertySource",
+                true, 0, b.string("Config resource 'class path resource [application.yml]' via location 'optional:classpath:/'"),
+                b.linkedHashMap(application));
+
+        Map<String, String> system = new LinkedHashMap<String, String>();
+        system.put("java.version", "11.0.21");
+        system.put("user.name", "app" + i);
+        system.put("user.home", "/home/app" + i);
+        long systemSource = b.instance("org.springframework.core.env.MapPropertySource",
+                0, b.string("systemProperties"), b.hashMap(system));
+
+        Map<String, String> consul = new LinkedHashMap<String, String>();
+        consul.put("cos.secret-id", "AKID" + i);
+        consul.put("cos.secret-key", "cos-secret-" + i);
+        long consulSource = b.instance("org.springframework.cloud.consul.config.ConsulPropertySource",
+                0, b.linkedHashMap(consul), 0, b.string("config/application/"), 0);
+
+        long sources = b.instance("java.util.concurrent.CopyOnWriteArrayList", 0, b.objectArray(applicationSource, systemSource, consulSource));
+        b.instance("org.springframework.core.env.MutablePropertySources", sources);
+
+        Map<String, String> environment = new LinkedHashMap<String, String>();
+        environment.put("PATH", "/usr/local/bin:/usr/bin:/bin");
+        environment.put("DB_PASSWORD", "env-secret-" + i);
+        b.hashMap("java.lang.ProcessEnvironment", environment);
+
+        b.string("GET /admin HTTP/1.1\r\nHost: app" + i + ".internal\r\nCookie: JSESSIONID=" + Long.toHexString(random.nextLong()) + "\r\n");
+    }
+
+    private static String beanClass(int i) {
+        return "com.example.generated.Bean" + i;
+    }
+
+    /**
+     * Every fourth bean class has credential-like fields, so the keyword spiders have both hits
+     * and misses to sort out.
+     */
+    private static String[] beanFields(int i) {
+        if (i % 4 == 0) {
+            return new String[]{"id:long", "name", "username", "password", "host"};
+        }
+        return new String[]{"id:long", "name", "enabled:boolean", "timeout:int", "owner"};
+    }
+
+    private void writeBean(HeapDumpBuilder builder, int classIndex, long i) throws IOException {
+        if (classIndex % 4 == 0) {
+            builder.instance(beanClass(classIndex), i, builder.string("bean" + i),
+                    builder.string("user" + i), builder.string("pass" + i), builder.string("10.0." + (i >> 8 & 0xFF) + "." + (i & 0xFF)));
+        } else {
+            builder.instance(beanClass(classIndex), i, builder.string("bean" + i), i % 2 == 0, (int) (i % 1000), 0);
+        }
+    }
+
+    private Map<String, String> fillerMap(String prefix) {
+        Map<String, String> map = new LinkedHashMap<String, String>();
+        for (int j = 0; j < entries; j++) {
+            map.put(prefix + word() + "." + j, word() + random.nextInt(1000));
+        }
+        return map;
+    }
+
+    private String fillerString(boolean utf16) {
+        text.setLength(0);
+        if (utf16) {
+            text.append(UTF16_WORDS[random.nextInt(UTF16_WORDS.length)]).append('-');
+        }
+        // lengths spread evenly over [length / 2, length * 3 / 2]
+        int target = length / 2 + random.nextInt(length + 1);
+        while (text.length() < target) {
+            text.append(word()).append('-').append(Integer.toHexString(random.nextInt()));
+        }
+        text.setLength(Math.max(target, 1));
+        return text.toString();
+    }
+
+    private String word() {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+}
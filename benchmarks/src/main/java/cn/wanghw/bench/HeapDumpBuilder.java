@@ -0,0 +1,308 @@
+package cn.wanghw.bench;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static cn.wanghw.hprof.HprofHeap.*;
+
+/**
+ * Builds dumps out of the JDK objects the spiders read: Strings, {@code HashMap},
+ * {@code LinkedHashMap} and {@code Properties} tables, lists and classes declared by name. Objects
+ * are written as soon as they are created.
+ * <p>
+ * Strings and {@code Properties} take the layout of the given JDK: before 9, Strings hold a
+ * {@code char[]} and {@code Properties} is a plain {@code Hashtable}; from 9 on, Strings are
+ * compact and {@code Properties} keeps its entries in a {@code ConcurrentHashMap}.
+ */
+public class HeapDumpBuilder implements Closeable {
+    private static final int HASH_MAP = 0;
+    private static final int LINKED_HASH_MAP = 1;
+    private static final int HASHTABLE = 2;
+    private static final int CONCURRENT_HASH_MAP = 3;
+
+    private final HprofWriter writer;
+    private final int jdk;
+    private final Map<String, Long> classIds = new HashMap<String, Long>();
+    private final long stringClass;
+    private final long objectArrayClass;
+    private final long hashMapClass;
+    private final long linkedHashMapClass;
+    private final long propertiesClass;
+    private final long concurrentHashMapClass;
+    private final long arrayListClass;
+    private final long[] nodeClasses;
+    private final long[] tableClasses;
+
+    public HeapDumpBuilder(File file) throws IOException {
+        this(file, HprofWriter.VERSION_1_0_2, 8, 11);
+    }
+
+    public HeapDumpBuilder(File file, String version, int idSize, int jdk) throws IOException {
+        writer = new HprofWriter(file, version, idSize);
+        this.jdk = jdk;
+        defineClass("java.lang.Object", null);
+        defineClass("java.lang.Class", "java.lang.Object");
+        if (jdk < 9) {
+            stringClass = defineClass("java.lang.String", "java.lang.Object", "value", "hash:int");
+        } else {
+            stringClass = defineClass("java.lang.String", "java.lang.Object", "value", "hash:int", "coder:byte");
+        }
+        for (String array : new String[]{"[Z", "[C", "[F", "[D", "[B", "[S", "[I", "[J", "[Ljava/lang/String;"}) {
+            defineClass(array, "java.lang.Object");
+        }
+        objectArrayClass = defineClass("[Ljava/lang/Object;", "java.lang.Object");
+
+        defineClass("java.util.AbstractMap", "java.lang.Object", "keySet", "values");
+        hashMapClass = defineClass("java.util.HashMap", "java.util.AbstractMap",
+                "table", "entrySet", "size:int", "modCount:int", "threshold:int", "loadFactor:float");
+        linkedHashMapClass = defineClass("java.util.LinkedHashMap", "java.util.HashMap", "head", "tail", "accessOrder:boolean");
+        defineClass("java.util.Dictionary", "java.lang.Object");
+        defineClass("java.util.Hashtable", "java.util.Dictionary",
+                "table", "count:int", "threshold:int", "loadFactor:float", "modCount:int", "keySet", "entrySet", "values");
+        if (jdk < 9) {
+            propertiesClass = defineClass("java.util.Properties", "java.util.Hashtable", "defaults");
+        } else {
+            propertiesClass = defineClass("java.util.Properties", "java.util.Hashtable", "defaults", "map");
+        }
+        concurrentHashMapClass = defineClass("java.util.concurrent.ConcurrentHashMap", "java.util.AbstractMap",
+                "table", "nextTable", "baseCount:long", "sizeCtl:int", "transferIndex:int", "cellsBusy:int",
+                "counterCells", "keySet", "values", "entrySet");
+
+        nodeClasses = new long[4];
+        tableClasses = new long[4];
+        nodeClasses[HASH_MAP] = defineClass("java.util.HashMap$Node", "java.lang.Object", "hash:int", "key", "value", "next");
+        nodeClasses[LINKED_HASH_MAP] = defineClass("java.util.LinkedHashMap$Entry", "java.util.HashMap$Node", "before", "after");
+        nodeClasses[HASHTABLE] = defineClass("java.util.Hashtable$Entry", "java.lang.Object", "hash:int", "key", "value", "next");
+        nodeClasses[CONCURRENT_HASH_MAP] = defineClass("java.util.concurrent.ConcurrentHashMap$Node", "java.lang.Object",
+                "hash:int", "key", "val", "next");
+        tableClasses[HASH_MAP] = defineClass("[Ljava/util/HashMap$Node;", "java.lang.Object");
+        tableClasses[LINKED_HASH_MAP] = tableClasses[HASH_MAP];
+        tableClasses[HASHTABLE] = defineClass("[Ljava/util/Hashtable$Entry;", "java.lang.Object");
+        tableClasses[CONCURRENT_HASH_MAP] = defineClass("[Ljava/util/concurrent/ConcurrentHashMap$Node;", "java.lang.Object");
+
+        defineClass("java.util.AbstractCollection", "java.lang.Object");
+        defineClass("java.util.AbstractList", "java.util.AbstractCollection", "modCount:int");
+        arrayListClass = defineClass("java.util.ArrayList", "java.util.AbstractList", "elementData", "size:int");
+    }
+
+    public HprofWriter getWriter() {
+        return writer;
+    }
+
+    public int getJdk() {
+        return jdk;
+    }
+
+    /**
+     * Declares a class once; declaring the same name again returns the first id. All classes
+     * have to be declared before the first objects are flushed, see {@link HprofWriter}.
+     *
+     * @param fields the class's own instance fields, {@code name} for a reference or
+     *               {@code name:type} with a Java primitive type
+     */
+    public long defineClass(String className, String superName, String... fields) throws IOException {
+        Long id = classIds.get(className);
+        if (id != null) return id;
+        long superId = 0;
+        if (superName != null) {
+            Long known = classIds.get(superName);
+            if (known == null) {
+                throw new IllegalArgumentException("Superclass " + superName + " of " + className + " is not defined");
+            }
+            superId = known;
+        }
+        String[] names = new String[fields.length];
+        byte[] types = new byte[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            int colon = fields[i].indexOf(':');
+            names[i] = colon < 0 ? fields[i] : fields[i].substring(0, colon);
+            types[i] = colon < 0 ? OBJECT : primitiveType(fields[i].substring(colon + 1));
+        }
+        String vmName = className.startsWith("[") ? className : className.replace('.', '/');
+        id = writer.defineClass(vmName, superId, names, types);
+        classIds.put(className, id);
+        return id;
+    }
+
+    public long classId(String className) {
+        Long id = classIds.get(className);
+        if (id == null) {
+            throw new IllegalArgumentException("Class " + className + " is not defined");
+        }
+        return id;
+    }
+
+    public long instance(String className, Object... values) throws IOException {
+        return writer.instance(classId(className), values);
+    }
+
+    /**
+     * Writes a String in the layout of the builder's JDK. Compact Strings are Latin-1 when every
+     * char fits, otherwise UTF-16 in the little-endian byte order of x86 and aarch64 VMs.
+     */
+    public long string(String text) throws IOException {
+        if (text == null) return 0;
+        if (jdk < 9) {
+            return writer.instance(stringClass, chars(text), 0);
+        }
+        boolean latin1 = true;
+        for (int i = 0; i < text.length() && latin1; i++) {
+            latin1 = text.charAt(i) < 0x100;
+        }
+        byte[] value;
+        if (latin1) {
+            value = text.getBytes("ISO-8859-1");
+        } else {
+            value = new byte[text.length() * 2];
+            for (int i = 0; i < text.length(); i++) {
+                value[i * 2] = (byte) text.charAt(i);
+                value[i * 2 + 1] = (byte) (text.charAt(i) >> 8);
+            }
+        }
+        long valueId = writer.primitiveArray(BYTE, value.length, value);
+        return writer.instance(stringClass, valueId, 0, latin1 ? 0 : 1);
+    }
+
+    public long bytes(byte[] value) throws IOException {
+        return writer.primitiveArray(BYTE, value.length, value);
+    }
+
+    public long chars(String text) throws IOException {
+        byte[] value = new byte[text.length() * 2];
+        for (int i = 0; i < text.length(); i++) {
+            value[i * 2] = (byte) (text.charAt(i) >> 8);
+            value[i * 2 + 1] = (byte) text.charAt(i);
+        }
+        return writer.primitiveArray(CHAR, text.length(), value);
+    }
+
+    public long objectArray(long... elements) throws IOException {
+        return writer.objectArray(objectArrayClass, elements);
+    }
+
+    public long arrayList(long... elements) throws IOException {
+        // ArrayList grows to 10 on its first add
+        long[] elementData = new long[Math.max(10, elements.length)];
+        System.arraycopy(elements, 0, elementData, 0, elements.length);
+        return writer.instance(arrayListClass, objectArray(elementData), elements.length, elements.length);
+    }
+
+    public long hashMap(Map<String, String> entries) throws IOException {
+        Table table = writeTable(entries, HASH_MAP);
+        return writeHashMap(hashMapClass, table, entries.size());
+    }
+
+    /**
+     * Writes a {@code LinkedHashMap}, whose {@code LinkedHashMap$Entry} nodes the map entry scans
+     * pick up.
+     */
+    public long linkedHashMap(Map<String, String> entries) throws IOException {
+        Table table = writeTable(entries, LINKED_HASH_MAP);
+        int size = entries.size();
+        long head = size == 0 ? 0 : table.order[0];
+        long tail = size == 0 ? 0 : table.order[size - 1];
+        return writer.instance(linkedHashMapClass, head, tail, false,
+                table.id, 0, size, size, table.capacity * 3 / 4, 0.75f, 0, 0);
+    }
+
+    /**
+     * Writes a map of the given class that extends {@code HashMap} without fields of its own.
+     */
+    public long hashMap(String className, Map<String, String> entries) throws IOException {
+        Table table = writeTable(entries, HASH_MAP);
+        return writeHashMap(classId(className), table, entries.size());
+    }
+
+    public long properties(Map<String, String> entries) throws IOException {
+        int size = entries.size();
+        if (jdk < 9) {
+            Table table = writeTable(entries, HASHTABLE);
+            return writer.instance(propertiesClass, 0,
+                    table.id, size, table.capacity * 3 / 4, 0.75f, size, 0, 0, 0);
+        }
+        Table table = writeTable(entries, CONCURRENT_HASH_MAP);
+        long map = writer.instance(concurrentHashMapClass, table.id, 0, (long) size, table.capacity * 3 / 4, 0, 0, 0, 0, 0, 0, 0, 0);
+        // Properties(int) hands a null table to Hashtable and keeps everything in the map
+        return writer.instance(propertiesClass, 0, map, 0, 0, 0, 0.75f, 0, 0, 0, 0);
+    }
+
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    private long writeHashMap(long classId, Table table, int size) throws IOException {
+        return writer.instance(classId, table.id, 0, size, size, table.capacity * 3 / 4, 0.75f, 0, 0);
+    }
+
+    /**
+     * Writes the nodes and bucket array of a hash table, placing every entry in the bucket the
+     * real implementation would.
+     */
+    private Table writeTable(Map<String, String> entries, int kind) throws IOException {
+        int capacity = kind == HASHTABLE ? 11 : 16;
+        while (capacity * 3 / 4 < entries.size()) {
+            capacity = kind == HASHTABLE ? capacity * 2 + 1 : capacity << 1;
+        }
+        Table table = new Table(capacity, entries.size());
+        long[] buckets = new long[capacity];
+        Object[][] nodes = new Object[entries.size()][];
+        int n = 0;
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            int h = entry.getKey().hashCode();
+            int hash;
+            int bucket;
+            if (kind == HASHTABLE) {
+                hash = h;
+                bucket = (h & 0x7FFFFFFF) % capacity;
+            } else {
+                hash = kind == CONCURRENT_HASH_MAP ? (h ^ (h >>> 16)) & 0x7FFFFFFF : h ^ (h >>> 16);
+                bucket = hash & (capacity - 1);
+            }
+            long nodeId = writer.newId();
+            // prepend to the bucket chain; the order within a bucket does not matter to readers
+            nodes[n] = new Object[]{hash, string(entry.getKey()), string(entry.getValue()), buckets[bucket]};
+            buckets[bucket] = nodeId;
+            table.order[n++] = nodeId;
+        }
+        for (int i = 0; i < nodes.length; i++) {
+            Object[] node = nodes[i];
+            if (kind == LINKED_HASH_MAP) {
+                long before = i == 0 ? 0 : table.order[i - 1];
+                long after = i == nodes.length - 1 ? 0 : table.order[i + 1];
+                writer.writeInstance(table.order[i], nodeClasses[kind], before, after, node[0], node[1], node[2], node[3]);
+            } else {
+                writer.writeInstance(table.order[i], nodeClasses[kind], node[0], node[1], node[2], node[3]);
+            }
+        }
+        table.id = writer.objectArray(tableClasses[kind], buckets);
+        return table;
+    }
+
+    private static byte primitiveType(String name) {
+        if (name.equals("boolean")) return BOOLEAN;
+        if (name.equals("char")) return CHAR;
+        if (name.equals("float")) return FLOAT;
+        if (name.equals("double")) return DOUBLE;
+        if (name.equals("byte")) return BYTE;
+        if (name.equals("short")) return SHORT;
+        if (name.equals("int")) return INT;
+        if (name.equals("long")) return LONG;
+        throw new IllegalArgumentException("Unknown field type " + name);
+    }
+
+    private static class Table {
+        final int capacity;
+        /**
+         * Node ids in insertion order.
+         */
+        final long[] order;
+        long id;
+
+        Table(int capacity, int size) {
+            this.capacity = capacity;
+            order = new long[size];
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package cn.wanghw.bench;
+
+import cn.wanghw.FieldPath;
+import cn.wanghw.IHeapHolder;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link IHeapHolder} calls the spiders spend their time in, per engine. Each operation runs
+ * over a fixed sample of instances so results compare across scales.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HeapHolderBenchmark {
+    private static final int SAMPLE = 256;
+
+    @Param({"100000"})
+    public int scale;
+
+    @Param({"native", "graalvm", "netbeans"})
+    public String engine;
+
+    private IHeapHolder heapHolder;
+    private Object stringClass;
+    private Object[] strings;
+    private Object[] propertySources;
+    private Object[] maps;
+    private Object[] tables;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        heapHolder = BenchmarkFixture.open(engine, BenchmarkFixture.get(scale));
+        stringClass = heapHolder.findClass("java.lang.String");
+        strings = sample(heapHolder.getInstances(stringClass));
+        propertySources = sample(heapHolder.getInstances(heapHolder.findClass(BenchmarkFixture.PROPERTY_SOURCE)));
+        maps = new Object[propertySources.length];
+        tables = new Object[propertySources.length];
+        for (int i = 0; i < propertySources.length; i++) {
+            maps[i] = heapHolder.getFieldValue(propertySources[i], "source");
+            tables[i] = heapHolder.getMap(maps[i]);
+        }
+    }
+
+    private static Object[] sample(List instances) {
+        Object[] result = new Object[Math.min(SAMPLE, instances.size())];
+        // spread over the whole list rather than the first few segments of the dump
+        for (int i = 0; i < result.length; i++) {
+            result[i] = instances.get((int) ((long) i * instances.size() / result.length));
+        }
+        return result;
+    }
+
+    @Benchmark
+    public void decodeStrings(Blackhole bh) {
+        for (Object string : strings) {
+            bh.consume(heapHolder.toString(string));
+        }
+    }
+
+    @Benchmark
+    public void dottedFieldValue(Blackhole bh) {
+        for (Object propertySource : propertySources) {
+            bh.consume(heapHolder.getFieldValue(propertySource, "source.table"));
+        }
+    }
+
+    @Benchmark
+    public void compiledFieldPath(Blackhole bh) {
+        FieldPath path = FieldPath.compile("source.table");
+        for (Object propertySource : propertySources) {
+            bh.consume(heapHolder.getFieldValue(propertySource, path));
+        }
+    }
+
+    @Benchmark
+    public void arrayDump(Blackhole bh) {
+        for (Object table : tables) {
+            bh.consume(heapHolder.arrayDump(table));
+        }
+    }
+
+    @Benchmark
+    public void getMap(Blackhole bh) {
+        for (Object map : maps) {
+            bh.consume(heapHolder.getMap(map));
+        }
+    }
+
+    @Benchmark
+    public int getStringInstances() {
+        return heapHolder.getInstances(stringClass).size();
+    }
+
+    @Benchmark
+    public void iterateStringInstances(Blackhole bh) {
+        for (Iterator it = heapHolder.getInstancesIterator(stringClass); it.hasNext(); ) {
+            bh.consume(it.next());
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package cn.wanghw.bench;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+
+import static cn.wanghw.hprof.HprofHeap.*;
+
+/**
+ * Writes an HPROF file record by record. Heap dump sub-records are collected into segments of at
+ * most {@link #SEGMENT_LIMIT} bytes, so memory use stays flat however large the dump gets.
+ * Version 1.0.2 files get one HEAP DUMP SEGMENT record per segment; 1.0.1 files get a single
+ * HEAP DUMP record whose length is filled in on {@link #close()}, which limits them to 4 GB.
+ * <p>
+ * The profiler libraries expect every name and LOAD CLASS record ahead of the heap dump, so all
+ * names and classes have to be written before the first segment is flushed.
+ */
+public class HprofWriter implements Closeable {
+    static final int UTF8 = 0x01;
+    static final int LOAD_CLASS = 0x02;
+    static final int HEAP_DUMP = 0x0C;
+    static final int HEAP_DUMP_SEGMENT = 0x1C;
+    static final int HEAP_DUMP_END = 0x2C;
+    static final int ROOT_STICKY_CLASS = 0x05;
+    static final int CLASS_DUMP = 0x20;
+    static final int INSTANCE_DUMP = 0x21;
+    static final int OBJECT_ARRAY_DUMP = 0x22;
+    static final int PRIMITIVE_ARRAY_DUMP = 0x23;
+    private static final int SEGMENT_LIMIT = 1 << 20;
+
+    public static final String VERSION_1_0_1 = "JAVA PROFILE 1.0.1";
+    public static final String VERSION_1_0_2 = "JAVA PROFILE 1.0.2";
+
+    private final File file;
+    private final FileOutputStream fileOut;
+    private final DataOutputStream out;
+    private final boolean segmented;
+    private final int idSize;
+    private final long maxId;
+    private final ByteArrayOutputStream segmentBytes = new ByteArrayOutputStream(SEGMENT_LIMIT + 64 * 1024);
+    private final DataOutputStream segment = new DataOutputStream(segmentBytes);
+    private final Map<String, Long> names = new HashMap<String, Long>();
+    /**
+     * Instance field types per class id, the class's own fields first and then its superclasses',
+     * which is the order instance dumps store their values in.
+     */
+    private final Map<Long, byte[]> layouts = new HashMap<Long, byte[]>();
+    private long nextId;
+    private int classSerial;
+    private boolean heapDumpStarted;
+    private long heapDumpOffset = -1;
+    private long heapDumpLength;
+
+    /**
+     * @param version {@link #VERSION_1_0_1} or {@link #VERSION_1_0_2}
+     * @param idSize  4 or 8
+     */
+    public HprofWriter(File file, String version, int idSize) throws IOException {
+        if (!version.equals(VERSION_1_0_1) && !version.equals(VERSION_1_0_2)) {
+            throw new IllegalArgumentException("Unsupported HPROF version " + version);
+        }
+        if (idSize != 4 && idSize != 8) {
+            throw new IllegalArgumentException("Unsupported identifier size " + idSize);
+        }
+        this.file = file;
+        this.idSize = idSize;
+        segmented = version.equals(VERSION_1_0_2);
+        maxId = idSize == 4 ? 0xFFFFFFFFL : Long.MAX_VALUE;
+        nextId = 0x10000;
+        fileOut = new FileOutputStream(file);
+        out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 20));
+        out.write(version.getBytes("US-ASCII"));
+        out.write(0);
+        out.writeInt(idSize);
+        out.writeLong(System.currentTimeMillis());
+    }
+
+    /**
+     * Reserves an object id, for objects that are referenced before they are written.
+     */
+    public long newId() {
+        long id = nextId;
+        if (id > maxId - idSize) {
+            throw new IllegalStateException("Out of " + idSize + " byte object ids");
+        }
+        nextId += idSize;
+        return id;
+    }
+
+    /**
+     * @return the id of the UTF8 record holding {@code text}, written the first time it is asked for
+     */
+    public long name(String text) throws IOException {
+        Long id = names.get(text);
+        if (id == null) {
+            id = newId();
+            byte[] bytes = text.getBytes("UTF-8");
+            writeRecordHeader(UTF8, idSize + bytes.length);
+            writeId(out, id);
+            out.write(bytes);
+            names.put(text, id);
+        }
+        return id;
+    }
+
+    /**
+     * Writes the LOAD CLASS record and class dump of a class without static fields.
+     *
+     * @param vmName     the name as the VM reports it, such as {@code java/lang/String} or {@code [B}
+     * @param superId    the superclass id, 0 for {@code java.lang.Object}
+     * @param fieldNames the class's own instance fields
+     * @return the class id
+     */
+    public long defineClass(String vmName, long superId, String[] fieldNames, byte[] fieldTypes) throws IOException {
+        long classId = newId();
+        long nameId = name(vmName);
+        long[] fieldNameIds = new long[fieldNames.length];
+        for (int i = 0; i < fieldNames.length; i++) {
+            fieldNameIds[i] = name(fieldNames[i]);
+        }
+        writeRecordHeader(LOAD_CLASS, 4 + idSize + 4 + idSize);
+        out.writeInt(++classSerial);
+        writeId(out, classId);
+        out.writeInt(0);
+        writeId(out, nameId);
+
+        byte[] superLayout = superId == 0 ? new byte[0] : layouts.get(superId);
+        if (superLayout == null) {
+            throw new IllegalArgumentException("Superclass 0x" + Long.toHexString(superId) + " is not defined");
+        }
+        byte[] layout = new byte[fieldTypes.length + superLayout.length];
+        System.arraycopy(fieldTypes, 0, layout, 0, fieldTypes.length);
+        System.arraycopy(superLayout, 0, layout, fieldTypes.length, superLayout.length);
+        layouts.put(classId, layout);
+
+        startSubRecord(ROOT_STICKY_CLASS);
+        writeId(segment, classId);
+        startSubRecord(CLASS_DUMP);
+        writeId(segment, classId);
+        segment.writeInt(0);
+        writeId(segment, superId);
+        for (int i = 0; i < 5; i++) {
+            // class loader, signers, protection domain and two reserved ids
+            writeId(segment, 0);
+        }
+        segment.writeInt(valuesSize(layout));
+        segment.writeShort(0);
+        segment.writeShort(0);
+        segment.writeShort(fieldNames.length);
+        for (int i = 0; i < fieldNames.length; i++) {
+            writeId(segment, fieldNameIds[i]);
+            segment.writeByte(fieldTypes[i]);
+        }
+        return classId;
+    }
+
+    public long instance(long classId, Object... values) throws IOException {
+        long id = newId();
+        writeInstance(id, classId, values);
+        return id;
+    }
+
+    /**
+     * @param values one per field in the order of the class layout: the class's own fields first,
+     *               then its superclasses'. References are given as ids, 0 or null for null.
+     */
+    public void writeInstance(long id, long classId, Object... values) throws IOException {
+        byte[] layout = layouts.get(classId);
+        if (layout == null || layout.length != values.length) {
+            throw new IllegalArgumentException("Class 0x" + Long.toHexString(classId) + " does not take " + values.length + " values");
+        }
+        startSubRecord(INSTANCE_DUMP);
+        writeId(segment, id);
+        segment.writeInt(0);
+        writeId(segment, classId);
+        segment.writeInt(valuesSize(layout));
+        for (int i = 0; i < layout.length; i++) {
+            writeValue(layout[i], values[i]);
+        }
+    }
+
+    public long objectArray(long arrayClassId, long[] elements) throws IOException {
+        long id = newId();
+        startSubRecord(OBJECT_ARRAY_DUMP);
+        writeId(segment, id);
+        segment.writeInt(0);
+        segment.writeInt(elements.length);
+        writeId(segment, arrayClassId);
+        for (long element : elements) {
+            writeId(segment, element);
+        }
+        return id;
+    }
+
+    /**
+     * @param data {@code length} elements of {@code type}, already in HPROF (big-endian) order
+     */
+    public long primitiveArray(byte type, int length, byte[] data) throws IOException {
+        if (data.length != length * sizeOf(type)) {
+            throw new IllegalArgumentException(data.length + " bytes do not hold " + length + " elements of type " + type);
+        }
+        long id = newId();
+        startSubRecord(PRIMITIVE_ARRAY_DUMP);
+        writeId(segment, id);
+        segment.writeInt(0);
+        segment.writeInt(length);
+        segment.writeByte(type);
+        segment.write(data);
+        return id;
+    }
+
+    public void close() throws IOException {
+        try {
+            flushSegment();
+            if (segmented) {
+                writeRecordHeader(HEAP_DUMP_END, 0);
+            }
+        } finally {
+            out.close();
+        }
+        if (heapDumpOffset >= 0) {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.seek(heapDumpOffset + 5);
+                raf.writeInt((int) heapDumpLength);
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    private void startSubRecord(int tag) throws IOException {
+        if (segmentBytes.size() >= SEGMENT_LIMIT) {
+            flushSegment();
+        }
+        segment.writeByte(tag);
+    }
+
+    private void flushSegment() throws IOException {
+        if (segmentBytes.size() == 0) return;
+        if (segmented) {
+            writeRecordHeader(HEAP_DUMP_SEGMENT, segmentBytes.size());
+        } else {
+            if (heapDumpOffset < 0) {
+                out.flush();
+                heapDumpOffset = fileOut.getChannel().position();
+                // the length is patched in by close()
+                writeRecordHeader(HEAP_DUMP, 0);
+            }
+            heapDumpLength += segmentBytes.size();
+            if (heapDumpLength > 0xFFFFFFFFL) {
+                throw new IOException("A " + VERSION_1_0_1 + " heap dump cannot exceed 4 GB, write " + VERSION_1_0_2 + " instead");
+            }
+        }
+        heapDumpStarted = true;
+        segmentBytes.writeTo(out);
+        segmentBytes.reset();
+    }
+
+    private void writeRecordHeader(int tag, int length) throws IOException {
+        if (heapDumpStarted && tag != HEAP_DUMP_SEGMENT && tag != HEAP_DUMP_END) {
+            throw new IllegalStateException("Names and classes must be written before the heap dump");
+        }
+        out.writeByte(tag);
+        out.writeInt(0);
+        out.writeInt(length);
+    }
+
+    private void writeId(DataOutputStream stream, long id) throws IOException {
+        if (idSize == 4) {
+            stream.writeInt((int) id);
+        } else {
+            stream.writeLong(id);
+        }
+    }
+
+    private void writeValue(byte type, Object value) throws IOException {
+        switch (type) {
+            case OBJECT:
+                writeId(segment, value == null ? 0 : ((Number) value).longValue());
+                break;
+            case BOOLEAN:
+                segment.writeBoolean(value != null && (Boolean) value);
+                break;
+            case CHAR:
+                segment.writeChar(value == null ? 0 : (Character) value);
+                break;
+            case FLOAT:
+                segment.writeFloat(value == null ? 0 : ((Number) value).floatValue());
+                break;
+            case DOUBLE:
+                segment.writeDouble(value == null ? 0 : ((Number) value).doubleValue());
+                break;
+            case BYTE:
+                segment.writeByte(value == null ? 0 : ((Number) value).byteValue());
+                break;
+            case SHORT:
+                segment.writeShort(value == null ? 0 : ((Number) value).shortValue());
+                break;
+            case INT:
+                segment.writeInt(value == null ? 0 : ((Number) value).intValue());
+                break;
+            case LONG:
+                segment.writeLong(value == null ? 0 : ((Number) value).longValue());
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid basic type " + type);
+        }
+    }
+
+    private int valuesSize(byte[] layout) {
+        int size = 0;
+        for (byte type : layout) {
+            size += sizeOf(type);
+        }
+        return size;
+    }
+
+    private int sizeOf(byte type) {
+        switch (type) {
+            case OBJECT:
+                return idSize;
+            case BOOLEAN:
+            case BYTE:
+                return 1;
+            case CHAR:
+            case SHORT:
+                return 2;
+            case FLOAT:
+            case INT:
+                return 4;
+            case DOUBLE:
+            case LONG:
+                return 8;
+            default:
+                throw new IllegalArgumentException("Invalid basic type " + type);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package cn.wanghw.bench;
+
+import cn.wanghw.HeapScanner;
+import cn.wanghw.IHeapHolder;
+import cn.wanghw.IScanSpider;
+import cn.wanghw.ISpider;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One full {@code sniff} per spider. Scanning spiders run their own walk here, as they do when
+ * called on their own; the walk Main shares between them is not measured. With {@code threads}
+ * above 1 that walk splits large classes the way {@code -threads} does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SpiderBenchmark {
+    @Param({"100000"})
+    public int scale;
+
+    @Param({"native"})
+    public String engine;
+
+    @Param({"DataSource01", "DataSource02", "DataSource03", "DataSource04", "DataSource05",
+            "Redis01", "Redis02", "ShiroKey01",
+            "PropertySource01", "PropertySource02", "PropertySource03", "PropertySource04", "PropertySource05",
+            "EnvProperty01", "OSS01", "UserPassSearcher01", "CookieThief", "AuthThief"})
+    public String spider;
+
+    @Param({"1"})
+    public int threads;
+
+    private IHeapHolder heapHolder;
+    private Class<?> spiderClass;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        heapHolder = BenchmarkFixture.open(engine, BenchmarkFixture.get(scale));
+        spiderClass = Class.forName("cn.wanghw.spider." + spider);
+    }
+
+    @Benchmark
+    public String sniff() throws Exception {
+        // spiders keep per-run state, so every invocation gets a fresh one
+        ISpider instance = (ISpider) spiderClass.newInstance();
+        if (threads > 1 && instance instanceof IScanSpider) {
+            HeapScanner scanner = new HeapScanner();
+            scanner.setThreads(threads);
+            ((IScanSpider) instance).register(scanner);
+            scanner.scan(heapHolder);
+            return ((IScanSpider) instance).collect(heapHolder);
+        }
+        return instance.sniff(heapHolder);
+    }
+}
@@ -0,0 +1,101 @@
+package cn.wanghw;
+
+import cn.wanghw.bench.BenchmarkFixture;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Collections;
+
+/**
+ * Round trips to a {@link SpiderServer} on an ephemeral loopback port, over a generated dump.
+ */
+public class SpiderServerTest extends TestCase {
+    private File dump;
+    private SpiderServer server;
+    private String host;
+
+    protected void setUp() throws Exception {
+        dump = BenchmarkFixture.get(1000).getAbsoluteFile();
+        server = new SpiderServer(0, Collections.<String>emptyList());
+        server.add(dump, BenchmarkFixture.open("native", dump));
+        server.start();
+        host = "127.0.0.1:" + server.getPort();
+    }
+
+    protected void tearDown() {
+        server.stop();
+    }
+
+    public void testRefusesRequestWithoutToken() throws Exception {
+        assertEquals(403, request("GET", "/dumps", host, null).status);
+        assertEquals(403, request("GET", "/dumps", host, server.getToken() + "0").status);
+    }
+
+    public void testRefusesForeignHost() throws Exception {
+        assertEquals(403, request("GET", "/dumps", "attacker.example:" + server.getPort(), server.getToken()).status);
+    }
+
+    public void testLoadOnlyTakesPost() throws Exception {
+        Response response = request("GET", "/load?path=" + dump.getPath(), host, server.getToken());
+        assertEquals(405, response.status);
+        assertEquals("/load only takes POST\n", response.body);
+    }
+
+    public void testSpiderAnswersAsMain() throws Exception {
+        Response response = request("GET", "/spider?name=SpringDataSourceProperties&format=ndjson", host, server.getToken());
+        assertEquals(200, response.status);
+        String expected = Main.run(new String[]{dump.getPath(), "-spiders", "DataSource01", "-format", "ndjson"});
+        assertTrue(expected.contains("mysql-secret-0"));
+        assertEquals(expected, response.body);
+
+        response = request("GET", "/spider?name=DataSource01", host, server.getToken());
+        assertEquals(200, response.status);
+        assertTrue(response.body.contains("password = mysql-secret-0"));
+        assertTrue(Main.run(new String[]{dump.getPath(), "-spiders", "DataSource01"}).contains(response.body));
+    }
+
+    /**
+     * Writes the request by hand, since HttpURLConnection does not let the Host header be set.
+     */
+    private static Response request(String method, String target, String host, String token) throws Exception {
+        Socket socket = new Socket("127.0.0.1", Integer.parseInt(host.substring(host.lastIndexOf(':') + 1)));
+        try {
+            StringBuilder request = new StringBuilder();
+            request.append(method).append(' ').append(target).append(" HTTP/1.1\r\n");
+            request.append("Host: ").append(host).append("\r\n");
+            if (token != null) {
+                request.append("X-Token: ").append(token).append("\r\n");
+            }
+            request.append("Connection: close\r\n\r\n");
+            OutputStream out = socket.getOutputStream();
+            out.write(request.toString().getBytes("UTF-8"));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                bytes.write(buffer, 0, n);
+            }
+            String response = bytes.toString("UTF-8");
+            int headerEnd = response.indexOf("\r\n\r\n");
+            return new Response(Integer.parseInt(response.split(" ")[1]), response.substring(headerEnd + 4));
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static class Response {
+        final int status;
+        final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+}
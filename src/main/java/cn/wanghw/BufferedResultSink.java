@@ -0,0 +1,59 @@
+package cn.wanghw;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds what a forked visitor finds until its run is joined, then hands it on to the sink the
+ * fork stands in for, in the order it was found. Keeps what that sink keeps, text or records.
+ */
+public class BufferedResultSink extends ResultSink {
+    private final ResultSink target;
+    private final boolean structured;
+    private final StringBuilder text = new StringBuilder();
+    private final List<Record> records = new ArrayList<Record>();
+
+    public BufferedResultSink(ResultSink target) {
+        this.target = target;
+        this.structured = target.isStructured();
+    }
+
+    public void append(String text) {
+        if (!structured) this.text.append(text);
+    }
+
+    public boolean isStructured() {
+        return structured;
+    }
+
+    public void record(String className, long objectId, Map<String, String> values) {
+        if (structured) records.add(new Record(className, objectId, values));
+    }
+
+    /**
+     * Hands everything held so far on to the target and empties the sink.
+     */
+    public void flush() {
+        if (text.length() > 0) {
+            target.append(text.toString());
+            text.setLength(0);
+        }
+        for (Record record : records) {
+            target.record(record.className, record.objectId, record.values);
+        }
+        records.clear();
+    }
+
+    private static class Record {
+        final String className;
+        final long objectId;
+        final Map<String, String> values;
+
+        Record(String className, long objectId, Map<String, String> values) {
+            this.className = className;
+            this.objectId = objectId;
+            this.values = values;
+        }
+    }
+}
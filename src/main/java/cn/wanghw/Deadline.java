@@ -0,0 +1,76 @@
+package cn.wanghw;
+
+/**
+ * When spiders have to stop: at a point in time, when cancelled, or when the deadline it was
+ * derived from stops. Checked by {@link DeadlineHeapHolder} on every call into the heap, so a
+ * spider stops at its next read however it loops.
+ */
+public class Deadline {
+    /**
+     * Calls between two looks at the clock and at the parent deadline.
+     */
+    private static final int CLOCK_INTERVAL = 256;
+
+    private final Deadline parent;
+    private final long end;
+    private final boolean bounded;
+    private final String description;
+    private volatile boolean cancelled;
+    // racing threads may lose counts, which only moves the next look at the clock
+    private int calls;
+
+    private Deadline(Deadline parent, long millis, String description) {
+        this.parent = parent;
+        this.bounded = millis >= 0;
+        this.end = System.nanoTime() + Math.max(millis, 0) * 1000000L;
+        this.description = description;
+    }
+
+    /**
+     * @return a deadline that only stops when cancelled
+     */
+    public static Deadline none() {
+        return new Deadline(null, -1, "cancelled");
+    }
+
+    /**
+     * @param description what to report when it hits, such as the flag that set it
+     */
+    public static Deadline after(long millis, String description) {
+        return new Deadline(null, millis, description);
+    }
+
+    /**
+     * @return a deadline that also stops when this one does
+     */
+    public Deadline child(long millis, String description) {
+        return new Deadline(this, millis, description);
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isExpired() {
+        if (cancelled) return true;
+        if (bounded && System.nanoTime() - end >= 0) {
+            cancelled = true;
+            return true;
+        }
+        return parent != null && parent.isExpired();
+    }
+
+    /**
+     * @throws DeadlineExceededError if the deadline has passed
+     */
+    public void check() {
+        if (cancelled || (++calls % CLOCK_INTERVAL == 0 && isExpired())) {
+            throw new DeadlineExceededError(describe());
+        }
+    }
+
+    private String describe() {
+        if (parent != null && parent.isExpired()) return parent.describe();
+        return description;
+    }
+}
@@ -0,0 +1,13 @@
+package cn.wanghw;
+
+/**
+ * Stops a spider whose {@link Deadline} passed. An Error, like {@link ThreadDeath}, so that the
+ * {@code catch (Exception ex)} blocks spiders guard each instance with let it through.
+ */
+public class DeadlineExceededError extends Error {
+    private static final long serialVersionUID = 1L;
+
+    public DeadlineExceededError(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,277 @@
+package cn.wanghw;
+
+import java.io.Closeable;
+import java.util.*;
+
+/**
+ * Wraps a heap holder for {@code -timeout} and {@code -spider-timeout}: every read of a class,
+ * instance or field checks the {@link Deadline} the calling thread runs under, or the holder's own
+ * if it runs under none, and throws {@link DeadlineExceededError} once it passed. Stepping through
+ * the instances of a class counts as a read, so a loop over millions of them stops too.
+ */
+public class DeadlineHeapHolder implements IHeapHolder {
+    private final IHeapHolder heapHolder;
+    private final Deadline deadline;
+    private final ThreadLocal<Deadline> current = new ThreadLocal<Deadline>();
+
+    public DeadlineHeapHolder(IHeapHolder heapHolder, Deadline deadline) {
+        this.heapHolder = heapHolder;
+        this.deadline = deadline;
+    }
+
+    public Deadline getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Checks calls from the current thread against {@code spiderDeadline} until {@link #end}.
+     */
+    public void begin(Deadline spiderDeadline) {
+        current.set(spiderDeadline);
+    }
+
+    public void end() {
+        current.remove();
+    }
+
+    private void check() {
+        Deadline d = current.get();
+        (d == null ? deadline : d).check();
+    }
+
+    public Object findClass(String var1) {
+        check();
+        return heapHolder.findClass(var1);
+    }
+
+    public Iterator getClasses() {
+        final Iterator classes = heapHolder.getClasses();
+        return new Iterator() {
+            public boolean hasNext() {
+                return classes.hasNext();
+            }
+
+            public Object next() {
+                check();
+                return classes.next();
+            }
+
+            public void remove() {
+                classes.remove();
+            }
+        };
+    }
+
+    public boolean isInstanceOf(Object javaClass, String className) {
+        return heapHolder.isInstanceOf(javaClass, className);
+    }
+
+    public boolean isArray(Object javaClass) {
+        return heapHolder.isArray(javaClass);
+    }
+
+    public Object[] getSubClasses(Object javaClass) {
+        return heapHolder.getSubClasses(javaClass);
+    }
+
+    public List getInstances(Object javaClass) {
+        check();
+        final List instances = heapHolder.getInstances(javaClass);
+        return new AbstractList() {
+            public Object get(int index) {
+                check();
+                return instances.get(index);
+            }
+
+            public int size() {
+                return instances.size();
+            }
+
+            public Iterator iterator() {
+                final Iterator iterator = instances.iterator();
+                return new Iterator() {
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    public Object next() {
+                        check();
+                        return iterator.next();
+                    }
+
+                    public void remove() {
+                        iterator.remove();
+                    }
+                };
+            }
+        };
+    }
+
+    public Iterator getInstancesIterator(Object javaClass) {
+        check();
+        final Iterator instances = heapHolder.getInstancesIterator(javaClass);
+        return new Iterator() {
+            public boolean hasNext() {
+                return instances.hasNext();
+            }
+
+            public Object next() {
+                check();
+                return instances.next();
+            }
+
+            public void remove() {
+                instances.remove();
+            }
+        };
+    }
+
+    /**
+     * The runs may be walked on other threads, so each checks the deadline of the thread that
+     * asked for them. A run may seek its start on its first {@code hasNext()}, so that checks too.
+     */
+    public List<Iterator> getInstancePartitions(Object javaClass, int parts, int minSize) {
+        check();
+        Deadline d = current.get();
+        final Deadline runDeadline = d == null ? deadline : d;
+        List<Iterator> result = new ArrayList<Iterator>();
+        for (Iterator instances : heapHolder.getInstancePartitions(javaClass, parts, minSize)) {
+            result.add(new DeadlineRun(instances, runDeadline));
+        }
+        return result;
+    }
+
+    private static class DeadlineRun implements Iterator, Closeable {
+        private final Iterator instances;
+        private final Deadline deadline;
+
+        DeadlineRun(Iterator instances, Deadline deadline) {
+            this.instances = instances;
+            this.deadline = deadline;
+        }
+
+        public boolean hasNext() {
+            deadline.check();
+            return instances.hasNext();
+        }
+
+        public Object next() {
+            deadline.check();
+            return instances.next();
+        }
+
+        public void remove() {
+            instances.remove();
+        }
+
+        public void close() {
+            HeapScanner.close(instances);
+        }
+    }
+
+    public List getFields(Object javaClass) {
+        return heapHolder.getFields(javaClass);
+    }
+
+    public List getAllFields(Object javaClass) {
+        return heapHolder.getAllFields(javaClass);
+    }
+
+    public String getClassName(Object javaClass) {
+        return heapHolder.getClassName(javaClass);
+    }
+
+    public Object getSuperClass(Object javaClass) {
+        return heapHolder.getSuperClass(javaClass);
+    }
+
+    public String getFieldName(Object field) {
+        return heapHolder.getFieldName(field);
+    }
+
+    public Object getFieldClass(Object field) {
+        return heapHolder.getFieldClass(field);
+    }
+
+    public Object findThing(long objectId) {
+        check();
+        return heapHolder.findThing(objectId);
+    }
+
+    public long getObjectId(Object instance) {
+        return heapHolder.getObjectId(instance);
+    }
+
+    public Object getValueOfField(Object instance, String fieldName) {
+        check();
+        return heapHolder.getValueOfField(instance, fieldName);
+    }
+
+    public HashMap<String, String> getFieldsByNameList(Object instance, HashMap<String, String> fieldList) {
+        check();
+        return heapHolder.getFieldsByNameList(instance, fieldList);
+    }
+
+    public HashMap<String, String> getFieldsByPaths(Object instance, Map<String, FieldPath> paths) {
+        check();
+        return heapHolder.getFieldsByPaths(instance, paths);
+    }
+
+    public HashMap<String, String> arrayDump(Object instance) {
+        check();
+        return heapHolder.arrayDump(instance);
+    }
+
+    public Object[] getArrayItems(Object instance) {
+        check();
+        return heapHolder.getArrayItems(instance);
+    }
+
+    public String getFieldStringValue(Object instance, String fieldName) {
+        check();
+        return heapHolder.getFieldStringValue(instance, fieldName);
+    }
+
+    public Object getFieldValue(Object instance, String fieldName) {
+        check();
+        return heapHolder.getFieldValue(instance, fieldName);
+    }
+
+    public Object getFieldValue(Object instance, FieldPath path) {
+        check();
+        return heapHolder.getFieldValue(instance, path);
+    }
+
+    public String getFieldStringValue(Object instance, FieldPath path) {
+        check();
+        return heapHolder.getFieldStringValue(instance, path);
+    }
+
+    public Object getReference(Object instance, FieldPath path) {
+        check();
+        return heapHolder.getReference(instance, path);
+    }
+
+    public boolean isMap(Object instance) {
+        return heapHolder.isMap(instance);
+    }
+
+    public Object getMap(Object instance) {
+        check();
+        return heapHolder.getMap(instance);
+    }
+
+    public String toString(Object instance) {
+        check();
+        return heapHolder.toString(instance);
+    }
+
+    public byte[] toByteArray(Object _instance) {
+        check();
+        return heapHolder.toByteArray(_instance);
+    }
+
+    public void close() {
+        heapHolder.close();
+    }
+}
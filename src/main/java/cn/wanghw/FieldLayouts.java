@@ -0,0 +1,121 @@
+package cn.wanghw;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads fields straight out of instance records for the heap holders over the profiler libraries,
+ * instead of going through the library's per-field lookups. Keeps, for each class, its instance
+ * fields flattened with its superclasses', in the order of an instance record, with the offset of
+ * each value from the start of the record; where a name repeats the last one wins, as in the
+ * libraries' {@code Instance.getValueOfField}. A holder supplies only its library's types.
+ *
+ * @param <C> the library's class type
+ * @param <F> the library's field type
+ */
+public abstract class FieldLayouts<C, F> {
+    private final ConcurrentHashMap<C, Layout<F>> layouts = new ConcurrentHashMap<C, Layout<F>>();
+
+    protected abstract List<F> getAllInstanceFields(C javaClass);
+
+    protected abstract String getName(F field);
+
+    protected abstract int getValueSize(F field);
+
+    /**
+     * @return the offset of the first field value from the start of an instance record
+     */
+    protected abstract int getHeaderSize(C javaClass);
+
+    /**
+     * @return the class of the instance record, or null if {@code instance} is not one
+     */
+    protected abstract C getRecordClass(Object instance);
+
+    protected abstract long getRecordOffset(Object instance);
+
+    protected abstract Object readValue(Object instance, F field, long offset);
+
+    protected abstract long getObjectId(Object instance);
+
+    public List<F> getAllFields(C javaClass) {
+        return getLayout(javaClass).fieldList;
+    }
+
+    /**
+     * @return the value of the field, or null if the instance is not an instance record or has no
+     * such field
+     */
+    public Object getValueOfField(Object instance, String fieldName) {
+        C javaClass = getRecordClass(instance);
+        return javaClass == null ? null : read(instance, javaClass, getLayout(javaClass).indexOf(fieldName));
+    }
+
+    public Object getFieldValue(Object instance, FieldPath path) {
+        Object value = instance;
+        for (int hop = 0; hop < path.length() && value != null; hop++) {
+            value = readField(value, path, hop);
+        }
+        if (value == null) {
+            return null;
+        } else if (path.endsWithId()) {
+            long id = getObjectId(value);
+            return id == 0 ? null : Long.valueOf(id);
+        } else if (value instanceof Integer) {
+            return String.valueOf(value);
+        }
+        return value;
+    }
+
+    private Object readField(Object value, FieldPath path, int hop) {
+        C javaClass = getRecordClass(value);
+        if (javaClass == null) return null;
+        Object index = path.getResolved(hop, javaClass);
+        if (index == null) {
+            index = getLayout(javaClass).indexOf(path.getName(hop));
+            path.setResolved(hop, javaClass, index);
+        }
+        return read(value, javaClass, (Integer) index);
+    }
+
+    private Object read(Object instance, C javaClass, int index) {
+        if (index < 0) return null;
+        Layout<F> layout = getLayout(javaClass);
+        return readValue(instance, layout.fields.get(index), getRecordOffset(instance) + layout.offsets[index]);
+    }
+
+    private Layout<F> getLayout(C javaClass) {
+        Layout<F> layout = layouts.get(javaClass);
+        if (layout == null) {
+            layout = new Layout<F>(this, javaClass);
+            Layout<F> raced = layouts.putIfAbsent(javaClass, layout);
+            if (raced != null) layout = raced;
+        }
+        return layout;
+    }
+
+    private static class Layout<F> {
+        final List<F> fields;
+        final int[] offsets;
+        final List<F> fieldList;
+        final Map<String, Integer> indexes;
+
+        <C> Layout(FieldLayouts<C, F> owner, C javaClass) {
+            fields = new ArrayList<F>(owner.getAllInstanceFields(javaClass));
+            offsets = new int[fields.size()];
+            indexes = new HashMap<String, Integer>(fields.size() * 2);
+            int offset = owner.getHeaderSize(javaClass);
+            for (int i = 0; i < fields.size(); i++) {
+                offsets[i] = offset;
+                offset += owner.getValueSize(fields.get(i));
+                indexes.put(owner.getName(fields.get(i)), i);
+            }
+            fieldList = Collections.unmodifiableList(fields);
+        }
+
+        int indexOf(String fieldName) {
+            Integer index = indexes.get(fieldName);
+            return index == null ? -1 : index;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package cn.wanghw;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A dotted field path such as {@code cluster.settings.hosts}, split once so that it can be followed
+ * on every instance without string work. A trailing {@code @ID} yields the id, as a Long, of the
+ * object the rest of the path leads to.
+ * <p>
+ * Each hop remembers what the heap holder resolved its field name to for the last class seen
+ * there, so the name is only looked up again when the class changes. Paths are safe to share
+ * between threads.
+ */
+public final class FieldPath {
+    public static final String ID = "@ID";
+
+    private final String path;
+    private final String[] names;
+    private final boolean id;
+    private final Resolution[] resolutions;
+
+    private FieldPath(String path) {
+        this.path = path;
+        String[] names = path.split("\\.", -1);
+        id = names[names.length - 1].equals(ID);
+        if (id) {
+            String[] trimmed = new String[names.length - 1];
+            System.arraycopy(names, 0, trimmed, 0, trimmed.length);
+            names = trimmed;
+        }
+        this.names = names;
+        resolutions = new Resolution[names.length];
+    }
+
+    public static FieldPath compile(String path) {
+        return new FieldPath(path);
+    }
+
+    /**
+     * @return the paths of {@code fieldList}, a result name to dotted path map as taken by
+     * {@link IHeapHolder#getFieldsByNameList}
+     */
+    public static HashMap<String, FieldPath> compile(Map<String, String> fieldList) {
+        HashMap<String, FieldPath> result = new HashMap<String, FieldPath>();
+        for (Map.Entry<String, String> field : fieldList.entrySet()) {
+            result.put(field.getKey(), new FieldPath(field.getValue()));
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of fields to follow, not counting a trailing {@code @ID}
+     */
+    public int length() {
+        return names.length;
+    }
+
+    public String getName(int hop) {
+        return names[hop];
+    }
+
+    public boolean endsWithId() {
+        return id;
+    }
+
+    /**
+     * @return what {@link #setResolved} stored for the hop and class, or null if it was last
+     * resolved for another class
+     */
+    public Object getResolved(int hop, Object javaClass) {
+        Resolution resolution = resolutions[hop];
+        return resolution != null && resolution.javaClass == javaClass ? resolution.field : null;
+    }
+
+    public void setResolved(int hop, Object javaClass, Object field) {
+        resolutions[hop] = new Resolution(javaClass, field);
+    }
+
+    public String toString() {
+        return path;
+    }
+
+    /**
+     * Immutable, so a reader racing a writer sees either the old or the new pair, never a mix.
+     */
+    private static final class Resolution {
+        final Object javaClass;
+        final Object field;
+
+        Resolution(Object javaClass, Object field) {
+            this.javaClass = javaClass;
+            this.field = field;
+        }
+    }
+}
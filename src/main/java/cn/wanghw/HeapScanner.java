@@ -0,0 +1,463 @@
+package cn.wanghw;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Walks the heap once and dispatches every instance to all registered visitors,
+ * so spiders that scan many classes (or every String) share a single traversal.
+ */
+public class HeapScanner {
+
+    public interface ClassFilter {
+        boolean accept(IHeapHolder heapHolder, Object javaClass);
+    }
+
+    public interface InstanceVisitor {
+        void visit(IHeapHolder heapHolder, Object javaClass, Object instance);
+    }
+
+    public interface StringVisitor {
+        void visit(IHeapHolder heapHolder, Object instance, String text);
+    }
+
+    public interface EntryVisitor {
+        /**
+         * @param entryClass the map entry class the instance is reported under: its own class if
+         *                   that looks like an entry class, otherwise the nearest such superclass.
+         */
+        void visit(IHeapHolder heapHolder, Object entryClass, Object entry, String key);
+    }
+
+    /**
+     * Implemented by visitors that may see a large class split into runs walked on several threads
+     * at once, see {@link #setThreads}. Each run is walked by a fork of its own; the forks are
+     * then joined back in dump order on the scanning thread, so the visitor ends up with what a
+     * walk on one thread gives it.
+     */
+    public interface Forkable<T> {
+        /**
+         * @return a visitor of the same kind with state of its own, starting empty
+         */
+        T fork();
+
+        /**
+         * Takes over what a fork found, as if this visitor had seen its instances itself.
+         */
+        void join(IHeapHolder heapHolder, T forked);
+    }
+
+    /**
+     * Classes with fewer instances than twice this are walked on the scanning thread.
+     */
+    static final int MIN_PARTITION_SIZE = 1 << 15;
+    static final int PARTITIONS_PER_THREAD = 4;
+    private static final FieldPath KEY = FieldPath.compile("key");
+
+    private final Map<String, List<Registration>> byClassName = new HashMap<String, List<Registration>>();
+    private final List<Registration> byFilter = new ArrayList<Registration>();
+    private final List<Registration> stringVisitors = new ArrayList<Registration>();
+    private final List<Registration> entryVisitors = new ArrayList<Registration>();
+    private int threads = 1;
+    private boolean streamingStrings;
+    private volatile boolean stopped;
+
+    public void onClass(String className, InstanceVisitor visitor) {
+        List<Registration> list = byClassName.get(className);
+        if (list == null) {
+            list = new ArrayList<Registration>();
+            byClassName.put(className, list);
+        }
+        list.add(new Registration(null, visitor));
+    }
+
+    public void onClass(ClassFilter filter, InstanceVisitor visitor) {
+        byFilter.add(new Registration(filter, visitor));
+    }
+
+    public void onString(StringVisitor visitor) {
+        stringVisitors.add(new Registration(null, visitor));
+    }
+
+    public void onMapEntry(EntryVisitor visitor) {
+        entryVisitors.add(new Registration(null, visitor));
+    }
+
+    /**
+     * Runs a single scanning spider on its own walk, for callers that invoke {@code sniff} directly.
+     */
+    public static String sniff(IScanSpider spider, IHeapHolder heapHolder) {
+        HeapScanner scanner = new HeapScanner();
+        spider.register(scanner);
+        scanner.scan(heapHolder);
+        return spider.collect(heapHolder);
+    }
+
+    public boolean isEmpty() {
+        return byClassName.isEmpty() && byFilter.isEmpty() && stringVisitors.isEmpty() && entryVisitors.isEmpty();
+    }
+
+    /**
+     * Walks the classes whose visitors are all {@link Forkable} on {@code threads} threads, in
+     * runs of neighbouring instances, when they have enough instances to be worth it.
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Leaves Strings out of {@link #scan}, for a caller that hands them to the string visitors
+     * itself with {@link #visitString} as it reads them.
+     */
+    public void setStreamingStrings(boolean streamingStrings) {
+        this.streamingStrings = streamingStrings;
+    }
+
+    public boolean hasStringVisitors() {
+        return !stringVisitors.isEmpty();
+    }
+
+    /**
+     * Hands one String to the string visitors, see {@link #setStreamingStrings}.
+     */
+    public void visitString(IHeapHolder heapHolder, Object instance, String text) {
+        for (Registration registration : stringVisitors) {
+            if (stopped || registration.failed) continue;
+            try {
+                ((StringVisitor) registration.visitor).visit(heapHolder, instance, text);
+            } catch (Exception ex) {
+                registration.fail(ex);
+            }
+        }
+    }
+
+    /**
+     * Ends the walk after the instance being visited, for visitors that have found all they want.
+     * May be called from a visitor on any thread; the scanner stays stopped.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    public void scan(IHeapHolder heapHolder) {
+        if (isEmpty()) return;
+        Map<Object, Object> entryClassCache = new HashMap<Object, Object>();
+        ExecutorService pool = null;
+        try {
+            for (Iterator it = heapHolder.getClasses(); !stopped && it.hasNext(); ) {
+                Object clazz = it.next();
+                String className = heapHolder.getClassName(clazz);
+                if (className == null) continue;
+
+                List<Registration> registrations = new ArrayList<Registration>();
+                List<Registration> named = byClassName.get(className);
+                if (named != null) {
+                    for (Registration registration : named) {
+                        if (!registration.failed) registrations.add(registration);
+                    }
+                }
+                for (Registration registration : byFilter) {
+                    if (registration.accept(heapHolder, clazz)) {
+                        registrations.add(registration);
+                    }
+                }
+                int strings = registrations.size();
+                if (!streamingStrings && className.equals("java.lang.String")) {
+                    addLive(stringVisitors, registrations);
+                }
+                int entries = registrations.size();
+                Object entryClass = entryVisitors.isEmpty() ? null : findEntryClass(heapHolder, clazz, entryClassCache);
+                if (entryClass != null) {
+                    addLive(entryVisitors, registrations);
+                }
+                if (registrations.isEmpty()) continue;
+
+                Walk walk = new Walk(clazz, entryClass, registrations, strings, entries);
+                List<Iterator> partitions = null;
+                if (threads > 1 && walk.isForkable()) {
+                    partitions = heapHolder.getInstancePartitions(clazz, threads * PARTITIONS_PER_THREAD, MIN_PARTITION_SIZE);
+                }
+                if (partitions == null || partitions.size() < 2) {
+                    Iterator instances = partitions == null ? heapHolder.getInstancesIterator(clazz) : partitions.get(0);
+                    try {
+                        walk.run(heapHolder, instances);
+                    } finally {
+                        close(instances);
+                        walk.failRegistrations();
+                    }
+                } else {
+                    if (pool == null) pool = Executors.newFixedThreadPool(threads);
+                    walkPartitions(heapHolder, walk, partitions, pool);
+                }
+            }
+        } finally {
+            if (pool != null) pool.shutdownNow();
+        }
+    }
+
+    private static void addLive(List<Registration> from, List<Registration> to) {
+        for (Registration registration : from) {
+            if (!registration.failed) to.add(registration);
+        }
+    }
+
+    /**
+     * Walks each run with forks of the visitors on the pool and joins the forks in dump order.
+     * If a run stops on an error, the runs before it and what it reached are joined before the
+     * error is thrown on, the same part of the class a walk on one thread would have visited.
+     */
+    private static void walkPartitions(final IHeapHolder heapHolder, Walk walk, List<Iterator> partitions, ExecutorService pool) {
+        List<Walk> forks = new ArrayList<Walk>();
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (final Iterator partition : partitions) {
+            final Walk fork = walk.fork();
+            forks.add(fork);
+            futures.add(pool.submit(new Runnable() {
+                public void run() {
+                    try {
+                        fork.run(heapHolder, partition);
+                    } finally {
+                        close(partition);
+                    }
+                }
+            }));
+        }
+        Throwable error = null;
+        int joined = forks.size();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch (ExecutionException ex) {
+                if (error == null) {
+                    error = ex.getCause();
+                    joined = i + 1;
+                }
+            } catch (InterruptedException ex) {
+                for (Future<?> future : futures) {
+                    future.cancel(true);
+                }
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while walking " + heapHolder.getClassName(walk.javaClass), ex);
+            }
+        }
+        walk.join(heapHolder, forks.subList(0, joined));
+        if (error instanceof Error) throw (Error) error;
+        if (error instanceof RuntimeException) throw (RuntimeException) error;
+        if (error != null) throw new IllegalStateException(error);
+    }
+
+    /**
+     * Closes a run from {@link IHeapHolder#getInstancePartitions} that needs closing, on the
+     * thread that walked it.
+     */
+    static void close(Iterator instances) {
+        if (instances instanceof Closeable) {
+            try {
+                ((Closeable) instances).close();
+            } catch (IOException ex) {
+                System.out.println(ex);
+            }
+        }
+    }
+
+    public static boolean isEntryClassName(String className) {
+        int index = className.indexOf('$');
+        if (index < 0) return false;
+        int end = className.indexOf('$', index + 1);
+        String inner = className.substring(index + 1, end < 0 ? className.length() : end);
+        return inner.toLowerCase().endsWith("entry");
+    }
+
+    private static Object findEntryClass(IHeapHolder heapHolder, Object clazz, Map<Object, Object> cache) {
+        if (clazz == null) return null;
+        if (cache.containsKey(clazz)) return cache.get(clazz);
+        String className = heapHolder.getClassName(clazz);
+        Object entryClass;
+        if (className != null && isEntryClassName(className)) {
+            entryClass = clazz;
+        } else {
+            entryClass = findEntryClass(heapHolder, heapHolder.getSuperClass(clazz), cache);
+        }
+        cache.put(clazz, entryClass);
+        return entryClass;
+    }
+
+    /**
+     * A visitor failing on one instance is dropped for the rest of the walk, the same way an
+     * exception used to abort the spider's own loop.
+     */
+    private static class Registration {
+        private final ClassFilter filter;
+        private final Object visitor;
+        private volatile boolean failed = false;
+
+        Registration(ClassFilter filter, Object visitor) {
+            this.filter = filter;
+            this.visitor = visitor;
+        }
+
+        boolean accept(IHeapHolder heapHolder, Object javaClass) {
+            if (failed) return false;
+            try {
+                return filter.accept(heapHolder, javaClass);
+            } catch (Exception ex) {
+                fail(ex);
+                return false;
+            }
+        }
+
+        void fail(Exception ex) {
+            failed = true;
+            System.out.println(ex);
+        }
+    }
+
+    /**
+     * Hands the instances of one class to its registrations: those from {@code strings} on get
+     * the text of Strings, those from {@code entries} on get map entries. {@code visitors} stand
+     * in for the registrations, either the registered visitors or forks of them, and a visitor
+     * that throws is left out for the rest of the walk.
+     */
+    private class Walk {
+        final Object javaClass;
+        final Object entryClass;
+        final List<Registration> registrations;
+        final int strings;
+        final int entries;
+        final Object[] visitors;
+        final Exception[] failures;
+        /**
+         * For a fork, what each of its visitors was forked from, null for the registered walk.
+         */
+        final Fork<?>[] forks;
+
+        Walk(Object javaClass, Object entryClass, List<Registration> registrations, int strings, int entries) {
+            this(javaClass, entryClass, registrations, strings, entries, new Object[registrations.size()], null);
+            for (int i = 0; i < visitors.length; i++) {
+                visitors[i] = registrations.get(i).visitor;
+            }
+        }
+
+        private Walk(Object javaClass, Object entryClass, List<Registration> registrations, int strings, int entries, Object[] visitors, Fork<?>[] forks) {
+            this.javaClass = javaClass;
+            this.entryClass = entryClass;
+            this.registrations = registrations;
+            this.strings = strings;
+            this.entries = entries;
+            this.visitors = visitors;
+            this.failures = new Exception[visitors.length];
+            this.forks = forks;
+        }
+
+        boolean isForkable() {
+            for (Object visitor : visitors) {
+                if (!(visitor instanceof Forkable)) return false;
+            }
+            return true;
+        }
+
+        Walk fork() {
+            Object[] forked = new Object[visitors.length];
+            Fork<?>[] forks = new Fork<?>[visitors.length];
+            for (int i = 0; i < forks.length; i++) {
+                forks[i] = Fork.of((Forkable<?>) visitors[i]);
+                forked[i] = forks[i].visitor;
+            }
+            return new Walk(javaClass, entryClass, registrations, strings, entries, forked, forks);
+        }
+
+        void run(IHeapHolder heapHolder, Iterator instances) {
+            while (!stopped && instances.hasNext()) {
+                Object instance = instances.next();
+                for (int i = 0; i < strings; i++) {
+                    if (failures[i] != null) continue;
+                    try {
+                        ((InstanceVisitor) visitors[i]).visit(heapHolder, javaClass, instance);
+                    } catch (Exception ex) {
+                        failures[i] = ex;
+                    }
+                }
+                if (entries > strings) {
+                    String text = heapHolder.toString(instance);
+                    if (text != null) {
+                        for (int i = strings; i < entries; i++) {
+                            if (failures[i] != null) continue;
+                            try {
+                                ((StringVisitor) visitors[i]).visit(heapHolder, instance, text);
+                            } catch (Exception ex) {
+                                failures[i] = ex;
+                            }
+                        }
+                    }
+                }
+                if (visitors.length > entries) {
+                    String key = heapHolder.getFieldStringValue(instance, KEY);
+                    if (key != null) {
+                        for (int i = entries; i < visitors.length; i++) {
+                            if (failures[i] != null) continue;
+                            try {
+                                ((EntryVisitor) visitors[i]).visit(heapHolder, entryClass, instance, key);
+                            } catch (Exception ex) {
+                                failures[i] = ex;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        void failRegistrations() {
+            for (int i = 0; i < failures.length; i++) {
+                if (failures[i] != null) registrations.get(i).fail(failures[i]);
+            }
+        }
+
+        /**
+         * Joins the forks into the registered visitors in order, up to the first fork of each
+         * that failed.
+         */
+        void join(IHeapHolder heapHolder, List<Walk> forks) {
+            for (int i = 0; i < visitors.length; i++) {
+                for (Walk fork : forks) {
+                    try {
+                        fork.forks[i].join(heapHolder);
+                    } catch (Exception ex) {
+                        registrations.get(i).fail(ex);
+                        break;
+                    }
+                    if (fork.failures[i] != null) {
+                        registrations.get(i).fail(fork.failures[i]);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A fork together with the visitor it came from, which keeps the two typed alike so the fork
+     * can be joined back without a cast.
+     */
+    private static class Fork<T> {
+        final Forkable<T> parent;
+        final T visitor;
+
+        private Fork(Forkable<T> parent) {
+            this.parent = parent;
+            this.visitor = parent.fork();
+        }
+
+        static <T> Fork<T> of(Forkable<T> parent) {
+            return new Fork<T>(parent);
+        }
+
+        void join(IHeapHolder heapHolder) {
+            parent.join(heapHolder, visitor);
+        }
+    }
+}
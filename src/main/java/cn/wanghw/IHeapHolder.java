@@ -4,11 +4,17 @@ package cn.wanghw;
 import org.graalvm.visualvm.lib.jfluid.heap.Instance;
 import org.graalvm.visualvm.lib.jfluid.heap.JavaClass;
 
+import java.io.Closeable;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
-public interface IHeapHolder {
+/**
+ * Read-only view of a heap dump shared by all spiders. With {@code -threads} several spiders call
+ * into the same holder at once, so implementations must be safe for concurrent reads.
+ */
+public interface IHeapHolder extends Closeable {
     Object findClass(String var1);
 
     Iterator getClasses();
@@ -19,10 +25,35 @@ public interface IHeapHolder {
 
     Object[] getSubClasses(Object javaClass);
 
+    /**
+     * @return every instance of the class, all held at once; see {@link #getInstancesIterator}
+     */
     List getInstances(Object javaClass);
 
+    /**
+     * @return the instances of the class, each created as the iterator reaches it, so walking a
+     * class of millions takes no more memory than walking a class of a few
+     */
+    Iterator getInstancesIterator(Object javaClass);
+
+    /**
+     * Splits the instances of the class into runs of neighbouring instances in the dump, to walk
+     * them on several threads at once. Walking the iterators one after the other is walking
+     * {@link #getInstancesIterator}. A run that is {@link java.io.Closeable} must be closed by the
+     * thread that walked it once it is done with it, even if it stopped early.
+     *
+     * @param parts   the most runs to split into
+     * @param minSize the fewest instances a run holds, at least 1, so a small class stays whole
+     */
+    List<Iterator> getInstancePartitions(Object javaClass, int parts, int minSize);
+
     List getFields(Object javaClass);
 
+    /**
+     * @return the instance fields of the class and of its superclasses, the class's own first
+     */
+    List getAllFields(Object javaClass);
+
     String getClassName(Object javaClass);
 
     Object getSuperClass(Object javaClass);
@@ -31,12 +62,19 @@ public interface IHeapHolder {
 
     Object getFieldClass(Object field);
 
-    Object findThing(Long objectId);
+    Object findThing(long objectId);
+
+    /**
+     * @return the id of the object or class, 0 for anything else
+     */
+    long getObjectId(Object instance);
 
     Object getValueOfField(Object instance, String fieldName);
 
     HashMap<String, String> getFieldsByNameList(Object instance, HashMap<String, String> fieldList);
 
+    HashMap<String, String> getFieldsByPaths(Object instance, Map<String, FieldPath> paths);
+
     HashMap<String, String> arrayDump(Object instance);
 
     Object[] getArrayItems(Object instance);
@@ -45,6 +83,15 @@ public interface IHeapHolder {
 
     Object getFieldValue(Object instance, String fieldName);
 
+    Object getFieldValue(Object instance, FieldPath path);
+
+    String getFieldStringValue(Object instance, FieldPath path);
+
+    /**
+     * @return the object the path leads to, or null if it leads to null or to a primitive value
+     */
+    Object getReference(Object instance, FieldPath path);
+
     boolean isMap(Object instance);
 
     Object getMap(Object instance);
@@ -52,4 +99,11 @@ public interface IHeapHolder {
     String toString(Object instance);
 
     byte[] toByteArray(Object _instance);
+
+    /**
+     * Releases the maps and files of the dump now rather than when the holder is collected. Nothing
+     * may use the holder, or objects it handed out, once it is closed; closing it again does
+     * nothing.
+     */
+    void close();
 }
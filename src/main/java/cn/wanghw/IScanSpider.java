@@ -0,0 +1,11 @@
+package cn.wanghw;
+
+/**
+ * A spider that collects its findings from a shared {@link HeapScanner} walk instead of
+ * walking the heap itself.
+ */
+public interface IScanSpider extends ISpider {
+    void register(HeapScanner scanner);
+
+    String collect(IHeapHolder heapHolder);
+}
@@ -0,0 +1,15 @@
+package cn.wanghw;
+
+/**
+ * A {@link IScanSpider} that writes its findings to a {@link ResultSink} during the walk instead
+ * of returning them from {@code collect}, so they need not be held and can be written as text
+ * or as records.
+ */
+public interface IStreamScanSpider extends IScanSpider {
+    void register(HeapScanner scanner, ResultSink sink);
+
+    /**
+     * Writes whatever the spider still holds once the walk is over.
+     */
+    void collect(IHeapHolder heapHolder, ResultSink sink);
+}
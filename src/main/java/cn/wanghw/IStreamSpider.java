@@ -0,0 +1,9 @@
+package cn.wanghw;
+
+/**
+ * A spider that writes its findings to a {@link ResultSink} as it makes them, so they can be
+ * written as text or as records; {@code sniff(IHeapHolder)} returns the text.
+ */
+public interface IStreamSpider extends ISpider {
+    void sniff(IHeapHolder heapHolder, ResultSink sink);
+}
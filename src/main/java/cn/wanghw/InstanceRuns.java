@@ -0,0 +1,101 @@
+package cn.wanghw;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Splits the instances of a class into runs for {@link IHeapHolder#getInstancePartitions} without
+ * walking the class first. A run finds where it starts when it is first asked for an instance, by
+ * moving a cursor shared by all runs of the class over the records before it; the cursor reads
+ * only record headers, and runs are usually started in order, so it passes over the class once.
+ */
+public abstract class InstanceRuns {
+    private final long end;
+    private final int instances;
+    private final int count;
+    private final long[] starts;
+    private final long[] cursor;
+    private int found;
+    private int seen;
+
+    /**
+     * @param start     the offset of a record at or before the first instance of the class
+     * @param end       the offset after the last record that may hold an instance
+     * @param instances how many instances the class has
+     * @param count     how many runs to split them into, at most {@code instances}
+     */
+    protected InstanceRuns(long start, long end, int instances, int count) {
+        this.end = end;
+        this.instances = instances;
+        this.count = count;
+        starts = new long[count];
+        cursor = new long[]{start};
+    }
+
+    /**
+     * Moves {@code offset} past the record it points at.
+     *
+     * @return whether the record is an instance of the class
+     */
+    protected abstract boolean skip(long[] offset);
+
+    /**
+     * @return the {@code size} instances of the class from the record at {@code start} on
+     */
+    protected abstract Iterator iterator(long start, int size);
+
+    public List<Iterator> getRuns() {
+        List<Iterator> result = new ArrayList<Iterator>();
+        for (int i = 0; i < count; i++) {
+            result.add(new Run(i, first(i + 1) - first(i)));
+        }
+        return result;
+    }
+
+    private int first(int run) {
+        return run == count ? instances : (int) ((long) instances * run / count);
+    }
+
+    private synchronized long startOf(int run) {
+        while (found <= run && cursor[0] < end) {
+            long offset = cursor[0];
+            if (skip(cursor)) {
+                if (seen == first(found)) starts[found++] = offset;
+                seen++;
+            }
+        }
+        while (found <= run) {
+            starts[found++] = end;
+        }
+        return starts[run];
+    }
+
+    private class Run implements Iterator {
+        private final int index;
+        private final int size;
+        private Iterator instances;
+
+        Run(int index, int size) {
+            this.index = index;
+            this.size = size;
+        }
+
+        private Iterator instances() {
+            if (instances == null) instances = iterator(startOf(index), size);
+            return instances;
+        }
+
+        public boolean hasNext() {
+            return instances().hasNext();
+        }
+
+        public Object next() {
+            return instances().next();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
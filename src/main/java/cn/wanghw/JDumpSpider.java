@@ -0,0 +1,200 @@
+package cn.wanghw;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Runs the spiders on a dump for programs embedding the tool. A run keeps all its state to itself,
+ * so runs may go on concurrently from any number of threads, on the same dump or on different
+ * ones, and an instance may be run again.
+ * <pre>
+ * String result = JDumpSpider.builder(new File("app.hprof"))
+ *         .spiders("CookieThief", "ShiroKey01")
+ *         .format("ndjson")
+ *         .threads(4)
+ *         .build()
+ *         .run();
+ * </pre>
+ * Progress lines and errors still go to System.out, which all runs share.
+ */
+public class JDumpSpider {
+    private final File heapfile;
+    private final List<String> flags;
+    private final Set<Deadline> running = new HashSet<Deadline>();
+
+    private JDumpSpider(File heapfile, List<String> flags) {
+        this.heapfile = heapfile;
+        this.flags = Collections.unmodifiableList(new ArrayList<String>(flags));
+    }
+
+    public static Builder builder(File heapfile) {
+        return new Builder(heapfile);
+    }
+
+    /**
+     * @return the results, in the format asked for
+     */
+    public String run() throws Exception {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        run(bout);
+        return bout.toString();
+    }
+
+    /**
+     * Writes the results to {@code out}, which is flushed but left open.
+     *
+     * @return the number of spiders that found something
+     */
+    public int run(OutputStream out) throws Exception {
+        if (!heapfile.isFile()) {
+            throw new FileNotFoundException(heapfile.getPath());
+        }
+        PrintStream stream = new PrintStream(out, true);
+        Main main = new Main(heapfile, flags);
+        Deadline deadline = Deadline.none();
+        main.setDeadline(deadline);
+        synchronized (running) {
+            running.add(deadline);
+        }
+        try {
+            main.call(stream);
+        } finally {
+            synchronized (running) {
+                running.remove(deadline);
+            }
+        }
+        stream.flush();
+        return main.getFound();
+    }
+
+    /**
+     * Stops the runs in progress at their next read of the heap. Each prints what its spiders
+     * found until then and returns.
+     */
+    public void cancel() {
+        synchronized (running) {
+            for (Deadline deadline : running) {
+                deadline.cancel();
+            }
+        }
+    }
+
+    public static class Builder {
+        private final File heapfile;
+        private final List<String> flags = new ArrayList<String>();
+        private final List<String> spiders = new ArrayList<String>();
+
+        private Builder(File heapfile) {
+            this.heapfile = heapfile;
+        }
+
+        /**
+         * @param engine {@code native} for the built-in parser, anything else for the profiler
+         *               library the dump and JVM suit
+         */
+        public Builder engine(String engine) {
+            return flag("-engine", engine);
+        }
+
+        /**
+         * Where the native engine keeps its index, by default next to the dump.
+         */
+        public Builder cache(File dir) {
+            return flag("-cache", dir.getPath());
+        }
+
+        /**
+         * Reads the dump sequentially, without an index, see {@code --stream}.
+         */
+        public Builder stream() {
+            flags.remove("--stream");
+            flags.add("--stream");
+            return this;
+        }
+
+        /**
+         * Runs only these spiders, by name or class name, in this order. All of them by default.
+         */
+        public Builder spiders(String... names) {
+            for (String name : names) {
+                if (Main.createSpider(name) == null) {
+                    throw new IllegalArgumentException("Unknown spider '" + name + "'");
+                }
+                spiders.add(name);
+            }
+            return this;
+        }
+
+        /**
+         * @param format {@code text}, {@code json} or {@code ndjson}
+         */
+        public Builder format(String format) {
+            if (!format.equals("text") && !format.equals("json") && !format.equals("ndjson")) {
+                throw new IllegalArgumentException("Unknown format '" + format + "'");
+            }
+            return flag("-format", format);
+        }
+
+        public Builder threads(int threads) {
+            if (threads < 1) {
+                throw new IllegalArgumentException("threads must be at least 1");
+            }
+            return flag("-threads", String.valueOf(threads));
+        }
+
+        /**
+         * Stops the spiders once the run took {@code seconds}, opening the dump included, see
+         * {@code -timeout}.
+         */
+        public Builder timeout(double seconds) {
+            return flag("-timeout", String.valueOf(seconds));
+        }
+
+        /**
+         * Stops each spider, and the walk the scanning spiders share, once it took {@code seconds}.
+         */
+        public Builder spiderTimeout(double seconds) {
+            return flag("-spider-timeout", String.valueOf(seconds));
+        }
+
+        /**
+         * @param megabytes the decoded String cache limit, 0 to turn it off
+         */
+        public Builder stringCache(int megabytes) {
+            return flag("-string-cache", String.valueOf(megabytes));
+        }
+
+        public JDumpSpider build() {
+            List<String> result = new ArrayList<String>(flags);
+            if (!spiders.isEmpty()) {
+                StringBuilder names = new StringBuilder();
+                for (String name : spiders) {
+                    if (names.length() > 0) names.append(',');
+                    names.append(name);
+                }
+                result.add("-spiders");
+                result.add(names.toString());
+            }
+            return new JDumpSpider(heapfile, result);
+        }
+
+        private Builder flag(String name, String value) {
+            int index = flags.indexOf(name);
+            if (index >= 0) {
+                flags.set(index + 1, value);
+            } else {
+                flags.add(name);
+                flags.add(value);
+            }
+            return this;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package cn.wanghw;
+
+import cn.wanghw.utils.JsonUtils;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Writes each finding as a JSON object to another sink, dropping the text: one object per line
+ * for NDJSON, or comma separated for the elements of an array the caller opens and closes.
+ */
+public class JsonResultSink extends ResultSink {
+    private final ResultSink target;
+    private final String spider;
+    private final String source;
+    private final boolean array;
+    private boolean empty = true;
+
+    /**
+     * @param source the dump the findings come from
+     */
+    public JsonResultSink(ResultSink target, String spider, String source, boolean array) {
+        this.target = target;
+        this.spider = JsonUtils.quote(spider);
+        this.source = JsonUtils.quote(source);
+        this.array = array;
+    }
+
+    public void append(String text) {
+    }
+
+    public boolean isStructured() {
+        return true;
+    }
+
+    public void record(String className, long objectId, Map<String, String> values) {
+        try {
+            String id = objectId == 0 ? "null" : String.valueOf(objectId);
+            String clazz = JsonUtils.quote(className);
+            StringBuilder result = new StringBuilder();
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                if (array && !empty) result.append(",\n");
+                result.append("{\"spider\":").append(spider)
+                        .append(",\"class\":").append(clazz)
+                        .append(",\"id\":").append(id)
+                        .append(",\"key\":");
+                JsonUtils.quote(result, entry.getKey());
+                result.append(",\"value\":");
+                JsonUtils.quote(result, entry.getValue());
+                result.append(",\"source\":").append(source).append('}');
+                if (!array) result.append('\n');
+                target.append(result.toString());
+                result.setLength(0);
+                empty = false;
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
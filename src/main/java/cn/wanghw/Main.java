@@ -1,94 +1,750 @@
 package cn.wanghw;
 
+import cn.wanghw.hprof.HprofFootprint;
+import cn.wanghw.hprof.HprofHeapHolder;
+import cn.wanghw.hprof.StreamHeapHolder;
 import cn.wanghw.spider.*;
+import cn.wanghw.utils.JsonUtils;
+import cn.wanghw.utils.StringCache;
+import cn.wanghw.utils.ThreadPrintStream;
 import org.graalvm.visualvm.lib.jfluid.heap.GraalvmHeapHolder;
 import org.netbeans.lib.profiler.heap.NetbeansHeapHolder;
 
 import java.io.*;
+import java.nio.file.FileSystems;
 import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
 
 public class Main {
 
     private File heapfile;
     private final List<String> flag = new LinkedList<String>();
-    static PrintStream out = null;
+    private String format = "text";
+    private boolean recordsPrinted;
+    private int found;
+    private Deadline deadline;
+    private DeadlineHeapHolder guard;
+    private StreamHeapHolder stream;
+    private long spiderTimeout = -1;
+    private String spiderTimeoutDescription;
 
+    Main(File heapfile, List<String> flags) {
+        this.heapfile = heapfile;
+        flag.addAll(flags);
+    }
+
+    /**
+     * Stops the run when {@code deadline} does, on top of {@code -timeout}.
+     */
+    void setDeadline(Deadline deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * @return the number of spiders that found something in the last {@link #call}
+     */
+    int getFound() {
+        return found;
+    }
+
+    /**
+     * Runs the command line {@code args} and returns what it printed as results. Each call has
+     * its own output, so calls may run concurrently; see {@link JDumpSpider} for a typed API.
+     */
     public static String run(String[] args) throws Exception {
         ByteArrayOutputStream bout = new ByteArrayOutputStream();
-        if (out == null) {
-            out = new PrintStream(bout);
-        }
+        PrintStream out = new PrintStream(bout, true);
+        run(args, out);
+        out.flush();
+        return bout.toString();
+    }
+
+    public static void main(String[] args) throws Exception {
+        run(args, System.out);
+    }
+
+    private static void run(String[] args, PrintStream out) throws Exception {
         if (args.length < 1) {
             System.out.println("please give a heap filepath.");
         } else {
-            Main _main = new Main();
-            _main.heapfile = new File(args[0]);
-            if (_main.heapfile.exists()) {
-                if (args.length > 1) {
-                    _main.flag.addAll(Arrays.asList(args).subList(1, args.length));
-                }
+            Main _main = new Main(new File(args[0]), Arrays.asList(args).subList(1, args.length));
+            // a dump may have glob characters in its name, so only a path naming no file is a glob
+            if (_main.heapfile.isDirectory() || !_main.heapfile.isFile() && isGlob(args[0])) {
+                _main.batch(args[0], out);
+            } else if (_main.heapfile.exists()) {
                 _main.call(out);
             } else {
                 System.out.println("file not exist!");
             }
         }
-        return bout.toString();
     }
 
-    public static void main(String[] args) throws Exception {
-        out = System.out;
-        run(args);
-    }
-
-    private ISpider[] allSpiders = new ISpider[]{
-            new DataSource01(),
-            new DataSource02(),
-            new DataSource03(),
-            new DataSource04(),
-            new DataSource05(),
-            new Redis01(),
-            new Redis02(),
-            new ShiroKey01(),
-            new PropertySource01(),
-            new PropertySource02(),
-            new PropertySource03(),
-            new PropertySource04(),
-////            new JwtKey01(),
-            new PropertySource05(),
-            new EnvProperty01(),
-            new OSS01(),
-            new UserPassSearcher01(),
-            new CookieThief(),
-            new AuthThief()
-    };
-
     public int call(PrintStream out) throws Exception {
+        Deadline deadline = readTimeouts();
+        SpiderMetrics openMetrics = null;
+        if (flag.contains("-metrics") || flag.contains("-metrics-json")) {
+            openMetrics = SpiderMetrics.start("(open heap)");
+        }
+        IHeapHolder heapHolder = openHeapHolder();
+        IHeapHolder opened = heapHolder;
+        // the server closes the dump when it stops; anything else is done with it on return
+        boolean served = false;
+        try {
+            stream = heapHolder instanceof StreamHeapHolder ? (StreamHeapHolder) heapHolder : null;
+            StringCache stringCache = configureStringCache(heapHolder);
+            if (flag.contains("-serve")) {
+                serve(heapHolder);
+                served = true;
+                return 0;
+            }
+            if (flag.contains("export-strings")) {
+                runSpiders(new ISpider[]{new ExportAllString()}, heapHolder, out);
+                return 0;
+            }
+            if (flag.contains("-out")) {
+                String outFilePath = getArgValue("-out");
+                System.out.println("[+] Output to: " + outFilePath);
+                out = new PrintStream(new FileOutputStream(outFilePath), true);
+            }
+            readFormat();
+            ISpider[] spiders = selectSpiders();
+            PrintStream stdout = null;
+            boolean redirected = !format.equals("text") && (out == System.out
+                    || System.out instanceof ThreadPrintStream && out == ((ThreadPrintStream) System.out).getFallback());
+            if (redirected) {
+                // progress lines and errors go to stderr, so stdout carries nothing but records
+                stdout = setStdout(System.err);
+            }
+            try {
+                if (deadline != null || spiderTimeout >= 0) {
+                    heapHolder = guard = new DeadlineHeapHolder(heapHolder, deadline == null ? Deadline.none() : deadline);
+                }
+                recordsPrinted = false;
+                found = 0;
+                if (format.equals("json")) {
+                    out.println("[");
+                }
+                MeteredHeapHolder metered = null;
+                if (openMetrics != null) {
+                    openMetrics.stop();
+                    heapHolder = metered = new MeteredHeapHolder(heapHolder);
+                }
+                int threads = 1;
+                if (flag.contains("-threads")) {
+                    threads = Integer.parseInt(getArgValue("-threads"));
+                }
+                if (threads > 1) {
+                    runSpiders(spiders, heapHolder, out, threads);
+                } else {
+                    runSpiders(spiders, heapHolder, out);
+                }
+                if (stream != null && stream.getMissed() > 0) {
+                    System.out.println("[-] " + stream.getMissed() + " objects the spiders looked up were not kept by --stream, results may be partial");
+                }
+                if (format.equals("text")) {
+                    out.println("===========================================");
+                } else if (format.equals("json")) {
+                    if (recordsPrinted) out.println();
+                    out.println("]");
+                }
+                if (metered != null) {
+                    List<SpiderMetrics> metrics = new ArrayList<SpiderMetrics>();
+                    metrics.add(openMetrics);
+                    metrics.addAll(metered.getMetrics());
+                    // keep the table out of the records
+                    printMetrics(metrics, stringCache, format.equals("text") ? out : System.err);
+                }
+            } finally {
+                if (redirected) setStdout(stdout);
+            }
+            return 0;
+        } finally {
+            if (!served) opened.close();
+        }
+    }
+
+    /**
+     * Opens {@code heapfile} with the engine the flags ask for.
+     */
+    private IHeapHolder openHeapHolder() throws Exception {
         int ver = getFileVersion();
         float classVersion = Float.parseFloat(System.getProperty("java.class.version"));
-        IHeapHolder heapHolder;
-
-        if (ver == 1 || classVersion < 52) {
-            heapHolder = new NetbeansHeapHolder(heapfile);
+        if (flag.contains("--stream")) {
+            return new StreamHeapHolder(heapfile);
+        } else if (flag.contains("-engine") && getArgValue("-engine").equals("native")) {
+            File cacheDir = flag.contains("-cache") ? new File(getArgValue("-cache")) : null;
+            return new HprofHeapHolder(heapfile, cacheDir);
+        } else if (ver == 1 || classVersion < 52) {
+            return new NetbeansHeapHolder(heapfile);
         } else {
-            heapHolder = new GraalvmHeapHolder(heapfile);
+            return new GraalvmHeapHolder(heapfile);
         }
-        if (flag.contains("export-strings")) {
-            spiderCall(new ExportAllString(), heapHolder, out);
-            return 0;
+    }
+
+    /**
+     * Opens a dump for {@link SpiderServer}, with the engine and cache flags of {@code flags}.
+     */
+    static IHeapHolder open(File heapfile, List<String> flags) throws Exception {
+        Main main = new Main(heapfile, flags);
+        IHeapHolder heapHolder = main.openHeapHolder();
+        main.configureStringCache(heapHolder);
+        return heapHolder;
+    }
+
+    /**
+     * Keeps the dump open and answers queries about it until a client asks the server to stop.
+     */
+    private void serve(IHeapHolder heapHolder) throws Exception {
+        if (heapHolder instanceof StreamHeapHolder) {
+            throw new Exception("[-] --stream only reads what the spiders ask for, it cannot serve queries!");
         }
-        if (flag.contains("-out")) {
-            String outFilePath = getArgValue("-out");
-            System.out.println("[+] Output to: " + outFilePath);
-            out = new PrintStream(new FileOutputStream(outFilePath), true);
+        int port = Integer.parseInt(getArgValue("-serve"));
+        SpiderServer server = new SpiderServer(port, flag);
+        server.add(heapfile, heapHolder);
+        server.start();
+        System.out.println("[+] Serving " + heapfile.getAbsolutePath() + " on http://127.0.0.1:" + server.getPort() + "/ with token " + server.getToken());
+    }
+
+    /**
+     * @return a new instance of every spider, they keep state between register and collect
+     */
+    static ISpider[] createSpiders() {
+        return new ISpider[]{
+                new DataSource01(),
+                new DataSource02(),
+                new DataSource03(),
+                new DataSource04(),
+                new DataSource05(),
+                new Redis01(),
+                new Redis02(),
+                new ShiroKey01(),
+                new PropertySource01(),
+                new PropertySource02(),
+                new PropertySource03(),
+                new PropertySource04(),
+////                new JwtKey01(),
+                new PropertySource05(),
+                new EnvProperty01(),
+                new OSS01(),
+                new UserPassSearcher01(),
+                new CookieThief(),
+                new AuthThief()
+        };
+    }
+
+    /**
+     * @return a new instance of the spider with that name or class name, or null if none has it
+     */
+    static ISpider createSpider(String name) {
+        for (ISpider spider : createSpiders()) {
+            if (spider.getName().equals(name) || spider.getClass().getSimpleName().equals(name)) return spider;
         }
-        for (ISpider spider : allSpiders) {
-            spiderCall(spider, heapHolder, out);
+        return null;
+    }
+
+    /**
+     * @return the spiders {@code -spiders} names, in the order given, or all of them
+     */
+    private ISpider[] selectSpiders() throws Exception {
+        if (!flag.contains("-spiders")) {
+            return createSpiders();
+        }
+        List<ISpider> spiders = new ArrayList<ISpider>();
+        for (String name : getArgValue("-spiders").split(",")) {
+            if (name.trim().equals("")) continue;
+            ISpider spider = createSpider(name.trim());
+            if (spider == null) {
+                throw new Exception("[-] Unknown spider '" + name.trim() + "'!");
+            }
+            spiders.add(spider);
+        }
+        return spiders.toArray(new ISpider[spiders.size()]);
+    }
+
+    /**
+     * Reads {@code -timeout} and {@code -spider-timeout}, in seconds.
+     *
+     * @return the deadline of the whole run, or null if it has none
+     */
+    private Deadline readTimeouts() throws Exception {
+        Deadline result = deadline;
+        if (flag.contains("-timeout")) {
+            String seconds = getArgValue("-timeout");
+            long millis = (long) (Double.parseDouble(seconds) * 1000);
+            String description = "timed out after -timeout " + seconds + " s";
+            result = result == null ? Deadline.after(millis, description) : result.child(millis, description);
+        }
+        if (flag.contains("-spider-timeout")) {
+            String seconds = getArgValue("-spider-timeout");
+            spiderTimeout = (long) (Double.parseDouble(seconds) * 1000);
+            spiderTimeoutDescription = "timed out after -spider-timeout " + seconds + " s";
+        }
+        return result;
+    }
+
+    /**
+     * Puts the current thread under a new per spider deadline, if there are deadlines at all.
+     */
+    private void beginDeadline() {
+        if (guard != null && spiderTimeout >= 0) {
+            guard.begin(guard.getDeadline().child(spiderTimeout, spiderTimeoutDescription));
+        }
+    }
+
+    private void endDeadline() {
+        if (guard != null) guard.end();
+    }
+
+    private void readFormat() throws Exception {
+        if (flag.contains("-format")) {
+            format = getArgValue("-format");
+            if (!Arrays.asList("text", "json", "ndjson").contains(format)) {
+                throw new Exception("[-] Unknown format '" + format + "'!");
+            }
+        }
+    }
+
+    private static boolean isGlob(String path) {
+        return path.indexOf('*') >= 0 || path.indexOf('?') >= 0 || path.indexOf('[') >= 0 || path.indexOf('{') >= 0;
+    }
+
+    /**
+     * Analyses every {@code .hprof} file of a directory, or every file matching a glob, several
+     * at a time. Each dump gets its own result file and a log of what it printed to System.out
+     * in the {@code -out} directory (the dumps' directory by default). A dump that fails only
+     * fails its own entry in the summary, which is printed to {@code out} and written along.
+     */
+    private void batch(String pattern, PrintStream out) throws Exception {
+        File dir = heapfile.isDirectory() ? heapfile : heapfile.getAbsoluteFile().getParentFile();
+        final PathMatcher matcher = FileSystems.getDefault().getPathMatcher(
+                "glob:" + (heapfile.isDirectory() ? "*.hprof" : heapfile.getName()));
+        File[] dumps = dir.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return file.isFile() && matcher.matches(file.toPath().getFileName());
+            }
+        });
+        if (dumps == null || dumps.length == 0) {
+            System.out.println("no heap file matches " + pattern);
+            return;
+        }
+        Arrays.sort(dumps);
+        readFormat();
+        final File outDir = flag.contains("-out") ? new File(getArgValue("-out")) : dir;
+        if (!outDir.isDirectory() && !outDir.mkdirs()) {
+            throw new Exception("[-] Create '" + outDir + "' failed!");
+        }
+        int threads = flag.contains("-batch-threads") ? getIntArgValue("-batch-threads", 1, Integer.MAX_VALUE)
+                : Math.min(Runtime.getRuntime().availableProcessors(), dumps.length);
+        int percent = flag.contains("-batch-memory") ? getIntArgValue("-batch-memory", 1, 100) : 70;
+        long budget = Runtime.getRuntime().maxMemory() / 100 * percent;
+        String engine = flag.contains("--stream") ? "stream"
+                : flag.contains("-engine") && getArgValue("-engine").equals("native") ? "native" : "graalvm";
+        final BatchResult[] results = new BatchResult[dumps.length];
+        for (int i = 0; i < dumps.length; i++) {
+            String extension = format.equals("text") ? ".txt" : "." + format;
+            results[i] = new BatchResult(dumps[i], new File(outDir, dumps[i].getName() + extension));
+            try {
+                results[i].estimate = HprofFootprint.of(dumps[i]).estimateHeap(engine);
+            } catch (Exception ex) {
+                // it will fail on its own, quickly
+                results[i].estimate = 0;
+            }
+        }
+        System.out.println("[+] Analysing " + dumps.length + " heap files, up to " + threads + " at a time within "
+                + (budget >> 20) + " MB of heap, output to: " + outDir.getAbsolutePath());
+
+        ThreadPrintStream stdout = ThreadPrintStream.install();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            CompletionService<Integer> done = new ExecutorCompletionService<Integer>(pool);
+            boolean[] started = new boolean[dumps.length];
+            int running = 0;
+            long reserved = 0;
+            for (int finished = 0; finished < dumps.length; finished++) {
+                // first fit in dump order, so smaller dumps keep the workers busy while a large
+                // one waits for room; one too large for the whole budget runs on its own
+                for (int i = 0; i < dumps.length && running < threads; i++) {
+                    if (started[i] || (running > 0 && reserved + results[i].estimate > budget)) continue;
+                    final int index = i;
+                    done.submit(new Callable<Integer>() {
+                        public Integer call() {
+                            analyse(results[index], outDir);
+                            return index;
+                        }
+                    });
+                    started[i] = true;
+                    running++;
+                    reserved += results[i].estimate;
+                }
+                BatchResult result = results[done.take().get()];
+                running--;
+                reserved -= result.estimate;
+                stdout.getFallback().println("[" + (result.error == null ? "+" : "-") + "] " + result);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        printSummary(Arrays.asList(results), outDir, out);
+    }
+
+    /**
+     * Runs one dump of a batch with the batch's flags, its results and log written to
+     * {@code outDir}.
+     */
+    private void analyse(BatchResult result, File outDir) {
+        File dump = result.dump;
+        long start = System.nanoTime();
+        PrintStream log = null;
+        PrintStream resultOut = null;
+        PrintStream stdout = null;
+        try {
+            log = new PrintStream(new FileOutputStream(new File(outDir, dump.getName() + ".log")), true);
+            stdout = setStdout(log);
+            resultOut = new PrintStream(new FileOutputStream(result.file), true);
+            Main main = new Main(dump, Collections.<String>emptyList());
+            for (int i = 0; i < flag.size(); i++) {
+                String arg = flag.get(i);
+                if (arg.equals("-out") || arg.equals("-batch-threads") || arg.equals("-batch-memory")) {
+                    i++;
+                } else if (arg.equals("-metrics-json")) {
+                    main.flag.add(arg);
+                    main.flag.add(new File(outDir, dump.getName() + ".metrics.json").getPath());
+                    i++;
+                } else {
+                    main.flag.add(arg);
+                }
+            }
+            main.call(resultOut);
+            result.found = main.found;
+        } catch (Throwable ex) {
+            // a dump too large or broken must not take the rest of the batch with it
+            result.error = ex;
+            if (log != null) ex.printStackTrace(log);
+        } finally {
+            if (resultOut != null) resultOut.close();
+            if (log != null) {
+                setStdout(stdout);
+                log.close();
+            }
+            result.millis = (System.nanoTime() - start) / 1000000;
+        }
+    }
+
+    private void printSummary(List<BatchResult> results, File outDir, PrintStream out) throws IOException {
+        boolean json = !format.equals("text");
+        File summaryFile = new File(outDir, json ? "summary.json" : "summary.txt");
+        PrintStream summary = new PrintStream(new FileOutputStream(summaryFile), true, "UTF-8");
+        try {
+            int failed = 0;
+            if (json) summary.println("[");
+            out.println("===========================================");
+            out.println("Batch summary");
+            out.println("-------------");
+            for (int i = 0; i < results.size(); i++) {
+                BatchResult result = results.get(i);
+                if (result.error != null) failed++;
+                out.println(result);
+                if (json) {
+                    summary.println(result.toJson() + (i + 1 < results.size() ? "," : ""));
+                } else {
+                    summary.println(result);
+                }
+            }
+            if (json) summary.println("]");
+            out.println("-------------");
+            out.println(results.size() + " heap files, " + failed + " failed");
+            out.println("===========================================");
+        } finally {
+            summary.close();
+        }
+        System.out.println("[+] Summary written to: " + summaryFile.getAbsolutePath());
+    }
+
+    /**
+     * Applies {@code -string-cache <MB>} to the holders that keep decoded Strings. It is off by
+     * default and with 0: most Strings are only read once, by the scan over all of them.
+     *
+     * @return the cache in use, or null
+     */
+    private StringCache configureStringCache(IHeapHolder heapHolder) throws Exception {
+        StringCache cache = null;
+        if (flag.contains("-string-cache")) {
+            long megabytes = Long.parseLong(getArgValue("-string-cache"));
+            cache = megabytes > 0 ? new StringCache(megabytes << 20) : null;
+        }
+        if (heapHolder instanceof GraalvmHeapHolder) {
+            ((GraalvmHeapHolder) heapHolder).setStringCache(cache);
+            return cache;
+        } else if (heapHolder instanceof NetbeansHeapHolder) {
+            ((NetbeansHeapHolder) heapHolder).setStringCache(cache);
+            return cache;
+        }
+        return null;
+    }
+
+    private void printMetrics(List<SpiderMetrics> metrics, StringCache stringCache, PrintStream out) throws Exception {
+        if (flag.contains("-metrics")) {
+            out.println(SpiderMetrics.toTable(metrics));
+            if (stringCache != null) {
+                out.println(stringCache);
+            }
+        }
+        if (flag.contains("-metrics-json")) {
+            String metricsFilePath = getArgValue("-metrics-json");
+            PrintStream json = new PrintStream(new FileOutputStream(metricsFilePath), false, "UTF-8");
+            try {
+                json.println(SpiderMetrics.toJson(metrics, stringCache));
+            } finally {
+                json.close();
+            }
+            System.out.println("[+] Metrics written to: " + metricsFilePath);
+        }
+    }
+
+    private static SpiderMetrics begin(IHeapHolder heapHolder, String name) {
+        return heapHolder instanceof MeteredHeapHolder ? ((MeteredHeapHolder) heapHolder).begin(name) : null;
+    }
+
+    private static void end(IHeapHolder heapHolder, SpiderMetrics metrics) {
+        if (metrics != null) {
+            ((MeteredHeapHolder) heapHolder).end(metrics);
+        }
+    }
+
+    /**
+     * Runs the shared walk, charged to its own metrics entry since it works for several spiders.
+     */
+    private void scan(HeapScanner scanner, IHeapHolder heapHolder) {
+        if (scanner.isEmpty()) return;
+        SpiderMetrics metrics = begin(heapHolder, "HeapScanner");
+        beginDeadline();
+        try {
+            scanner.scan(heapHolder);
+        } catch (DeadlineExceededError ex) {
+            // the spiders sharing the walk still collect what it reached
+            System.out.println("[-] HeapScanner stopped: " + ex.getMessage() + ", results of the scanning spiders are partial");
+        } finally {
+            endDeadline();
+            end(heapHolder, metrics);
+        }
+    }
+
+    private void runSpiders(ISpider[] spiders, IHeapHolder heapHolder, PrintStream out) throws IOException {
+        HeapScanner scanner = new HeapScanner();
+        Map<ISpider, Output> outputs = register(spiders, scanner);
+        try {
+            read(spiders, scanner, heapHolder);
+            scan(scanner, heapHolder);
+            for (ISpider spider : spiders) {
+                spiderCall(spider, outputs.get(spider), heapHolder, out);
+            }
+        } finally {
+            close(outputs);
+        }
+    }
+
+    /**
+     * Runs the shared scan and every other spider on a pool of {@code threads} workers over the
+     * same heap holder, then prints the results in the order of {@code spiders}. The scan walks
+     * large classes on {@code threads} more workers of its own.
+     */
+    private void runSpiders(ISpider[] spiders, final IHeapHolder heapHolder, PrintStream out, int threads) throws IOException {
+        final HeapScanner scanner = new HeapScanner();
+        scanner.setThreads(threads);
+        final Map<ISpider, Output> outputs = register(spiders, scanner);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            read(spiders, scanner, heapHolder);
+            Future<?> scan = pool.submit(new Runnable() {
+                public void run() {
+                    scan(scanner, heapHolder);
+                }
+            });
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            for (final ISpider spider : spiders) {
+                if (spider instanceof IScanSpider) {
+                    results.add(null);
+                } else {
+                    results.add(pool.submit(new Callable<String>() {
+                        public String call() {
+                            return sniff(spider, outputs.get(spider), heapHolder);
+                        }
+                    }));
+                }
+            }
+            for (int i = 0; i < spiders.length; i++) {
+                String result = null;
+                try {
+                    if (spiders[i] instanceof IScanSpider) {
+                        scan.get();
+                        result = sniff(spiders[i], outputs.get(spiders[i]), heapHolder);
+                    } else {
+                        result = results.get(i).get();
+                    }
+                } catch (ExecutionException ex) {
+                    System.out.println(ex.getCause());
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    System.out.println(ex);
+                }
+                printHeader(spiders[i], out);
+                printResult(spiders[i], result, outputs.get(spiders[i]), out);
+            }
+        } finally {
+            pool.shutdownNow();
+            close(outputs);
+        }
+    }
+
+    /**
+     * Deletes the temp files of outputs that were not printed, when a run stops half way.
+     */
+    private static void close(Map<ISpider, Output> outputs) {
+        for (Output output : outputs.values()) {
+            try {
+                output.spool.close();
+            } catch (IOException ex) {
+                System.out.println(ex);
+            }
+        }
+    }
+
+    /**
+     * Registers the scan spiders, and gives every streaming spider an output to write to.
+     */
+    private Map<ISpider, Output> register(ISpider[] spiders, HeapScanner scanner) {
+        Map<ISpider, Output> outputs = new HashMap<ISpider, Output>();
+        for (ISpider spider : spiders) {
+            if (spider instanceof IStreamScanSpider) {
+                Output output = newOutput(spider);
+                ((IStreamScanSpider) spider).register(scanner, output.sink);
+                outputs.put(spider, output);
+            } else if (spider instanceof IScanSpider) {
+                ((IScanSpider) spider).register(scanner);
+            } else if (spider instanceof IStreamSpider) {
+                outputs.put(spider, newOutput(spider));
+            }
+        }
+        return outputs;
+    }
+
+    private Output newOutput(ISpider spider) {
+        SpoolResultSink spool = new SpoolResultSink();
+        if (format.equals("text")) {
+            return new Output(spool, spool);
+        }
+        return new Output(spool, new JsonResultSink(spool, spider.getName(), heapfile.getAbsolutePath(), format.equals("json")));
+    }
+
+    /**
+     * Runs a spider, or collects a scan spider once the walk is over.
+     *
+     * @return the findings of a spider that has no output to write them to
+     */
+    private String sniff(ISpider spider, Output output, IHeapHolder heapHolder) {
+        SpiderMetrics metrics = begin(heapHolder, spider.getName());
+        beginDeadline();
+        try {
+            if (spider instanceof IStreamScanSpider) {
+                ((IStreamScanSpider) spider).collect(heapHolder, output.sink);
+            } else if (spider instanceof IScanSpider) {
+                return ((IScanSpider) spider).collect(heapHolder);
+            } else if (spider instanceof IStreamSpider) {
+                ((IStreamSpider) spider).sniff(heapHolder, output.sink);
+            } else {
+                return spider.sniff(heapHolder);
+            }
+            return null;
+        } catch (DeadlineExceededError ex) {
+            // what a streaming spider wrote before is still printed
+            System.out.println("[-] " + spider.getName() + " stopped: " + ex.getMessage() + ", its results are partial");
+            return null;
+        } finally {
+            endDeadline();
+            end(heapHolder, metrics);
+        }
+    }
+
+    /**
+     * Reads a {@code --stream} dump in its one pass, handing Strings to the string visitors of
+     * {@code scanner} as they go by. What else the spiders want is kept for the rest of the run.
+     */
+    private void read(final ISpider[] spiders, final HeapScanner scanner, final IHeapHolder heapHolder) throws IOException {
+        if (stream == null) return;
+        scanner.setStreamingStrings(true);
+        SpiderMetrics metrics = begin(heapHolder, "(read dump)");
+        try {
+            stream.read(new StreamHeapHolder.Request() {
+                public void declare() {
+                    Main.this.declare(spiders, scanner);
+                }
+
+                public boolean wantsStrings() {
+                    return scanner.hasStringVisitors();
+                }
+
+                public void visitString(Object instance, String text) {
+                    scanner.visitString(heapHolder, instance, text);
+                }
+            }, guard == null ? Deadline.none() : guard.getDeadline());
+        } catch (DeadlineExceededError ex) {
+            System.out.println("[-] Reading the dump stopped: " + ex.getMessage() + ", results are partial");
+        } finally {
+            end(heapHolder, metrics);
         }
-        out.println("===========================================");
-        return 0;
+    }
+
+    /**
+     * Runs the shared walk and the other spiders on the classes of a {@code --stream} dump, with
+     * their output thrown away, so the stream holder learns what they look up.
+     */
+    private void declare(ISpider[] spiders, HeapScanner scanner) {
+        PrintStream stdout = setStdout(new PrintStream(new OutputStream() {
+            public void write(int b) {
+            }
+        }));
+        try {
+            scanner.scan(stream);
+            for (ISpider spider : spiders) {
+                if (spider instanceof IScanSpider) continue;
+                SpoolResultSink sink = new SpoolResultSink();
+                try {
+                    if (spider instanceof IStreamSpider) {
+                        ((IStreamSpider) spider).sniff(stream, sink);
+                    } else {
+                        spider.sniff(stream);
+                    }
+                } catch (Exception ex) {
+                    // what it looked up before failing is declared
+                } finally {
+                    try {
+                        sink.close();
+                    } catch (IOException ex) {
+                        System.out.println(ex);
+                    }
+                }
+            }
+        } finally {
+            setStdout(stdout);
+        }
+    }
+
+    /**
+     * Points System.out at {@code stream} for the current thread and the threads it starts, so
+     * runs side by side in one JVM do not swap each other's System.out.
+     *
+     * @return what to pass back to undo it
+     */
+    private static PrintStream setStdout(PrintStream stream) {
+        return ThreadPrintStream.install().set(stream);
     }
 
     private String getArgValue(String flagStr) throws Exception {
@@ -99,18 +755,85 @@ public class Main {
         }
     }
 
-    private void spiderCall(ISpider spider, IHeapHolder heapHolder, PrintStream out) {
+    private int getIntArgValue(String flagStr, int min, int max) throws Exception {
+        String value = getArgValue(flagStr);
+        try {
+            int result = Integer.parseInt(value);
+            if (result >= min && result <= max) return result;
+        } catch (NumberFormatException ex) {
+            // reported below
+        }
+        throw new Exception("[-] '" + flagStr + "' must be a number from " + min
+                + (max == Integer.MAX_VALUE ? " up" : " to " + max) + ", got '" + value + "'!");
+    }
+
+    private void spiderCall(ISpider spider, Output output, IHeapHolder heapHolder, PrintStream out) {
+        printHeader(spider, out);
+        printResult(spider, sniff(spider, output, heapHolder), output, out);
+    }
+
+    private void printHeader(ISpider spider, PrintStream out) {
+        if (!format.equals("text")) return;
         out.println("===========================================");
         out.println(spider.getName());
         out.println("-------------");
-        String result = spider.sniff(heapHolder);
+    }
+
+    private void printResult(ISpider spider, String result, Output output, PrintStream out) {
+        if (!format.equals("text")) {
+            printRecords(spider, result, output, out);
+        } else if (output != null) {
+            printBody(output.spool, out);
+        } else {
+            printBody(result, out);
+        }
+    }
+
+    /**
+     * Prints a spider's records, turning the text of a spider that cannot write records into one.
+     */
+    private void printRecords(ISpider spider, String result, Output output, PrintStream out) {
+        if (output == null) {
+            if (result == null || result.equals("")) return;
+            output = newOutput(spider);
+            output.sink.record(null, 0, Collections.singletonMap((String) null, result));
+        }
+        if (output.spool.isEmpty()) return;
+        found++;
+        if (format.equals("json") && recordsPrinted) {
+            out.print(",\n");
+        }
+        try {
+            output.spool.writeTo(out);
+        } catch (IOException ex) {
+            System.out.println(ex);
+        }
+        recordsPrinted = true;
+    }
+
+    private void printBody(String result, PrintStream out) {
         if (!(result == null) && !result.equals("")) {
+            found++;
             out.println(result);
         } else {
             out.println("not found!\r\n");
         }
     }
 
+    private void printBody(SpoolResultSink sink, PrintStream out) {
+        if (sink.isEmpty()) {
+            out.println("not found!\r\n");
+            return;
+        }
+        found++;
+        try {
+            sink.writeTo(out);
+        } catch (IOException ex) {
+            System.out.println(ex);
+        }
+        out.println();
+    }
+
     public int getFileVersion() {
         try {
             FileInputStream io = new FileInputStream(heapfile);
@@ -121,4 +844,51 @@ public class Main {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * Where a streaming spider writes, and the spool holding what it wrote until its turn to print.
+     */
+    private static class Output {
+        final SpoolResultSink spool;
+        final ResultSink sink;
+
+        Output(SpoolResultSink spool, ResultSink sink) {
+            this.spool = spool;
+            this.sink = sink;
+        }
+    }
+
+    /**
+     * How one dump of a batch went.
+     */
+    private static class BatchResult {
+        final File dump;
+        final File file;
+        long estimate;
+        int found;
+        long millis;
+        Throwable error;
+
+        BatchResult(File dump, File file) {
+            this.dump = dump;
+            this.file = file;
+        }
+
+        public String toString() {
+            if (error != null) {
+                return dump.getPath() + ": failed (" + error + "), " + millis + " ms";
+            }
+            return dump.getPath() + ": " + found + " spiders found something, " + millis + " ms -> " + file.getPath();
+        }
+
+        String toJson() {
+            return "{\"dump\":" + JsonUtils.quote(dump.getAbsolutePath())
+                    + ",\"status\":" + (error == null ? "\"ok\"" : "\"failed\"")
+                    + ",\"error\":" + JsonUtils.quote(error == null ? null : error.toString())
+                    + ",\"result\":" + JsonUtils.quote(file == null ? null : file.getAbsolutePath())
+                    + ",\"found\":" + found
+                    + ",\"estimatedBytes\":" + estimate
+                    + ",\"millis\":" + millis + "}";
+        }
+    }
 }
@@ -0,0 +1,287 @@
+package cn.wanghw;
+
+import java.io.Closeable;
+import java.util.*;
+
+/**
+ * Wraps a heap holder for {@code -metrics}: every call is charged to the {@link SpiderMetrics}
+ * the calling thread is measuring, if any.
+ */
+public class MeteredHeapHolder implements IHeapHolder {
+    private final IHeapHolder heapHolder;
+    private final ThreadLocal<SpiderMetrics> current = new ThreadLocal<SpiderMetrics>();
+    private final List<SpiderMetrics> metrics = new ArrayList<SpiderMetrics>();
+
+    public MeteredHeapHolder(IHeapHolder heapHolder) {
+        this.heapHolder = heapHolder;
+    }
+
+    /**
+     * Starts charging calls from the current thread to a new entry named {@code name}.
+     */
+    public SpiderMetrics begin(String name) {
+        SpiderMetrics m = SpiderMetrics.start(name);
+        current.set(m);
+        return m;
+    }
+
+    public void end(SpiderMetrics m) {
+        m.stop();
+        current.remove();
+        synchronized (metrics) {
+            metrics.add(m);
+        }
+    }
+
+    /**
+     * @return the finished entries, in the order they ended
+     */
+    public List<SpiderMetrics> getMetrics() {
+        synchronized (metrics) {
+            return new ArrayList<SpiderMetrics>(metrics);
+        }
+    }
+
+    private void chargeClasses(int count) {
+        SpiderMetrics m = current.get();
+        if (m != null) m.classes += count;
+    }
+
+    private void chargeInstances(int count) {
+        SpiderMetrics m = current.get();
+        if (m != null) m.instances += count;
+    }
+
+    private void chargeFieldReads(int count) {
+        SpiderMetrics m = current.get();
+        if (m != null) m.fieldReads += count;
+    }
+
+    public Object findClass(String var1) {
+        chargeClasses(1);
+        return heapHolder.findClass(var1);
+    }
+
+    public Iterator getClasses() {
+        final Iterator classes = heapHolder.getClasses();
+        return new Iterator() {
+            public boolean hasNext() {
+                return classes.hasNext();
+            }
+
+            public Object next() {
+                chargeClasses(1);
+                return classes.next();
+            }
+
+            public void remove() {
+                classes.remove();
+            }
+        };
+    }
+
+    public boolean isInstanceOf(Object javaClass, String className) {
+        return heapHolder.isInstanceOf(javaClass, className);
+    }
+
+    public boolean isArray(Object javaClass) {
+        return heapHolder.isArray(javaClass);
+    }
+
+    public Object[] getSubClasses(Object javaClass) {
+        return heapHolder.getSubClasses(javaClass);
+    }
+
+    public List getInstances(Object javaClass) {
+        List instances = heapHolder.getInstances(javaClass);
+        chargeInstances(instances.size());
+        return instances;
+    }
+
+    public Iterator getInstancesIterator(Object javaClass) {
+        final Iterator instances = heapHolder.getInstancesIterator(javaClass);
+        return new Iterator() {
+            public boolean hasNext() {
+                return instances.hasNext();
+            }
+
+            public Object next() {
+                chargeInstances(1);
+                return instances.next();
+            }
+
+            public void remove() {
+                instances.remove();
+            }
+        };
+    }
+
+    /**
+     * The runs may be walked on other threads, so each charges what is read while it is walked to
+     * an entry of its own, added to the entry of the thread that asked for the runs when the run
+     * is closed. CPU time and allocation of those threads are not counted.
+     */
+    public List<Iterator> getInstancePartitions(Object javaClass, int parts, int minSize) {
+        List<Iterator> partitions = heapHolder.getInstancePartitions(javaClass, parts, minSize);
+        SpiderMetrics m = current.get();
+        if (m == null) return partitions;
+        List<Iterator> result = new ArrayList<Iterator>();
+        for (Iterator instances : partitions) {
+            result.add(new MeteredRun(instances, m));
+        }
+        return result;
+    }
+
+    private class MeteredRun implements Iterator, Closeable {
+        private final Iterator instances;
+        private final SpiderMetrics m;
+        private SpiderMetrics run;
+        private SpiderMetrics outer;
+
+        MeteredRun(Iterator instances, SpiderMetrics m) {
+            this.instances = instances;
+            this.m = m;
+        }
+
+        public boolean hasNext() {
+            return instances.hasNext();
+        }
+
+        public Object next() {
+            if (run == null) {
+                outer = current.get();
+                run = SpiderMetrics.start("");
+                current.set(run);
+            }
+            run.instances++;
+            return instances.next();
+        }
+
+        public void remove() {
+            instances.remove();
+        }
+
+        /**
+         * Hands the counts on and gives the walking thread back the entry it had before.
+         */
+        public void close() {
+            HeapScanner.close(instances);
+            if (run == null) return;
+            if (outer == null) {
+                current.remove();
+            } else {
+                current.set(outer);
+            }
+            m.add(run);
+            run = null;
+        }
+    }
+
+    public List getFields(Object javaClass) {
+        return heapHolder.getFields(javaClass);
+    }
+
+    public List getAllFields(Object javaClass) {
+        return heapHolder.getAllFields(javaClass);
+    }
+
+    public String getClassName(Object javaClass) {
+        return heapHolder.getClassName(javaClass);
+    }
+
+    public Object getSuperClass(Object javaClass) {
+        return heapHolder.getSuperClass(javaClass);
+    }
+
+    public String getFieldName(Object field) {
+        return heapHolder.getFieldName(field);
+    }
+
+    public Object getFieldClass(Object field) {
+        return heapHolder.getFieldClass(field);
+    }
+
+    public Object findThing(long objectId) {
+        chargeInstances(1);
+        return heapHolder.findThing(objectId);
+    }
+
+    public long getObjectId(Object instance) {
+        return heapHolder.getObjectId(instance);
+    }
+
+    public Object getValueOfField(Object instance, String fieldName) {
+        chargeFieldReads(1);
+        return heapHolder.getValueOfField(instance, fieldName);
+    }
+
+    public HashMap<String, String> getFieldsByNameList(Object instance, HashMap<String, String> fieldList) {
+        chargeFieldReads(fieldList.size());
+        return heapHolder.getFieldsByNameList(instance, fieldList);
+    }
+
+    public HashMap<String, String> getFieldsByPaths(Object instance, Map<String, FieldPath> paths) {
+        chargeFieldReads(paths.size());
+        return heapHolder.getFieldsByPaths(instance, paths);
+    }
+
+    public HashMap<String, String> arrayDump(Object instance) {
+        HashMap<String, String> result = heapHolder.arrayDump(instance);
+        chargeInstances(result.size());
+        return result;
+    }
+
+    public Object[] getArrayItems(Object instance) {
+        Object[] items = heapHolder.getArrayItems(instance);
+        chargeInstances(items.length);
+        return items;
+    }
+
+    public String getFieldStringValue(Object instance, String fieldName) {
+        chargeFieldReads(1);
+        return heapHolder.getFieldStringValue(instance, fieldName);
+    }
+
+    public Object getFieldValue(Object instance, String fieldName) {
+        chargeFieldReads(1);
+        return heapHolder.getFieldValue(instance, fieldName);
+    }
+
+    public Object getFieldValue(Object instance, FieldPath path) {
+        chargeFieldReads(1);
+        return heapHolder.getFieldValue(instance, path);
+    }
+
+    public String getFieldStringValue(Object instance, FieldPath path) {
+        chargeFieldReads(1);
+        return heapHolder.getFieldStringValue(instance, path);
+    }
+
+    public Object getReference(Object instance, FieldPath path) {
+        chargeFieldReads(1);
+        return heapHolder.getReference(instance, path);
+    }
+
+    public boolean isMap(Object instance) {
+        return heapHolder.isMap(instance);
+    }
+
+    public Object getMap(Object instance) {
+        chargeFieldReads(1);
+        return heapHolder.getMap(instance);
+    }
+
+    public String toString(Object instance) {
+        chargeFieldReads(1);
+        return heapHolder.toString(instance);
+    }
+
+    public byte[] toByteArray(Object _instance) {
+        chargeFieldReads(1);
+        return heapHolder.toByteArray(_instance);
+    }
+
+    public void close() {
+        heapHolder.close();
+    }
+}
@@ -0,0 +1,53 @@
+package cn.wanghw;
+
+import cn.wanghw.utils.HashMapUtils;
+
+import java.util.Map;
+
+/**
+ * Receives a spider's findings as it makes them, instead of the spider collecting them into one
+ * String. Writes never block: the sinks Main uses spool them, in memory up to a limit and in a
+ * temp file after that, and print them when it is the spider's turn, so a spider with hundreds
+ * of MB of findings does not need them on the heap.
+ * <p>
+ * Findings come as text for the text output, or as records for the structured one: a sink
+ * keeps one of the two and drops the other, see {@link #isStructured()}.
+ */
+public abstract class ResultSink {
+
+    /**
+     * Writes text for the text output, dropped by structured sinks.
+     */
+    public abstract void append(String text);
+
+    /**
+     * @return true if the sink keeps records and drops text
+     */
+    public boolean isStructured() {
+        return false;
+    }
+
+    /**
+     * Takes one finding per entry of {@code values}, dropped by text sinks.
+     *
+     * @param className the class of the object the values were read from, or null
+     * @param objectId  the id of that object, or 0 when the values were merged from several
+     */
+    public void record(String className, long objectId, Map<String, String> values) {
+    }
+
+    /**
+     * Writes the values the way {@link HashMapUtils#dump} does, or records them for structured
+     * sinks, so spiders need not care which output is wanted.
+     *
+     * @param instance the object the values were read from, or null when they were merged
+     */
+    public void dump(IHeapHolder heapHolder, Object javaClass, Object instance, Map<String, String> values, boolean oneline) {
+        if (isStructured()) {
+            record(javaClass == null ? null : heapHolder.getClassName(javaClass),
+                    instance == null ? 0 : heapHolder.getObjectId(instance), values);
+        } else {
+            append(HashMapUtils.dumpString(values, oneline));
+        }
+    }
+}
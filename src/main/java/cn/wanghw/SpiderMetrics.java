@@ -0,0 +1,139 @@
+package cn.wanghw;
+
+import cn.wanghw.utils.JsonUtils;
+import cn.wanghw.utils.StringCache;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.List;
+
+/**
+ * What one spider cost: wall and CPU time, bytes allocated by its thread and how much it asked
+ * the {@link IHeapHolder} for. Counters are only updated by the thread running the spider.
+ * CPU time and allocation are -1 when the VM cannot report them.
+ */
+public class SpiderMetrics {
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private static final Method allocatedBytes = findAllocatedBytes();
+
+    private final String name;
+    private final long startWall;
+    private final long startCpu;
+    private final long startAllocated;
+    private long wallNanos;
+    private long cpuNanos = -1;
+    private long allocated = -1;
+    long classes;
+    long instances;
+    long fieldReads;
+
+    private SpiderMetrics(String name) {
+        this.name = name;
+        startCpu = cpuTime();
+        startAllocated = allocatedBytes();
+        startWall = System.nanoTime();
+    }
+
+    /**
+     * Starts measuring on the current thread; {@link #stop()} must be called on the same thread.
+     */
+    public static SpiderMetrics start(String name) {
+        return new SpiderMetrics(name);
+    }
+
+    public void stop() {
+        wallNanos = System.nanoTime() - startWall;
+        long cpu = cpuTime();
+        if (cpu >= 0 && startCpu >= 0) cpuNanos = cpu - startCpu;
+        long bytes = allocatedBytes();
+        if (bytes >= 0 && startAllocated >= 0) allocated = bytes - startAllocated;
+    }
+
+    /**
+     * Adds the counters of {@code other}, kept apart while another thread updated them.
+     */
+    synchronized void add(SpiderMetrics other) {
+        classes += other.classes;
+        instances += other.instances;
+        fieldReads += other.fieldReads;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public static String toTable(List<SpiderMetrics> metrics) {
+        int width = "spider".length();
+        for (SpiderMetrics m : metrics) {
+            width = Math.max(width, m.name.length());
+        }
+        StringBuilder result = new StringBuilder();
+        result.append(String.format("%-" + width + "s %10s %10s %12s %9s %10s %12s\r\n",
+                "spider", "wall ms", "cpu ms", "alloc KB", "classes", "instances", "field reads"));
+        for (SpiderMetrics m : metrics) {
+            result.append(String.format("%-" + width + "s %10s %10s %12s %9d %10d %12d\r\n",
+                    m.name, millis(m.wallNanos), millis(m.cpuNanos), m.allocated < 0 ? "-" : String.valueOf(m.allocated / 1024),
+                    m.classes, m.instances, m.fieldReads));
+        }
+        return result.toString();
+    }
+
+    /**
+     * @param stringCache the holder's decoded String cache to report along, or null
+     */
+    public static String toJson(List<SpiderMetrics> metrics, StringCache stringCache) {
+        StringBuilder result = new StringBuilder("{\"spiders\":[");
+        for (int i = 0; i < metrics.size(); i++) {
+            SpiderMetrics m = metrics.get(i);
+            if (i > 0) result.append(',');
+            result.append("{\"name\":").append(JsonUtils.quote(m.name));
+            result.append(",\"wallNanos\":").append(m.wallNanos);
+            result.append(",\"cpuNanos\":").append(m.cpuNanos < 0 ? "null" : String.valueOf(m.cpuNanos));
+            result.append(",\"allocatedBytes\":").append(m.allocated < 0 ? "null" : String.valueOf(m.allocated));
+            result.append(",\"classes\":").append(m.classes);
+            result.append(",\"instances\":").append(m.instances);
+            result.append(",\"fieldReads\":").append(m.fieldReads);
+            result.append('}');
+        }
+        result.append(']');
+        if (stringCache != null) {
+            result.append(",\"stringCache\":").append(stringCache.toJson());
+        }
+        return result.append('}').toString();
+    }
+
+    private static String millis(long nanos) {
+        return nanos < 0 ? "-" : String.valueOf(nanos / 1000000);
+    }
+
+    private static long cpuTime() {
+        try {
+            return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : -1;
+        } catch (UnsupportedOperationException ex) {
+            return -1;
+        }
+    }
+
+    private static long allocatedBytes() {
+        if (allocatedBytes == null) return -1;
+        try {
+            return (Long) allocatedBytes.invoke(threads, Thread.currentThread().getId());
+        } catch (Exception ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Allocation counters are a HotSpot extension, added in Java 6u25, so look them up reflectively.
+     */
+    private static Method findAllocatedBytes() {
+        try {
+            Class<?> hotspotBean = Class.forName("com.sun.management.ThreadMXBean");
+            if (!hotspotBean.isInstance(threads)) return null;
+            return hotspotBean.getMethod("getThreadAllocatedBytes", long.class);
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,437 @@
+package cn.wanghw;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps dumps open between queries and answers them over HTTP on the loopback interface, so
+ * parsing a large dump is paid once per session instead of once per question. Parameters are taken
+ * from the query string, and for POST also from a form body; {@code dump} names a loaded dump by
+ * its path and may be left out while only one is loaded, {@code format=json|ndjson} asks for
+ * records instead of text.
+ * <ul>
+ * <li>{@code /dumps}: the loaded dumps</li>
+ * <li>{@code /load?path=&engine=}: opens another dump, {@code /unload?dump=} forgets one</li>
+ * <li>{@code /spiders}: the spider names, {@code /spider?name=} runs one of them, by name or class</li>
+ * <li>{@code /field?class=&path=&limit=}: a field path read from every instance of a class</li>
+ * <li>{@code /strings?contains=&limit=}: the Strings containing some text</li>
+ * <li>{@code /shutdown}: stops the server</li>
+ * </ul>
+ * Loopback is open to every local user and to pages in a local browser, so every request must
+ * carry the token made at startup, as {@code token=} in the query string or in an {@code X-Token}
+ * header, and name the server itself as its Host; both are checked before a body is read, and a
+ * body over 64 KB is refused. {@code /load}, {@code /unload} and {@code /shutdown} only take POST.
+ * Holders are not all safe for concurrent use, so a dump answers one query at a time; queries on
+ * different dumps run in parallel. Unloading a dump, or stopping, closes it once its query is done.
+ */
+public class SpiderServer {
+    private static final int DEFAULT_LIMIT = 1000;
+    private static final int MAX_BODY = 64 << 10;
+    private static final List<String> POST_ONLY = Arrays.asList("/load", "/unload", "/shutdown");
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<String> flags;
+    private final Map<String, IHeapHolder> dumps = new LinkedHashMap<String, IHeapHolder>();
+    private final String token = newToken();
+
+    /**
+     * @param port  the port to listen on, 0 for any free one
+     * @param flags the engine flags dumps loaded later are opened with, unless a query names one
+     */
+    public SpiderServer(int port, List<String> flags) throws IOException {
+        this.flags = new ArrayList<String>(flags);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port), 0);
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                SpiderServer.this.handle(exchange);
+            }
+        });
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return the token every request must carry
+     */
+    public String getToken() {
+        return token;
+    }
+
+    public void add(File heapfile, IHeapHolder heapHolder) {
+        IHeapHolder replaced;
+        synchronized (dumps) {
+            replaced = dumps.put(heapfile.getAbsolutePath(), heapHolder);
+        }
+        if (replaced != null && replaced != heapHolder) {
+            close(replaced);
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops listening and closes the loaded dumps, each once the query running on it is done.
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+        List<IHeapHolder> holders;
+        synchronized (dumps) {
+            holders = new ArrayList<IHeapHolder>(dumps.values());
+            dumps.clear();
+        }
+        for (IHeapHolder heapHolder : holders) {
+            close(heapHolder);
+        }
+    }
+
+    private static void close(IHeapHolder heapHolder) {
+        synchronized (heapHolder) {
+            heapHolder.close();
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        int status = 200;
+        String type = "text/plain; charset=UTF-8";
+        String body;
+        String path = exchange.getRequestURI().getPath();
+        try {
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            boolean post = exchange.getRequestMethod().equals("POST");
+            String form = null;
+            if (!isLocalHost(exchange.getRequestHeaders().getFirst("Host"))) {
+                status = 403;
+                body = "Host must be 127.0.0.1:" + getPort() + " or localhost:" + getPort() + "\n";
+            } else if (!isToken(query.get("token")) && !isToken(exchange.getRequestHeaders().getFirst("X-Token"))) {
+                status = 403;
+                body = "Missing or wrong token\n";
+            } else if (POST_ONLY.contains(path) && !post) {
+                status = 405;
+                exchange.getResponseHeaders().set("Allow", "POST");
+                body = path + " only takes POST\n";
+            } else if (post && (form = readBody(exchange)) == null) {
+                status = 413;
+                body = "Request body over " + (MAX_BODY >> 10) + " KB\n";
+            } else {
+                if (form != null) {
+                    query.putAll(parseQuery(form));
+                }
+                String format = query.containsKey("format") ? query.get("format") : "text";
+                if (format.equals("json")) {
+                    type = "application/json; charset=UTF-8";
+                } else if (format.equals("ndjson")) {
+                    type = "application/x-ndjson; charset=UTF-8";
+                } else if (!format.equals("text")) {
+                    throw new IllegalArgumentException("Unknown format '" + format + "'");
+                }
+                body = answer(path, query, format);
+                if (body == null) {
+                    status = 404;
+                    type = "text/plain; charset=UTF-8";
+                    body = "Unknown endpoint " + path + "\n";
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            status = 400;
+            type = "text/plain; charset=UTF-8";
+            body = ex.getMessage() + "\n";
+        } catch (Exception ex) {
+            status = 500;
+            type = "text/plain; charset=UTF-8";
+            body = ex + "\n";
+        }
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", type);
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+        if (status == 200 && path.equals("/shutdown")) {
+            stop();
+        }
+    }
+
+    /**
+     * A page in a local browser can reach loopback through a name of its own that resolves there,
+     * but it then sends that name as the Host.
+     */
+    private boolean isLocalHost(String host) {
+        return host != null && (host.equalsIgnoreCase("127.0.0.1:" + getPort()) || host.equalsIgnoreCase("localhost:" + getPort()));
+    }
+
+    /**
+     * Compares in time independent of where the texts differ, so the token cannot be guessed a
+     * byte at a time.
+     */
+    private boolean isToken(String given) throws UnsupportedEncodingException {
+        return given != null && MessageDigest.isEqual(token.getBytes("UTF-8"), given.getBytes("UTF-8"));
+    }
+
+    /**
+     * @return the form in the body, or null if it is over {@link #MAX_BODY}
+     */
+    private static String readBody(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                if (body.size() + n > MAX_BODY) return null;
+                body.write(buffer, 0, n);
+            }
+            return body.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String newToken() {
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder result = new StringBuilder();
+        for (byte b : bytes) {
+            result.append(String.format("%02x", b & 0xFF));
+        }
+        return result.toString();
+    }
+
+    /**
+     * @return the response body, or null for an unknown endpoint
+     */
+    private String answer(String path, Map<String, String> query, String format) throws Exception {
+        if (path.equals("/dumps")) {
+            StringBuilder result = new StringBuilder();
+            synchronized (dumps) {
+                for (String dump : dumps.keySet()) {
+                    result.append(dump).append('\n');
+                }
+            }
+            return result.toString();
+        } else if (path.equals("/load")) {
+            return load(require(query, "path"), query.get("engine"));
+        } else if (path.equals("/unload")) {
+            String dump = findDump(query.get("dump"));
+            IHeapHolder heapHolder;
+            synchronized (dumps) {
+                heapHolder = dumps.remove(dump);
+            }
+            if (heapHolder != null) {
+                close(heapHolder);
+            }
+            return "[+] Unloaded " + dump + "\n";
+        } else if (path.equals("/spiders")) {
+            StringBuilder result = new StringBuilder();
+            for (ISpider spider : Main.createSpiders()) {
+                result.append(spider.getName()).append('\n');
+            }
+            return result.toString();
+        } else if (path.equals("/shutdown")) {
+            return "[+] Stopping\n";
+        } else if (!path.equals("/spider") && !path.equals("/field") && !path.equals("/strings")) {
+            return null;
+        }
+
+        String dump = findDump(query.get("dump"));
+        IHeapHolder heapHolder;
+        synchronized (dumps) {
+            heapHolder = dumps.get(dump);
+        }
+        ResultSink text = new StringResultSink();
+        ResultSink sink = format.equals("text") ? text : new JsonResultSink(text,
+                path.equals("/spider") ? query.get("name") : path.substring(1), dump, format.equals("json"));
+        if (heapHolder == null) {
+            throw new IllegalArgumentException("dump not loaded: " + dump);
+        }
+        synchronized (heapHolder) {
+            synchronized (dumps) {
+                if (dumps.get(dump) != heapHolder) {
+                    throw new IllegalArgumentException("dump not loaded: " + dump);
+                }
+            }
+            if (path.equals("/spider")) {
+                runSpider(findSpider(require(query, "name")), heapHolder, sink);
+            } else if (path.equals("/field")) {
+                readField(heapHolder, require(query, "class"), require(query, "path"), getLimit(query), sink);
+            } else {
+                findStrings(heapHolder, require(query, "contains"), getLimit(query), sink);
+            }
+        }
+        if (format.equals("json")) {
+            String records = text.toString();
+            return records.equals("") ? "[]\n" : "[\n" + records + "\n]\n";
+        }
+        return text.toString();
+    }
+
+    private String load(String path, String engine) throws Exception {
+        File heapfile = new File(path);
+        if (!heapfile.isFile()) {
+            throw new IllegalArgumentException("file not exist: " + path);
+        }
+        synchronized (dumps) {
+            if (dumps.containsKey(heapfile.getAbsolutePath())) {
+                return "[+] Already loaded " + heapfile.getAbsolutePath() + "\n";
+            }
+        }
+        List<String> loadFlags = new ArrayList<String>(flags);
+        if (engine != null) {
+            int index = loadFlags.indexOf("-engine");
+            if (index >= 0) {
+                loadFlags.subList(index, Math.min(index + 2, loadFlags.size())).clear();
+            }
+            loadFlags.add("-engine");
+            loadFlags.add(engine);
+        }
+        loadFlags.remove("--stream");
+        add(heapfile, Main.open(heapfile, loadFlags));
+        return "[+] Loaded " + heapfile.getAbsolutePath() + "\n";
+    }
+
+    private String findDump(String dump) {
+        synchronized (dumps) {
+            if (dump == null) {
+                if (dumps.size() != 1) {
+                    throw new IllegalArgumentException(dumps.size() + " dumps loaded, pass dump=");
+                }
+                return dumps.keySet().iterator().next();
+            }
+            String path = new File(dump).getAbsolutePath();
+            if (!dumps.containsKey(path)) {
+                throw new IllegalArgumentException("dump not loaded: " + dump);
+            }
+            return path;
+        }
+    }
+
+    /**
+     * @return a new instance of the spider, since spiders keep state between register and collect
+     */
+    private static ISpider findSpider(String name) {
+        ISpider spider = Main.createSpider(name);
+        if (spider == null) {
+            throw new IllegalArgumentException("Unknown spider '" + name + "'");
+        }
+        return spider;
+    }
+
+    private static void runSpider(ISpider spider, IHeapHolder heapHolder, ResultSink sink) {
+        String result = null;
+        if (spider instanceof IStreamScanSpider) {
+            HeapScanner scanner = new HeapScanner();
+            ((IStreamScanSpider) spider).register(scanner, sink);
+            scanner.scan(heapHolder);
+            ((IStreamScanSpider) spider).collect(heapHolder, sink);
+        } else if (spider instanceof IScanSpider) {
+            result = HeapScanner.sniff((IScanSpider) spider, heapHolder);
+        } else if (spider instanceof IStreamSpider) {
+            ((IStreamSpider) spider).sniff(heapHolder, sink);
+        } else {
+            result = spider.sniff(heapHolder);
+        }
+        if (result != null && !result.equals("")) {
+            if (sink.isStructured()) {
+                sink.record(null, 0, Collections.singletonMap((String) null, result));
+            } else {
+                sink.append(result);
+            }
+        }
+    }
+
+    /**
+     * Writes {@code id<TAB>value} per instance of the class, or a record keyed by the path.
+     */
+    private static void readField(IHeapHolder heapHolder, String className, String path, int limit, ResultSink sink) {
+        Object clazz = heapHolder.findClass(className);
+        if (clazz == null) {
+            throw new IllegalArgumentException("class not found: " + className);
+        }
+        FieldPath fieldPath = FieldPath.compile(path);
+        int count = 0;
+        for (Iterator it = heapHolder.getInstancesIterator(clazz); it.hasNext(); ) {
+            Object instance = it.next();
+            if (count++ == limit) break;
+            long id = heapHolder.getObjectId(instance);
+            String value = heapHolder.getFieldStringValue(instance, fieldPath);
+            if (sink.isStructured()) {
+                sink.record(className, id, Collections.singletonMap(path, value));
+            } else {
+                sink.append(id + "\t" + value + "\n");
+            }
+        }
+    }
+
+    /**
+     * Writes {@code id<TAB>text} per String containing {@code contains}, or a record without a key.
+     */
+    private static void findStrings(IHeapHolder heapHolder, final String contains, final int limit, final ResultSink sink) {
+        if (limit == 0) return;
+        final int[] count = new int[1];
+        final HeapScanner scanner = new HeapScanner();
+        scanner.onString(new HeapScanner.StringVisitor() {
+            public void visit(IHeapHolder heapHolder, Object instance, String text) {
+                if (count[0] == limit || !text.contains(contains)) return;
+                if (++count[0] == limit) scanner.stop();
+                long id = heapHolder.getObjectId(instance);
+                if (sink.isStructured()) {
+                    sink.record("java.lang.String", id, Collections.singletonMap((String) null, text));
+                } else {
+                    sink.append(id + "\t" + text + "\n");
+                }
+            }
+        });
+        scanner.scan(heapHolder);
+    }
+
+    private static int getLimit(Map<String, String> query) {
+        String limit = query.get("limit");
+        if (limit == null) return DEFAULT_LIMIT;
+        try {
+            return Integer.parseInt(limit);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("limit is not a number: " + limit);
+        }
+    }
+
+    private static String require(Map<String, String> query, String name) {
+        String value = query.get(name);
+        if (value == null || value.equals("")) {
+            throw new IllegalArgumentException("Missing parameter " + name + "=");
+        }
+        return value;
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> query = new HashMap<String, String>();
+        if (rawQuery == null) return query;
+        for (String pair : rawQuery.split("&")) {
+            if (pair.equals("")) continue;
+            int index = pair.indexOf('=');
+            String name = index < 0 ? pair : pair.substring(0, index);
+            String value = index < 0 ? "" : pair.substring(index + 1);
+            query.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+        }
+        return query;
+    }
+}
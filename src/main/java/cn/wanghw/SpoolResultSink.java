@@ -0,0 +1,89 @@
+package cn.wanghw;
+
+import java.io.*;
+
+/**
+ * Holds a spider's findings until it is the spider's turn to print: the first
+ * {@code memoryLimit} chars in memory, everything after that in a temp file, so a dump with
+ * hundreds of MB of findings does not need them on the heap. The temp file is deleted once it is
+ * written out, or by {@link #close()}. Not thread safe.
+ */
+public class SpoolResultSink extends ResultSink implements Closeable {
+    public static final int DEFAULT_MEMORY_LIMIT = 1 << 20;
+    private static final int READ_CHUNK = 8192;
+
+    private final int memoryLimit;
+    private final StringBuilder buffer = new StringBuilder();
+    private File spool;
+    private Writer writer;
+    private boolean empty = true;
+
+    public SpoolResultSink() {
+        this(DEFAULT_MEMORY_LIMIT);
+    }
+
+    public SpoolResultSink(int memoryLimit) {
+        this.memoryLimit = memoryLimit;
+    }
+
+    public void append(String text) {
+        if (text.length() == 0) return;
+        empty = false;
+        try {
+            if (writer == null && buffer.length() + text.length() <= memoryLimit) {
+                buffer.append(text);
+                return;
+            }
+            if (writer == null) {
+                spool = File.createTempFile("jdumpspider", ".spool");
+                writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(spool), "UTF-8"));
+                writer.write(buffer.toString());
+                buffer.setLength(0);
+            }
+            writer.write(text);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Cannot spool results to " + spool, ex);
+        }
+    }
+
+    public boolean isEmpty() {
+        return empty;
+    }
+
+    /**
+     * Prints everything appended so far and empties the sink.
+     */
+    public void writeTo(PrintStream out) throws IOException {
+        out.print(buffer);
+        buffer.setLength(0);
+        if (writer == null) return;
+        writer.close();
+        writer = null;
+        Reader reader = new InputStreamReader(new FileInputStream(spool), "UTF-8");
+        try {
+            char[] chunk = new char[READ_CHUNK];
+            for (int n; (n = reader.read(chunk)) > 0; ) {
+                out.print(new String(chunk, 0, n));
+            }
+        } finally {
+            reader.close();
+            close();
+        }
+    }
+
+    /**
+     * Drops what was not written out and deletes the temp file, if there is one.
+     */
+    public void close() throws IOException {
+        buffer.setLength(0);
+        try {
+            if (writer != null) writer.close();
+        } finally {
+            writer = null;
+            if (spool != null) {
+                spool.delete();
+                spool = null;
+            }
+        }
+    }
+}
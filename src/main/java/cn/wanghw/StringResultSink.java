@@ -0,0 +1,25 @@
+package cn.wanghw;
+
+/**
+ * Keeps the findings in memory, for callers that want a spider's output as one String.
+ */
+public class StringResultSink extends ResultSink {
+    private final StringBuilder result = new StringBuilder();
+
+    /**
+     * Runs a streaming spider into a String, for callers that invoke {@code sniff} directly.
+     */
+    public static String sniff(IStreamSpider spider, IHeapHolder heapHolder) {
+        StringResultSink sink = new StringResultSink();
+        spider.sniff(heapHolder, sink);
+        return sink.toString();
+    }
+
+    public void append(String text) {
+        result.append(text);
+    }
+
+    public String toString() {
+        return result.toString();
+    }
+}
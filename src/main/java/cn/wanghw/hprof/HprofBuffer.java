@@ -0,0 +1,159 @@
+package cn.wanghw.hprof;
+
+import cn.wanghw.utils.MappedFiles;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only view of a whole dump file as a list of memory mapped segments, so dumps larger than
+ * 2 GB can be addressed with a long offset. {@link HprofImage} builds the same view in memory.
+ * <p>
+ * Consecutive segments overlap by {@link #SEGMENT_EXT} bytes, which lets every fixed size read be
+ * served by a single segment.
+ */
+public class HprofBuffer {
+    static final int SEGMENT_BITS = 30;
+    static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+    static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+    static final int SEGMENT_EXT = 64 * 1024;
+
+    private final ByteBuffer[] segments;
+    private final long length;
+    private final int idSize;
+    private final String version;
+    private final long timestamp;
+    private final long headerSize;
+
+    public HprofBuffer(File file) throws IOException {
+        this(map(file), file.toString());
+    }
+
+    /**
+     * @param segments segment {@code i} holds the bytes from {@code i * SEGMENT_SIZE} on, followed by
+     *                 the first {@link #SEGMENT_EXT} bytes of segment {@code i + 1}
+     */
+    HprofBuffer(ByteBuffer[] segments, String source) throws IOException {
+        this.segments = segments;
+        length = segments.length == 0 ? 0 : (segments.length - 1) * SEGMENT_SIZE + segments[segments.length - 1].limit();
+        StringBuilder magic = new StringBuilder();
+        long pos = 0;
+        for (byte b; pos < length && (b = get(pos)) != 0; pos++) {
+            magic.append((char) b);
+        }
+        if (!magic.toString().startsWith("JAVA PROFILE 1.0.")) {
+            throw new IOException("Not a HPROF file: " + source);
+        }
+        version = magic.toString();
+        idSize = getInt(pos + 1);
+        if (idSize != 4 && idSize != 8) {
+            throw new IOException("Unsupported identifier size " + idSize + " in " + source);
+        }
+        timestamp = getLong(pos + 5);
+        headerSize = pos + 13;
+    }
+
+    private static ByteBuffer[] map(File file) throws IOException {
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            FileChannel channel = fis.getChannel();
+            long length = channel.size();
+            ByteBuffer[] segments = new ByteBuffer[(int) ((length + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+            for (int i = 0; i < segments.length; i++) {
+                long position = i * SEGMENT_SIZE;
+                long size = Math.min(SEGMENT_SIZE + SEGMENT_EXT, length - position);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+            }
+            return segments;
+        } finally {
+            fis.close();
+        }
+    }
+
+    /**
+     * Unmaps the file. Every read afterwards fails, instead of reaching memory that is no longer
+     * mapped; the caller makes sure no read is under way.
+     */
+    public void close() {
+        for (int i = 0; i < segments.length; i++) {
+            ByteBuffer segment = segments[i];
+            segments[i] = ByteBuffer.allocate(0);
+            MappedFiles.unmap(segment);
+        }
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public int getIDSize() {
+        return idSize;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Offset of the first record, right after the magic, identifier size and timestamp.
+     */
+    public long getHeaderSize() {
+        return headerSize;
+    }
+
+    public byte get(long index) {
+        return segments[(int) (index >>> SEGMENT_BITS)].get((int) (index & SEGMENT_MASK));
+    }
+
+    public char getChar(long index) {
+        return segments[(int) (index >>> SEGMENT_BITS)].getChar((int) (index & SEGMENT_MASK));
+    }
+
+    public short getShort(long index) {
+        return segments[(int) (index >>> SEGMENT_BITS)].getShort((int) (index & SEGMENT_MASK));
+    }
+
+    public int getInt(long index) {
+        return segments[(int) (index >>> SEGMENT_BITS)].getInt((int) (index & SEGMENT_MASK));
+    }
+
+    public long getLong(long index) {
+        return segments[(int) (index >>> SEGMENT_BITS)].getLong((int) (index & SEGMENT_MASK));
+    }
+
+    public float getFloat(long index) {
+        return Float.intBitsToFloat(getInt(index));
+    }
+
+    public double getDouble(long index) {
+        return Double.longBitsToDouble(getLong(index));
+    }
+
+    public long getID(long index) {
+        return idSize == 4 ? getInt(index) & 0xFFFFFFFFL : getLong(index);
+    }
+
+    /**
+     * Copies {@code dst.length} bytes starting at {@code index}, splitting the copy wherever it
+     * crosses into the next segment. Safe to call from several threads at once.
+     */
+    public void get(long index, byte[] dst) {
+        int done = 0;
+        while (done < dst.length) {
+            long position = index + done;
+            ByteBuffer segment = segments[(int) (position >>> SEGMENT_BITS)].duplicate();
+            int offset = (int) (position & SEGMENT_MASK);
+            int n = Math.min(dst.length - done, segment.limit() - offset);
+            segment.position(offset);
+            segment.get(dst, done, n);
+            done += n;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package cn.wanghw.hprof;
+
+import java.util.*;
+
+public class HprofClass {
+    final HprofHeap heap;
+    final long id;
+    final long superId;
+    final int instanceSize;
+    final List<HprofField> fields = new ArrayList<HprofField>();
+    final List<HprofField> staticFields = new ArrayList<HprofField>();
+    final LongList staticValueOffsets = new LongList(4);
+    String name;
+    HprofClass superClass;
+    long[] instanceOffsets = new long[0];
+
+    HprofField[] allFields;
+    int[] valueOffsets;
+    int[] referenceOffsets;
+    private List<HprofField> allFieldList;
+    private volatile Map<String, Integer> fieldIndexes;
+
+    HprofClass(HprofHeap heap, long id, long superId, int instanceSize) {
+        this.heap = heap;
+        this.id = id;
+        this.superId = superId;
+        this.instanceSize = instanceSize;
+    }
+
+    public long getJavaClassId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public HprofClass getSuperClass() {
+        return superClass;
+    }
+
+    /**
+     * @return the instance fields declared by this class, without inherited ones
+     */
+    public List<HprofField> getFields() {
+        return fields;
+    }
+
+    /**
+     * @return the instance fields of this class and its superclasses, in instance layout order
+     */
+    public List<HprofField> getAllFields() {
+        if (fieldIndexes == null) {
+            computeLayout();
+        }
+        return allFieldList;
+    }
+
+    public boolean isArray() {
+        return name != null && name.endsWith("[]");
+    }
+
+    public int getInstancesCount() {
+        return instanceOffsets.length;
+    }
+
+    public Object getValueOfStaticField(String fieldName) {
+        for (int i = staticFields.size() - 1; i >= 0; i--) {
+            HprofField field = staticFields.get(i);
+            if (field.name.equals(fieldName)) {
+                return heap.readValue(staticValueOffsets.get(i), field.type);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the index of the field in the flattened instance layout, or -1. When a subclass
+     * shadows a field the superclass one wins, matching what the other heap libraries return.
+     */
+    int getFieldIndex(String fieldName) {
+        Map<String, Integer> indexes = fieldIndexes;
+        if (indexes == null) {
+            indexes = computeLayout();
+        }
+        Integer index = indexes.get(fieldName);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @return the offsets of the object reference fields within an instance's field values
+     */
+    int[] getReferenceOffsets() {
+        if (fieldIndexes == null) {
+            computeLayout();
+        }
+        return referenceOffsets;
+    }
+
+    private synchronized Map<String, Integer> computeLayout() {
+        if (fieldIndexes != null) return fieldIndexes;
+        List<HprofField> flattened = new ArrayList<HprofField>();
+        for (HprofClass cls = this; cls != null; cls = cls.superClass) {
+            flattened.addAll(cls.fields);
+        }
+        HprofField[] layout = flattened.toArray(new HprofField[flattened.size()]);
+        int[] offsets = new int[layout.length];
+        Map<String, Integer> indexes = new HashMap<String, Integer>(layout.length * 2);
+        int references = 0;
+        int offset = 0;
+        for (int i = 0; i < layout.length; i++) {
+            offsets[i] = offset;
+            offset += heap.getValueSize(layout[i].type);
+            indexes.put(layout[i].name, i);
+            if (layout[i].type == HprofHeap.OBJECT) references++;
+        }
+        int[] referenceOffsets = new int[references];
+        for (int i = 0, j = 0; i < layout.length; i++) {
+            if (layout[i].type == HprofHeap.OBJECT) referenceOffsets[j++] = offsets[i];
+        }
+        allFields = layout;
+        allFieldList = Collections.unmodifiableList(Arrays.asList(layout));
+        valueOffsets = offsets;
+        this.referenceOffsets = referenceOffsets;
+        fieldIndexes = indexes;
+        return indexes;
+    }
+
+    public String toString() {
+        return name;
+    }
+}
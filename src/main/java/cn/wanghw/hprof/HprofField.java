@@ -0,0 +1,30 @@
+package cn.wanghw.hprof;
+
+public class HprofField {
+    final HprofClass declaringClass;
+    final long nameId;
+    final byte type;
+    String name;
+
+    HprofField(HprofClass declaringClass, long nameId, byte type) {
+        this.declaringClass = declaringClass;
+        this.nameId = nameId;
+        this.type = type;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public HprofClass getDeclaringClass() {
+        return declaringClass;
+    }
+
+    public String toString() {
+        return declaringClass.getName() + "." + name;
+    }
+}
@@ -0,0 +1,235 @@
+package cn.wanghw.hprof;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+import static cn.wanghw.hprof.HprofHeap.*;
+
+/**
+ * A quick look at a dump to plan how much heap analysing it takes, in the spirit of the header
+ * peek in {@code Main.getFileVersion}: the top level records are counted without reading their
+ * bodies, and only the start of a few heap dump segments is parsed, to see how many objects a
+ * megabyte of this dump holds. The object count is extrapolated from that.
+ */
+public class HprofFootprint {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final long SAMPLE_BYTES = 4L << 20;
+    private static final int SAMPLES = 8;
+
+    /*
+     * Heap per object is the smallest -Xmx each engine finished the generated dumps with, taken
+     * at two dump sizes, rounded up for headroom. The cost of names and classes is a guess: the
+     * generated dumps have too few to tell.
+     */
+    private static final long BASE = 16L << 20;
+    private static final long NAME_BYTES = 64;
+    private static final long CLASS_BYTES = 1024;
+    private static final long LIBRARY_OBJECT_BYTES = 64;
+    private static final long NATIVE_OBJECT_BYTES = 40;
+    private static final long STREAM_OBJECT_BYTES = 192;
+
+    private final File file;
+    private int idSize;
+    private long names;
+    private long classes;
+    private long heapDumpBytes;
+    private long sampledBytes;
+    private long sampledObjects;
+
+    private HprofFootprint(File file) {
+        this.file = file;
+    }
+
+    public static HprofFootprint of(File dump) throws IOException {
+        HprofFootprint footprint = new HprofFootprint(dump);
+        footprint.read();
+        return footprint;
+    }
+
+    public long getNames() {
+        return names;
+    }
+
+    public long getClasses() {
+        return classes;
+    }
+
+    public long getHeapDumpBytes() {
+        return heapDumpBytes;
+    }
+
+    /**
+     * @return the number of objects in the heap dump, extrapolated from the sampled part
+     */
+    public long getObjects() {
+        if (sampledBytes == 0) return 0;
+        return (long) ((double) sampledObjects * heapDumpBytes / sampledBytes);
+    }
+
+    /**
+     * @param engine {@code graalvm}, {@code netbeans}, {@code native} or {@code stream}
+     * @return the bytes of Java heap analysing the dump with the engine is expected to take
+     */
+    public long estimateHeap(String engine) {
+        long perObject;
+        if (engine.equals("native")) {
+            perObject = NATIVE_OBJECT_BYTES;
+        } else if (engine.equals("stream")) {
+            // copies of the records kept, and the index over them
+            perObject = STREAM_OBJECT_BYTES;
+        } else {
+            perObject = LIBRARY_OBJECT_BYTES;
+        }
+        return BASE + names * NAME_BYTES + classes * CLASS_BYTES + getObjects() * perObject;
+    }
+
+    public String toString() {
+        return String.format("%s: %d names, %d classes, %d MB of heap dump, about %d objects",
+                file.getName(), names, classes, heapDumpBytes >> 20, getObjects());
+    }
+
+    private void read() throws IOException {
+        List<long[]> segments = new ArrayList<long[]>();
+        DataInputStream in = open(0);
+        try {
+            long pos = readHeader(in);
+            for (int tag; (tag = in.read()) >= 0; ) {
+                in.readInt();
+                long length = in.readInt() & 0xFFFFFFFFL;
+                pos += 9;
+                if (tag == HEAP_DUMP || tag == HEAP_DUMP_SEGMENT) {
+                    // a zero length heap dump record runs to the end of the file
+                    if (length == 0) length = file.length() - pos;
+                    segments.add(new long[]{pos, length});
+                    heapDumpBytes += length;
+                } else if (tag == UTF8) {
+                    names++;
+                } else if (tag == LOAD_CLASS) {
+                    classes++;
+                }
+                skipFully(in, length);
+                pos += length;
+            }
+        } finally {
+            in.close();
+        }
+        int samples = Math.min(SAMPLES, segments.size());
+        for (int i = 0; i < samples; i++) {
+            long[] segment = segments.get(i * segments.size() / samples);
+            sample(segment[0], Math.min(segment[1], SAMPLE_BYTES));
+        }
+    }
+
+    private long readHeader(DataInputStream in) throws IOException {
+        StringBuilder magic = new StringBuilder();
+        for (int b; (b = in.read()) > 0; ) {
+            magic.append((char) b);
+        }
+        if (!magic.toString().startsWith("JAVA PROFILE 1.0.")) {
+            throw new IOException("Not a HPROF file: " + file);
+        }
+        idSize = in.readInt();
+        if (idSize != 4 && idSize != 8) {
+            throw new IOException("Unsupported identifier size " + idSize + " in " + file);
+        }
+        in.readLong();
+        return magic.length() + 1 + 4 + 8;
+    }
+
+    /**
+     * Counts the objects among the sub-records starting in the first {@code limit} bytes of a
+     * heap dump segment.
+     */
+    private void sample(long start, long limit) throws IOException {
+        DataInputStream in = open(start);
+        try {
+            long pos = 0;
+            while (pos < limit) {
+                int tag = in.read();
+                if (tag < 0) break;
+                pos++;
+                long size = rootRecordSize(tag, idSize);
+                if (size < 0) {
+                    size = 0;
+                    switch (tag) {
+                        case CLASS_DUMP:
+                            pos += skipClassDump(in);
+                            break;
+                        case INSTANCE_DUMP:
+                            skipFully(in, idSize + 4 + idSize);
+                            size = in.readInt() & 0xFFFFFFFFL;
+                            pos += idSize + 4 + idSize + 4;
+                            break;
+                        case OBJECT_ARRAY_DUMP:
+                            skipFully(in, idSize + 4);
+                            size = (in.readInt() & 0xFFFFFFFFL) * idSize;
+                            skipFully(in, idSize);
+                            pos += idSize + 4 + 4 + idSize;
+                            break;
+                        case PRIMITIVE_ARRAY_DUMP:
+                            skipFully(in, idSize + 4);
+                            long count = in.readInt() & 0xFFFFFFFFL;
+                            size = count * valueSize(in.readByte(), idSize);
+                            pos += idSize + 4 + 4 + 1;
+                            break;
+                        default:
+                            throw new IOException("Unknown heap dump sub-record tag 0x" + Integer.toHexString(tag) + " in " + file);
+                    }
+                    sampledObjects++;
+                }
+                skipFully(in, size);
+                pos += size;
+            }
+            sampledBytes += pos;
+        } finally {
+            in.close();
+        }
+    }
+
+    private long skipClassDump(DataInputStream in) throws IOException {
+        long length = 7 * idSize + 8;
+        skipFully(in, 7 * idSize + 8);
+        int constantPoolSize = in.readUnsignedShort();
+        length += 2;
+        for (int i = 0; i < constantPoolSize; i++) {
+            skipFully(in, 2);
+            int size = valueSize(in.readByte(), idSize);
+            skipFully(in, size);
+            length += 3 + size;
+        }
+        int staticCount = in.readUnsignedShort();
+        length += 2;
+        for (int i = 0; i < staticCount; i++) {
+            skipFully(in, idSize);
+            int size = valueSize(in.readByte(), idSize);
+            skipFully(in, size);
+            length += idSize + 1 + size;
+        }
+        int fieldCount = in.readUnsignedShort();
+        skipFully(in, fieldCount * (idSize + 1));
+        return length + 2 + fieldCount * (idSize + 1);
+    }
+
+    private DataInputStream open(long position) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            skipFully(in, position);
+        } catch (IOException ex) {
+            in.close();
+            throw ex;
+        }
+        return new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+    }
+
+    private static void skipFully(InputStream in, long length) throws IOException {
+        while (length > 0) {
+            long skipped = in.skip(length);
+            if (skipped <= 0) {
+                if (in.read() < 0) throw new EOFException();
+                skipped = 1;
+            }
+            length -= skipped;
+        }
+    }
+}
@@ -0,0 +1,676 @@
+package cn.wanghw.hprof;
+
+import cn.wanghw.utils.LongObjectMap;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * A lean HPROF index: one sequential pass over the mapped dump collects the class table, the
+ * file offset of every instance per class and a sorted object id to offset table. Nothing else
+ * (references, GC roots, dominators) is computed. {@link HprofIndexCache} saves the index for reuse.
+ */
+public class HprofHeap {
+    static final int UTF8 = 0x01;
+    static final int LOAD_CLASS = 0x02;
+    static final int HEAP_DUMP = 0x0C;
+    static final int HEAP_DUMP_SEGMENT = 0x1C;
+
+    static final int ROOT_UNKNOWN = 0xFF;
+    static final int ROOT_JNI_GLOBAL = 0x01;
+    static final int ROOT_JNI_LOCAL = 0x02;
+    static final int ROOT_JAVA_FRAME = 0x03;
+    static final int ROOT_NATIVE_STACK = 0x04;
+    static final int ROOT_STICKY_CLASS = 0x05;
+    static final int ROOT_THREAD_BLOCK = 0x06;
+    static final int ROOT_MONITOR_USED = 0x07;
+    static final int ROOT_THREAD_OBJECT = 0x08;
+    static final int CLASS_DUMP = 0x20;
+    static final int INSTANCE_DUMP = 0x21;
+    static final int OBJECT_ARRAY_DUMP = 0x22;
+    static final int PRIMITIVE_ARRAY_DUMP = 0x23;
+    // Android and J9 extensions
+    static final int ROOT_INTERNED_STRING = 0x89;
+    static final int ROOT_FINALIZING = 0x8A;
+    static final int ROOT_DEBUGGER = 0x8B;
+    static final int ROOT_REFERENCE_CLEANUP = 0x8C;
+    static final int ROOT_VM_INTERNAL = 0x8D;
+    static final int ROOT_JNI_MONITOR = 0x8E;
+    static final int UNREACHABLE = 0x90;
+    static final int PRIMITIVE_ARRAY_NODATA = 0xC3;
+    static final int HEAP_DUMP_INFO = 0xFE;
+
+    public static final byte OBJECT = 2;
+    public static final byte BOOLEAN = 4;
+    public static final byte CHAR = 5;
+    public static final byte FLOAT = 6;
+    public static final byte DOUBLE = 7;
+    public static final byte BYTE = 8;
+    public static final byte SHORT = 9;
+    public static final byte INT = 10;
+    public static final byte LONG = 11;
+
+    private static final String[] PRIMITIVE_NAMES = {
+            null, null, null, null, "boolean", "char", "float", "double", "byte", "short", "int", "long"
+    };
+
+    final HprofBuffer buffer;
+    final int idSize;
+
+    private final List<HprofClass> classes = new ArrayList<HprofClass>();
+    private final Map<String, HprofClass> classesByName = new HashMap<String, HprofClass>();
+    private long[] classIds;
+    private HprofClass[] classesById;
+    private final HprofClass[] primitiveArrayClasses = new HprofClass[PRIMITIVE_NAMES.length];
+    private long[] objectIds;
+    private long[] objectOffsets;
+
+    public HprofHeap(File file) throws IOException {
+        this(new HprofBuffer(file));
+    }
+
+    HprofHeap(HprofBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        idSize = buffer.getIDSize();
+        parse();
+    }
+
+    /**
+     * Restores an index saved by {@link #writeToStream(DataOutputStream)} for the dump in
+     * {@code buffer}, without reading the dump. Every count is checked against the size of the
+     * dump, each thing counted taking at least {@code idSize + 1} bytes of it, so a corrupt index
+     * fails with an IOException instead of a huge or negative array.
+     */
+    HprofHeap(HprofBuffer buffer, DataInputStream dis) throws IOException {
+        this.buffer = buffer;
+        idSize = buffer.getIDSize();
+        long maxCount = buffer.length() / (idSize + 1);
+        int classCount = readCount(dis, maxCount);
+        for (int i = 0; i < classCount; i++) {
+            HprofClass clazz = new HprofClass(this, dis.readLong(), dis.readLong(), dis.readInt());
+            clazz.name = dis.readUTF();
+            readFields(dis, clazz, clazz.fields, maxCount);
+            readFields(dis, clazz, clazz.staticFields, maxCount);
+            for (int j = 0; j < clazz.staticFields.size(); j++) {
+                clazz.staticValueOffsets.add(dis.readLong());
+            }
+            clazz.instanceOffsets = readLongs(dis, maxCount);
+            classes.add(clazz);
+        }
+        indexClasses();
+        for (byte type = BOOLEAN; type <= LONG; type++) {
+            int index = dis.readInt();
+            if (index < 0 || index >= classes.size()) {
+                throw new IOException("corrupt index: primitive array class " + index + " of " + classes.size());
+            }
+            primitiveArrayClasses[type] = classes.get(index);
+        }
+        objectIds = readLongs(dis, maxCount);
+        objectOffsets = readLongs(dis, maxCount);
+        if (objectIds.length != objectOffsets.length) {
+            throw new IOException("corrupt index: " + objectIds.length + " object ids but " + objectOffsets.length + " offsets");
+        }
+    }
+
+    private static int readCount(DataInputStream dis, long maxCount) throws IOException {
+        int count = dis.readInt();
+        if (count < 0 || count > maxCount) {
+            throw new IOException("corrupt index: count " + count + " out of range");
+        }
+        return count;
+    }
+
+    void writeToStream(DataOutputStream out) throws IOException {
+        out.writeInt(classes.size());
+        for (HprofClass clazz : classes) {
+            out.writeLong(clazz.id);
+            out.writeLong(clazz.superId);
+            out.writeInt(clazz.instanceSize);
+            out.writeUTF(clazz.name);
+            writeFields(out, clazz.fields);
+            writeFields(out, clazz.staticFields);
+            for (int j = 0; j < clazz.staticFields.size(); j++) {
+                out.writeLong(clazz.staticValueOffsets.get(j));
+            }
+            writeLongs(out, clazz.instanceOffsets);
+        }
+        for (byte type = BOOLEAN; type <= LONG; type++) {
+            out.writeInt(classes.indexOf(primitiveArrayClasses[type]));
+        }
+        writeLongs(out, objectIds);
+        writeLongs(out, objectOffsets);
+    }
+
+    private static void readFields(DataInputStream dis, HprofClass clazz, List<HprofField> fields, long maxCount) throws IOException {
+        int count = readCount(dis, maxCount);
+        for (int i = 0; i < count; i++) {
+            HprofField field = new HprofField(clazz, dis.readLong(), dis.readByte());
+            field.name = dis.readBoolean() ? dis.readUTF() : null;
+            fields.add(field);
+        }
+    }
+
+    private static void writeFields(DataOutputStream out, List<HprofField> fields) throws IOException {
+        out.writeInt(fields.size());
+        for (HprofField field : fields) {
+            out.writeLong(field.nameId);
+            out.writeByte(field.type);
+            out.writeBoolean(field.name != null);
+            if (field.name != null) {
+                out.writeUTF(field.name);
+            }
+        }
+    }
+
+    private static long[] readLongs(DataInputStream dis, long maxCount) throws IOException {
+        long[] values = new long[readCount(dis, maxCount)];
+        byte[] bytes = new byte[8 * 1024];
+        for (int i = 0; i < values.length; ) {
+            int n = Math.min(values.length - i, bytes.length / 8);
+            dis.readFully(bytes, 0, n * 8);
+            ByteBuffer.wrap(bytes, 0, n * 8).asLongBuffer().get(values, i, n);
+            i += n;
+        }
+        return values;
+    }
+
+    private static void writeLongs(DataOutputStream out, long[] values) throws IOException {
+        out.writeInt(values.length);
+        byte[] bytes = new byte[8 * 1024];
+        for (int i = 0; i < values.length; ) {
+            int n = Math.min(values.length - i, bytes.length / 8);
+            ByteBuffer.wrap(bytes).asLongBuffer().put(values, i, n);
+            out.write(bytes, 0, n * 8);
+            i += n;
+        }
+    }
+
+    public HprofBuffer getBuffer() {
+        return buffer;
+    }
+
+    public List<HprofClass> getAllClasses() {
+        return Collections.unmodifiableList(classes);
+    }
+
+    public HprofClass getClassByName(String name) {
+        return classesByName.get(name);
+    }
+
+    public HprofClass getClassById(long id) {
+        int index = Arrays.binarySearch(classIds, id);
+        return index < 0 ? null : classesById[index];
+    }
+
+    HprofClass getPrimitiveArrayClass(byte type) {
+        return type >= 0 && type < primitiveArrayClasses.length ? primitiveArrayClasses[type] : null;
+    }
+
+    /**
+     * @return the object with the given id, the class if the id names a class object, or null
+     */
+    public Object findObject(long id) {
+        if (id == 0) return null;
+        int index = Arrays.binarySearch(objectIds, id);
+        if (index >= 0) {
+            return createObject(objectOffsets[index]);
+        }
+        HprofClass clazz = getClassById(id);
+        return clazz != null ? clazz : objectNotFound(id);
+    }
+
+    boolean containsObject(long id) {
+        return Arrays.binarySearch(objectIds, id) >= 0;
+    }
+
+    /**
+     * Called when a reference points at an object this heap does not hold.
+     */
+    protected Object objectNotFound(long id) {
+        return null;
+    }
+
+    public HprofObject createObject(long offset) {
+        int tag = buffer.get(offset) & 0xFF;
+        switch (tag) {
+            case INSTANCE_DUMP:
+                return new HprofInstance(this, offset);
+            case OBJECT_ARRAY_DUMP:
+                return new HprofObjectArray(this, offset);
+            case PRIMITIVE_ARRAY_DUMP:
+                return new HprofPrimitiveArray(this, offset);
+            default:
+                throw new IllegalArgumentException("No object record at offset " + offset);
+        }
+    }
+
+    int getValueSize(byte type) {
+        return valueSize(type, idSize);
+    }
+
+    static int valueSize(byte type, int idSize) {
+        switch (type) {
+            case OBJECT:
+                return idSize;
+            case BOOLEAN:
+            case BYTE:
+                return 1;
+            case CHAR:
+            case SHORT:
+                return 2;
+            case FLOAT:
+            case INT:
+                return 4;
+            case DOUBLE:
+            case LONG:
+                return 8;
+            default:
+                throw new IllegalArgumentException("Invalid basic type " + type);
+        }
+    }
+
+    Object readValue(long position, byte type) {
+        switch (type) {
+            case OBJECT:
+                return findObject(buffer.getID(position));
+            case BOOLEAN:
+                return buffer.get(position) != 0;
+            case CHAR:
+                return buffer.getChar(position);
+            case FLOAT:
+                return buffer.getFloat(position);
+            case DOUBLE:
+                return buffer.getDouble(position);
+            case BYTE:
+                return buffer.get(position);
+            case SHORT:
+                return buffer.getShort(position);
+            case INT:
+                return buffer.getInt(position);
+            case LONG:
+                return buffer.getLong(position);
+            default:
+                throw new IllegalArgumentException("Invalid basic type " + type);
+        }
+    }
+
+    private void parse() throws IOException {
+        LongList utf8Ids = new LongList(1 << 16);
+        LongList utf8Offsets = new LongList(1 << 16);
+        LongList loadClassIds = new LongList(1 << 12);
+        LongList loadClassNameIds = new LongList(1 << 12);
+        ParseState state = new ParseState();
+
+        long pos = buffer.getHeaderSize();
+        long end = buffer.length();
+        while (pos + 9 <= end) {
+            int tag = buffer.get(pos) & 0xFF;
+            long length = buffer.getInt(pos + 5) & 0xFFFFFFFFL;
+            long body = pos + 9;
+            if ((tag == HEAP_DUMP || tag == HEAP_DUMP_SEGMENT) && length == 0) {
+                // some VMs leave the length of a single huge heap dump record unset
+                length = end - body;
+            }
+            if (tag == UTF8) {
+                utf8Ids.add(buffer.getID(body));
+                utf8Offsets.add(pos);
+            } else if (tag == LOAD_CLASS) {
+                loadClassIds.add(buffer.getID(body + 4));
+                loadClassNameIds.add(buffer.getID(body + 4 + idSize + 4));
+            } else if (tag == HEAP_DUMP || tag == HEAP_DUMP_SEGMENT) {
+                parseHeapDump(body, Math.min(body + length, end), state);
+            }
+            pos = body + length;
+        }
+
+        long[] sortedUtf8Ids = utf8Ids.toArray();
+        long[] sortedUtf8Offsets = utf8Offsets.toArray();
+        sort(sortedUtf8Ids, sortedUtf8Offsets);
+        long[] sortedLoadClassIds = loadClassIds.toArray();
+        long[] sortedNameIds = loadClassNameIds.toArray();
+        sort(sortedLoadClassIds, sortedNameIds);
+        resolveClasses(sortedUtf8Ids, sortedUtf8Offsets, sortedLoadClassIds, sortedNameIds);
+        distributeInstances(state);
+
+        objectIds = state.objectIds.toArray();
+        objectOffsets = state.objectOffsets.toArray();
+        sort(objectIds, objectOffsets);
+    }
+
+    private void parseHeapDump(long pos, long end, ParseState state) throws IOException {
+        while (pos < end) {
+            int tag = buffer.get(pos) & 0xFF;
+            long start = pos;
+            pos++;
+            int size = rootRecordSize(tag, idSize);
+            if (size >= 0) {
+                pos += size;
+                continue;
+            }
+            switch (tag) {
+                case CLASS_DUMP:
+                    pos = parseClassDump(pos);
+                    break;
+                case INSTANCE_DUMP: {
+                    long classId = buffer.getID(pos + idSize + 4);
+                    int length = buffer.getInt(pos + idSize + 4 + idSize);
+                    state.addObject(buffer.getID(pos), start, classId);
+                    pos += idSize + 4 + idSize + 4 + (length & 0xFFFFFFFFL);
+                    break;
+                }
+                case OBJECT_ARRAY_DUMP: {
+                    long length = buffer.getInt(pos + idSize + 4) & 0xFFFFFFFFL;
+                    long classId = buffer.getID(pos + idSize + 4 + 4);
+                    state.addObject(buffer.getID(pos), start, classId);
+                    pos += idSize + 4 + 4 + idSize + length * idSize;
+                    break;
+                }
+                case PRIMITIVE_ARRAY_DUMP: {
+                    long length = buffer.getInt(pos + idSize + 4) & 0xFFFFFFFFL;
+                    byte type = buffer.get(pos + idSize + 4 + 4);
+                    state.addObject(buffer.getID(pos), start, -type);
+                    pos += idSize + 4 + 4 + 1 + length * getValueSize(type);
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown heap dump sub-record tag 0x" + Integer.toHexString(tag) + " at offset " + start);
+            }
+        }
+    }
+
+    /**
+     * @return the length after the tag of a fixed size heap dump sub-record, or -1 for the class
+     * and object dumps
+     */
+    static int rootRecordSize(int tag, int idSize) {
+        switch (tag) {
+            case ROOT_UNKNOWN:
+            case ROOT_STICKY_CLASS:
+            case ROOT_MONITOR_USED:
+            case ROOT_INTERNED_STRING:
+            case ROOT_FINALIZING:
+            case ROOT_DEBUGGER:
+            case ROOT_REFERENCE_CLEANUP:
+            case ROOT_VM_INTERNAL:
+            case UNREACHABLE:
+                return idSize;
+            case ROOT_JNI_GLOBAL:
+                return 2 * idSize;
+            case ROOT_JNI_LOCAL:
+            case ROOT_JAVA_FRAME:
+            case ROOT_THREAD_OBJECT:
+            case ROOT_JNI_MONITOR:
+                return idSize + 8;
+            case ROOT_NATIVE_STACK:
+            case ROOT_THREAD_BLOCK:
+                return idSize + 4;
+            case HEAP_DUMP_INFO:
+                return 4 + idSize;
+            case PRIMITIVE_ARRAY_NODATA:
+                return idSize + 4 + 4 + 1;
+            default:
+                return -1;
+        }
+    }
+
+    private long parseClassDump(long pos) {
+        long classId = buffer.getID(pos);
+        pos += idSize + 4;
+        long superId = buffer.getID(pos);
+        pos += idSize * 6;
+        int instanceSize = buffer.getInt(pos);
+        pos += 4;
+        HprofClass clazz = new HprofClass(this, classId, superId, instanceSize);
+
+        int constantPoolSize = buffer.getShort(pos) & 0xFFFF;
+        pos += 2;
+        for (int i = 0; i < constantPoolSize; i++) {
+            byte type = buffer.get(pos + 2);
+            pos += 2 + 1 + getValueSize(type);
+        }
+        int staticCount = buffer.getShort(pos) & 0xFFFF;
+        pos += 2;
+        for (int i = 0; i < staticCount; i++) {
+            long nameId = buffer.getID(pos);
+            byte type = buffer.get(pos + idSize);
+            clazz.staticFields.add(new HprofField(clazz, nameId, type));
+            clazz.staticValueOffsets.add(pos + idSize + 1);
+            pos += idSize + 1 + getValueSize(type);
+        }
+        int fieldCount = buffer.getShort(pos) & 0xFFFF;
+        pos += 2;
+        for (int i = 0; i < fieldCount; i++) {
+            clazz.fields.add(new HprofField(clazz, buffer.getID(pos), buffer.get(pos + idSize)));
+            pos += idSize + 1;
+        }
+        classes.add(clazz);
+        return pos;
+    }
+
+    private void resolveClasses(long[] utf8Ids, long[] utf8Offsets, long[] loadClassIds, long[] nameIds) throws IOException {
+        LongObjectMap<String> names = new LongObjectMap<String>();
+        for (HprofClass clazz : classes) {
+            int index = Arrays.binarySearch(loadClassIds, clazz.id);
+            String name = index < 0 ? null : readUtf8(utf8Ids, utf8Offsets, nameIds[index], names);
+            clazz.name = name == null ? "unknown-class-0x" + Long.toHexString(clazz.id) : toClassName(name);
+            for (HprofField field : clazz.fields) {
+                field.name = readUtf8(utf8Ids, utf8Offsets, field.nameId, names);
+            }
+            for (HprofField field : clazz.staticFields) {
+                field.name = readUtf8(utf8Ids, utf8Offsets, field.nameId, names);
+            }
+        }
+        indexClasses();
+        for (byte type = BOOLEAN; type <= LONG; type++) {
+            String name = PRIMITIVE_NAMES[type] + "[]";
+            HprofClass clazz = classesByName.get(name);
+            if (clazz == null) {
+                // no class dump for this array type, stand one in so its arrays still have a class
+                clazz = new HprofClass(this, 0, 0, 0);
+                clazz.name = name;
+                classes.add(clazz);
+                classesByName.put(name, clazz);
+            }
+            primitiveArrayClasses[type] = clazz;
+        }
+    }
+
+    /**
+     * Builds the id and name lookups and links superclasses once every class has its name.
+     */
+    private void indexClasses() {
+        List<HprofClass> dumped = new ArrayList<HprofClass>();
+        for (HprofClass clazz : classes) {
+            if (clazz.id != 0) dumped.add(clazz);
+        }
+        classIds = new long[dumped.size()];
+        classesById = new HprofClass[dumped.size()];
+        for (int i = 0; i < dumped.size(); i++) {
+            classIds[i] = dumped.get(i).id;
+            classesById[i] = dumped.get(i);
+        }
+        sort(classIds, classesById);
+        for (HprofClass clazz : classes) {
+            clazz.superClass = clazz.superId == 0 ? null : getClassById(clazz.superId);
+            if (!classesByName.containsKey(clazz.name)) {
+                classesByName.put(clazz.name, clazz);
+            }
+        }
+    }
+
+    private void distributeInstances(ParseState state) {
+        int[] counts = new int[classIds.length + PRIMITIVE_NAMES.length];
+        int[] slots = new int[state.objectClasses.size()];
+        for (int i = 0; i < slots.length; i++) {
+            long classId = state.objectClasses.get(i);
+            int slot = classId <= 0 && classId > -PRIMITIVE_NAMES.length
+                    ? classIds.length + (int) -classId
+                    : Arrays.binarySearch(classIds, classId);
+            slots[i] = slot;
+            if (slot >= 0) counts[slot]++;
+        }
+        long[][] offsets = new long[counts.length][];
+        for (int i = 0; i < counts.length; i++) {
+            offsets[i] = new long[counts[i]];
+            counts[i] = 0;
+        }
+        for (int i = 0; i < slots.length; i++) {
+            int slot = slots[i];
+            if (slot >= 0) {
+                offsets[slot][counts[slot]++] = state.objectOffsets.get(i);
+            }
+        }
+        for (int i = 0; i < classIds.length; i++) {
+            classesById[i].instanceOffsets = offsets[i];
+        }
+        for (byte type = BOOLEAN; type <= LONG; type++) {
+            primitiveArrayClasses[type].instanceOffsets = offsets[classIds.length + type];
+        }
+        state.objectClasses = null;
+    }
+
+    private String readUtf8(long[] utf8Ids, long[] utf8Offsets, long id, LongObjectMap<String> cache) throws UnsupportedEncodingException {
+        String name = cache.get(id);
+        if (name == null) {
+            int index = Arrays.binarySearch(utf8Ids, id);
+            if (index < 0) return null;
+            long pos = utf8Offsets[index];
+            long length = (buffer.getInt(pos + 5) & 0xFFFFFFFFL) - idSize;
+            byte[] bytes = new byte[(int) length];
+            buffer.get(pos + 9 + idSize, bytes);
+            name = new String(bytes, "UTF-8");
+            cache.put(id, name);
+        }
+        return name;
+    }
+
+    /**
+     * Converts a VM class name such as {@code java/lang/String} or {@code [[B} to the
+     * {@code java.lang.String} / {@code byte[][]} form the spiders look classes up by.
+     */
+    static String toClassName(String vmName) {
+        int dimensions = 0;
+        while (dimensions < vmName.length() && vmName.charAt(dimensions) == '[') {
+            dimensions++;
+        }
+        String element = vmName.substring(dimensions);
+        if (dimensions > 0) {
+            if (element.startsWith("L") && element.endsWith(";")) {
+                element = element.substring(1, element.length() - 1);
+            } else if (element.length() == 1) {
+                element = primitiveName(element.charAt(0));
+            }
+        }
+        StringBuilder name = new StringBuilder(element.replace('/', '.'));
+        for (int i = 0; i < dimensions; i++) {
+            name.append("[]");
+        }
+        return name.toString();
+    }
+
+    private static String primitiveName(char code) {
+        switch (code) {
+            case 'Z':
+                return "boolean";
+            case 'C':
+                return "char";
+            case 'F':
+                return "float";
+            case 'D':
+                return "double";
+            case 'B':
+                return "byte";
+            case 'S':
+                return "short";
+            case 'I':
+                return "int";
+            case 'J':
+                return "long";
+            default:
+                return String.valueOf(code);
+        }
+    }
+
+    /**
+     * Sorts {@code keys} ascending and applies the same permutation to {@code values}.
+     */
+    static void sort(long[] keys, Object values) {
+        if (isSorted(keys)) return;
+        quickSort(keys, values, 0, keys.length - 1);
+    }
+
+    private static boolean isSorted(long[] keys) {
+        for (int i = 1; i < keys.length; i++) {
+            if (keys[i - 1] > keys[i]) return false;
+        }
+        return true;
+    }
+
+    private static void quickSort(long[] keys, Object values, int low, int high) {
+        while (high - low > 16) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle] < keys[low]) swap(keys, values, middle, low);
+            if (keys[high] < keys[low]) swap(keys, values, high, low);
+            if (keys[high] < keys[middle]) swap(keys, values, high, middle);
+            long pivot = keys[middle];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (keys[i] < pivot) i++;
+                while (keys[j] > pivot) j--;
+                if (i <= j) {
+                    swap(keys, values, i, j);
+                    i++;
+                    j--;
+                }
+            }
+            // recurse into the smaller half to bound the stack depth
+            if (j - low < high - i) {
+                quickSort(keys, values, low, j);
+                low = i;
+            } else {
+                quickSort(keys, values, i, high);
+                high = j;
+            }
+        }
+        for (int i = low + 1; i <= high; i++) {
+            for (int j = i; j > low && keys[j - 1] > keys[j]; j--) {
+                swap(keys, values, j, j - 1);
+            }
+        }
+    }
+
+    private static void swap(long[] keys, Object values, int a, int b) {
+        long key = keys[a];
+        keys[a] = keys[b];
+        keys[b] = key;
+        if (values instanceof long[]) {
+            long[] longs = (long[]) values;
+            long value = longs[a];
+            longs[a] = longs[b];
+            longs[b] = value;
+        } else {
+            Object[] objects = (Object[]) values;
+            Object value = objects[a];
+            objects[a] = objects[b];
+            objects[b] = value;
+        }
+    }
+
+    private static class ParseState {
+        final LongList objectIds = new LongList(1 << 16);
+        final LongList objectOffsets = new LongList(1 << 16);
+        /**
+         * Class id of each object, or minus the element type for primitive arrays, kept only until
+         * the offsets are split per class: class dumps are not guaranteed to precede instances.
+         */
+        LongList objectClasses = new LongList(1 << 16);
+
+        void addObject(long id, long offset, long classId) {
+            objectIds.add(id);
+            objectOffsets.add(offset);
+            objectClasses.add(classId);
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package cn.wanghw.hprof;
+
+import cn.wanghw.FieldPath;
+import cn.wanghw.IHeapHolder;
+import cn.wanghw.utils.LongSet;
+import cn.wanghw.utils.StringDecoder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * {@link IHeapHolder} over {@link HprofHeap}, reading straight from the mapped dump instead of
+ * building the profiler library's on-disk index first.
+ */
+public class HprofHeapHolder implements IHeapHolder {
+    private final FieldPath keyPath = FieldPath.compile("key");
+    private final FieldPath valuePath = FieldPath.compile("value");
+    private final FieldPath sourceTablePath = FieldPath.compile("source.table");
+    HprofHeap _heap;
+    private final StringDecoder<HprofPrimitiveArray> decoder = new StringDecoder<HprofPrimitiveArray>(HprofPrimitiveArray.class) {
+        protected int getLength(HprofPrimitiveArray array) {
+            return array.getLength();
+        }
+
+        protected boolean isByteArray(HprofPrimitiveArray array) {
+            return array.getType() == HprofHeap.BYTE;
+        }
+
+        protected byte[] read(HprofPrimitiveArray array, int start, int length, int elementSize) {
+            return array.getBytes(start, length);
+        }
+
+        protected Object getStaticField(String className, String fieldName) {
+            HprofClass javaClass = _heap.getClassByName(className);
+            return javaClass == null ? null : javaClass.getValueOfStaticField(fieldName);
+        }
+    };
+
+    public HprofHeapHolder(File heapfile) throws IOException {
+        this(new HprofHeap(heapfile));
+    }
+
+    /**
+     * Reuses the index saved by an earlier run on the same dump, see {@link HprofIndexCache}.
+     */
+    public HprofHeapHolder(File heapfile, File cacheDir) throws IOException {
+        this(new HprofIndexCache(heapfile, cacheDir).open());
+    }
+
+    HprofHeapHolder(HprofHeap heap) {
+        _heap = heap;
+    }
+
+    public HprofHeap getHeap() {
+        return _heap;
+    }
+
+    public HprofClass findClass(String var1) {
+        try {
+            long classId;
+            if (var1.startsWith("0x")) {
+                classId = Long.parseLong(var1.substring(2), 16);
+            } else {
+                classId = Long.parseLong(var1);
+            }
+            return _heap.getClassById(classId);
+        } catch (NumberFormatException e) {
+        }
+        return _heap.getClassByName(HprofHeap.toClassName(var1));
+    }
+
+    public Iterator getClasses() {
+        return _heap.getAllClasses().iterator();
+    }
+
+    public boolean isInstanceOf(Object javaClass, String className) {
+        if (javaClass instanceof HprofClass) {
+            HprofClass cls = (HprofClass) javaClass;
+            for (; cls != null; cls = cls.getSuperClass())
+                if (cls.getName().equals(className)) return true;
+        }
+        return false;
+    }
+
+    public boolean isArray(Object javaClass) {
+        if (javaClass instanceof HprofClass) {
+            return ((HprofClass) javaClass).isArray();
+        }
+        return false;
+    }
+
+    public HprofClass[] getSubClasses(Object javaClass) {
+        List<HprofClass> result = new ArrayList<HprofClass>();
+        if (javaClass instanceof HprofClass) {
+            LongSet found = new LongSet();
+            found.add(((HprofClass) javaClass).getJavaClassId());
+            // classes are not ordered by hierarchy, so sweep until no new subclass turns up
+            for (boolean grown = true; grown; ) {
+                grown = false;
+                for (HprofClass cls : _heap.getAllClasses()) {
+                    if (cls.getSuperClass() != null && found.contains(cls.getSuperClass().getJavaClassId()) && found.add(cls.getJavaClassId())) {
+                        result.add(cls);
+                        grown = true;
+                    }
+                }
+            }
+        }
+        return result.toArray(new HprofClass[result.size()]);
+    }
+
+    public List getInstances(Object javaClass) {
+        List<HprofObject> result = new ArrayList<HprofObject>();
+        if (javaClass instanceof HprofClass) {
+            for (long offset : ((HprofClass) javaClass).instanceOffsets) {
+                result.add(_heap.createObject(offset));
+            }
+        }
+        return result;
+    }
+
+    public Iterator getInstancesIterator(Object javaClass) {
+        long[] offsets = getInstanceOffsets(javaClass);
+        return iterator(offsets, 0, offsets.length);
+    }
+
+    /**
+     * The offsets are in dump order already, so each run is a slice of them.
+     */
+    public List<Iterator> getInstancePartitions(Object javaClass, int parts, int minSize) {
+        long[] offsets = getInstanceOffsets(javaClass);
+        int count = Math.max(1, Math.min(parts, offsets.length / minSize));
+        List<Iterator> result = new ArrayList<Iterator>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(iterator(offsets, (int) ((long) offsets.length * i / count), (int) ((long) offsets.length * (i + 1) / count)));
+        }
+        return result;
+    }
+
+    private static long[] getInstanceOffsets(Object javaClass) {
+        return javaClass instanceof HprofClass ? ((HprofClass) javaClass).instanceOffsets : new long[0];
+    }
+
+    private Iterator iterator(final long[] offsets, final int from, final int to) {
+        return new Iterator() {
+            private int index = from;
+
+            public boolean hasNext() {
+                return index < to;
+            }
+
+            public Object next() {
+                if (index >= to) throw new NoSuchElementException();
+                return _heap.createObject(offsets[index++]);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    public List getFields(Object javaClass) {
+        if (javaClass instanceof HprofClass) {
+            return ((HprofClass) javaClass).getFields();
+        }
+        return new ArrayList();
+    }
+
+    public List getAllFields(Object javaClass) {
+        if (javaClass instanceof HprofClass) {
+            return ((HprofClass) javaClass).getAllFields();
+        }
+        return new ArrayList();
+    }
+
+    public String getClassName(Object javaClass) {
+        if (javaClass instanceof HprofClass) {
+            return ((HprofClass) javaClass).getName();
+        }
+        return null;
+    }
+
+    public Object getSuperClass(Object javaClass) {
+        if (javaClass instanceof HprofClass) {
+            return ((HprofClass) javaClass).getSuperClass();
+        }
+        return null;
+    }
+
+    public String getFieldName(Object field) {
+        if (field instanceof HprofField) {
+            return ((HprofField) field).getName();
+        }
+        return null;
+    }
+
+    public Object getFieldClass(Object field) {
+        if (field instanceof HprofField) {
+            return ((HprofField) field).getDeclaringClass();
+        }
+        return null;
+    }
+
+    public Object findThing(long objectId) {
+        return _heap.findObject(objectId);
+    }
+
+    public long getObjectId(Object instance) {
+        if (instance instanceof HprofObject) {
+            return ((HprofObject) instance).getInstanceId();
+        } else if (instance instanceof HprofClass) {
+            return ((HprofClass) instance).getJavaClassId();
+        }
+        return 0;
+    }
+
+    public Object getValueOfField(Object instance, String fieldName) {
+        if (instance instanceof HprofObject) {
+            return ((HprofObject) instance).getValueOfField(fieldName);
+        }
+        return null;
+    }
+
+    public HashMap<String, String> getFieldsByNameList(Object instance, HashMap<String, String> fieldList) {
+        return getFieldsByPaths(instance, FieldPath.compile(fieldList));
+    }
+
+    public HashMap<String, String> getFieldsByPaths(Object instance, Map<String, FieldPath> paths) {
+        HashMap<String, String> result = new HashMap<String, String>();
+        for (Map.Entry<String, FieldPath> path : paths.entrySet()) {
+            result.put(path.getKey(), getFieldStringValue(instance, path.getValue()));
+        }
+        return result;
+    }
+
+    public HashMap<String, String> arrayDump(Object instance) {
+        HashMap<String, String> result = new HashMap<String, String>();
+        if (instance instanceof HprofObjectArray) {
+            for (Object _entry : ((HprofObjectArray) instance).getValues()) {
+                if (_entry == null) continue;
+                result.put(getFieldStringValue(_entry, keyPath), getFieldStringValue(_entry, valuePath));
+            }
+        }
+        return result;
+    }
+
+    public Object[] getArrayItems(Object instance) {
+        if (instance instanceof HprofObjectArray) {
+            return ((HprofObjectArray) instance).getValues().toArray();
+        }
+        return new Object[0];
+    }
+
+    public String getFieldStringValue(Object instance, String fieldName) {
+        return getFieldStringValue(instance, FieldPath.compile(fieldName));
+    }
+
+    public String getFieldStringValue(Object instance, FieldPath path) {
+        Object val = getFieldValue(instance, path);
+        if (val instanceof HprofObject) {
+            return toString(val);
+        } else if (val != null) {
+            return String.valueOf(val);
+        }
+        return null;
+    }
+
+    public Object getFieldValue(Object instance, String fieldName) {
+        return getFieldValue(instance, FieldPath.compile(fieldName));
+    }
+
+    public Object getFieldValue(Object instance, FieldPath path) {
+        Object value = instance;
+        for (int hop = 0; hop < path.length() && value != null; hop++) {
+            value = readField(value, path, hop);
+        }
+        if (value == null) {
+            return null;
+        } else if (path.endsWithId()) {
+            long id = getObjectId(value);
+            return id == 0 ? null : Long.valueOf(id);
+        } else if (value instanceof Integer) {
+            return String.valueOf(value);
+        }
+        return value;
+    }
+
+    private Object readField(Object value, FieldPath path, int hop) {
+        if (!(value instanceof HprofInstance)) return null;
+        HprofInstance instance = (HprofInstance) value;
+        HprofClass clazz = instance.getJavaClass();
+        if (clazz == null) return null;
+        Object index = path.getResolved(hop, clazz);
+        if (index == null) {
+            index = clazz.getFieldIndex(path.getName(hop));
+            path.setResolved(hop, clazz, index);
+        }
+        int i = (Integer) index;
+        return i < 0 ? null : instance.getValue(clazz, i);
+    }
+
+    public Object getReference(Object instance, FieldPath path) {
+        if (path.endsWithId()) return null;
+        Object value = getFieldValue(instance, path);
+        return value instanceof HprofObject || value instanceof HprofClass ? value : null;
+    }
+
+    static final List<String> mapClassList = Arrays.asList(
+            "java.util.HashMap",
+            "java.util.Properties",
+            "java.util.LinkedHashMap",
+            "java.util.Collections$UnmodifiableMap"
+    );
+
+    public boolean isMap(Object _instance) {
+        if (_instance != null) {
+            HprofObject instance = (HprofObject) _instance;
+            return mapClassList.contains(instance.getJavaClass().getName());
+        } else return false;
+    }
+
+    public HprofObject getMap(Object _instance) {
+        if (_instance != null) {
+            HprofObject instance = (HprofObject) _instance;
+            Object table = instance.getValueOfField("table");
+            if (table == null)
+                table = getFieldValue(instance, sourceTablePath);
+            if (table != null) {
+                return (HprofObject) table;
+            } else {
+                Object m1 = instance.getValueOfField("m");
+                if (m1 != null) {
+                    Object m2 = ((HprofObject) m1).getValueOfField("m");
+                    if (m2 != null) {
+                        return (HprofObject) ((HprofObject) m2).getValueOfField("table");
+                    } else {
+                        return (HprofObject) ((HprofObject) m1).getValueOfField("table");
+                    }
+                } else {
+                    return null;
+                }
+            }
+        } else return null;
+    }
+
+    public String toString(Object _instance) {
+        HprofObject instance = (HprofObject) _instance;
+        String instanceClassName = instance.getJavaClass().getName();
+        if (instanceClassName.equals("java.lang.String")) {
+            return decoder.decodeString(instance.getValueOfField("value"), instance.getValueOfField("coder"),
+                    instance.getValueOfField("offset"), instance.getValueOfField("count"));
+        } else if (instanceClassName.equals("char[]")) {
+            return decoder.decodeCharArray((HprofPrimitiveArray) instance);
+        } else {
+            Object val = instance.getValueOfField("value");
+            if (val instanceof HprofObject) {
+                return toString(val);
+            }
+        }
+        return null;
+    }
+
+    public byte[] toByteArray(Object _instance) {
+        if (_instance instanceof HprofPrimitiveArray) {
+            HprofPrimitiveArray arrayDump = (HprofPrimitiveArray) _instance;
+            if (arrayDump.getType() == HprofHeap.BYTE) {
+                return arrayDump.getBytes(0, arrayDump.getLength());
+            }
+        }
+        return null;
+    }
+
+    public synchronized void close() {
+        if (_heap != null) {
+            _heap.getBuffer().close();
+            _heap = null;
+        }
+    }
+}
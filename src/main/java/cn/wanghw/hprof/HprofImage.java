@@ -0,0 +1,147 @@
+package cn.wanghw.hprof;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static cn.wanghw.hprof.HprofBuffer.*;
+
+/**
+ * An HPROF file assembled in memory from records copied out of a real dump. Bytes are kept in
+ * chunks laid out like {@link HprofBuffer}'s segments, each one repeating the start of the next,
+ * so the image can be indexed by {@link HprofHeap} without being written anywhere.
+ */
+class HprofImage {
+    private final List<byte[]> chunks = new ArrayList<byte[]>();
+    private long size;
+    private long segmentStart = -1;
+
+    HprofImage(String version, int idSize, long timestamp) {
+        for (int i = 0; i < version.length(); i++) {
+            write(version.charAt(i));
+        }
+        write(0);
+        writeInt(idSize);
+        writeLong(timestamp);
+    }
+
+    long size() {
+        return size;
+    }
+
+    void write(int b) {
+        put(size++, (byte) b);
+    }
+
+    void writeInt(int v) {
+        write(v >>> 24);
+        write(v >>> 16);
+        write(v >>> 8);
+        write(v);
+    }
+
+    void writeLong(long v) {
+        writeInt((int) (v >>> 32));
+        writeInt((int) v);
+    }
+
+    void write(byte[] b, int off, int len) {
+        while (len > 0) {
+            int chunk = (int) (size >>> SEGMENT_BITS);
+            int pos = (int) (size & SEGMENT_MASK);
+            int n = (int) Math.min(len, SEGMENT_SIZE - pos);
+            System.arraycopy(b, off, chunk(chunk, pos + n), pos, n);
+            if (chunk > 0 && pos < SEGMENT_EXT) {
+                System.arraycopy(b, off, chunks.get(chunk - 1), (int) SEGMENT_SIZE + pos, Math.min(n, SEGMENT_EXT - pos));
+            }
+            size += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Appends {@code length} bytes read from {@code in}.
+     */
+    void copy(DataInputStream in, long length, byte[] scratch) throws IOException {
+        while (length > 0) {
+            int n = (int) Math.min(length, scratch.length);
+            in.readFully(scratch, 0, n);
+            write(scratch, 0, n);
+            length -= n;
+        }
+    }
+
+    /**
+     * Makes room for a heap dump sub-record of {@code length} bytes, opening a new segment record
+     * when none is open or the open one would outgrow its 32 bit length.
+     */
+    void beginSubRecord(long length) {
+        if (segmentStart < 0 || size + length - segmentStart > 0xFFFFFFF0L) {
+            endHeapDumpSegment();
+            segmentStart = size;
+            write(HprofHeap.HEAP_DUMP_SEGMENT);
+            writeInt(0);
+            writeInt(0);
+        }
+    }
+
+    /**
+     * Closes the open segment record, if any; must be called before writing a top-level record.
+     */
+    void endHeapDumpSegment() {
+        if (segmentStart < 0) return;
+        long length = size - segmentStart - 9;
+        for (int i = 0; i < 4; i++) {
+            put(segmentStart + 5 + i, (byte) (length >>> (24 - 8 * i)));
+        }
+        segmentStart = -1;
+    }
+
+    /**
+     * @return a buffer over the bytes written so far; later writes may or may not show through
+     */
+    HprofBuffer toBuffer() throws IOException {
+        ByteBuffer[] segments = new ByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+        for (int i = 0; i < segments.length; i++) {
+            long limit = Math.min(SEGMENT_SIZE + SEGMENT_EXT, size - i * SEGMENT_SIZE);
+            segments[i] = ByteBuffer.wrap(chunks.get(i), 0, (int) limit);
+        }
+        return new HprofBuffer(segments, "in-memory image");
+    }
+
+    private void put(long index, byte b) {
+        int chunk = (int) (index >>> SEGMENT_BITS);
+        int pos = (int) (index & SEGMENT_MASK);
+        chunk(chunk, pos + 1)[pos] = b;
+        if (chunk > 0 && pos < SEGMENT_EXT) {
+            chunks.get(chunk - 1)[(int) SEGMENT_SIZE + pos] = b;
+        }
+    }
+
+    private byte[] chunk(int index, int capacity) {
+        while (chunks.size() <= index) {
+            if (!chunks.isEmpty()) {
+                grow(chunks.size() - 1, (int) SEGMENT_SIZE + SEGMENT_EXT);
+            }
+            chunks.add(new byte[0]);
+        }
+        byte[] chunk = chunks.get(index);
+        if (chunk.length < capacity) {
+            long grown = Math.max(Math.max(capacity, 1 << 16), (long) chunk.length * 2);
+            chunk = grow(index, (int) Math.min(grown, SEGMENT_SIZE + SEGMENT_EXT));
+        }
+        return chunk;
+    }
+
+    private byte[] grow(int index, int capacity) {
+        byte[] chunk = chunks.get(index);
+        if (chunk.length >= capacity) return chunk;
+        byte[] grown = new byte[capacity];
+        System.arraycopy(chunk, 0, grown, 0, chunk.length);
+        chunks.set(index, grown);
+        return grown;
+    }
+}
@@ -0,0 +1,104 @@
+package cn.wanghw.hprof;
+
+import cn.wanghw.utils.DumpFingerprint;
+
+import java.io.*;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Saves the {@link HprofHeap} index of a dump and loads it back on later runs, as long as the
+ * dump still has the same {@link DumpFingerprint}. The index goes next to the dump as
+ * {@code <dump>.jdsidx}, or into the temp directory if the dump's directory is read-only. A
+ * checksum over the index catches a corrupt file, which is then parsed again and replaced.
+ */
+public class HprofIndexCache {
+    private static final String MAGIC = "JDumpSpider index";
+    private static final int VERSION = 2;
+
+    private final File dump;
+    private final File file;
+
+    /**
+     * @param cacheDir where to keep the index, or null for the default location
+     */
+    public HprofIndexCache(File dump, File cacheDir) {
+        this.dump = dump;
+        String name = dump.getName() + ".jdsidx";
+        if (cacheDir == null) {
+            File parent = dump.getAbsoluteFile().getParentFile();
+            cacheDir = parent != null && parent.canWrite() ? parent : new File(System.getProperty("java.io.tmpdir"));
+        }
+        file = new File(cacheDir, name);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the cached index if it is still valid, otherwise a freshly parsed one, which is then
+     * saved for next time
+     */
+    public HprofHeap open() throws IOException {
+        DumpFingerprint fingerprint = DumpFingerprint.of(dump);
+        HprofBuffer buffer = new HprofBuffer(dump);
+        if (file.isFile()) {
+            try {
+                HprofHeap heap = load(buffer, fingerprint);
+                if (heap != null) return heap;
+            } catch (IOException ex) {
+                System.out.println("[-] Ignoring index cache " + file + ": " + ex);
+            } catch (RuntimeException ex) {
+                // a corrupt index that got past the checks, parsed again and overwritten below
+                System.out.println("[-] Ignoring index cache " + file + ": " + ex);
+            }
+        }
+        HprofHeap heap = new HprofHeap(buffer);
+        try {
+            save(heap, fingerprint);
+        } catch (IOException ex) {
+            System.out.println("[-] Could not save index cache " + file + ": " + ex);
+        }
+        return heap;
+    }
+
+    private HprofHeap load(HprofBuffer buffer, DumpFingerprint fingerprint) throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+        try {
+            if (!MAGIC.equals(dis.readUTF()) || dis.readInt() != VERSION) return null;
+            if (!fingerprint.equals(DumpFingerprint.read(dis))) return null;
+            CheckedInputStream body = new CheckedInputStream(dis, new CRC32());
+            HprofHeap heap = new HprofHeap(buffer, new DataInputStream(body));
+            if (dis.readLong() != body.getChecksum().getValue()) {
+                throw new IOException("checksum mismatch");
+            }
+            return heap;
+        } finally {
+            dis.close();
+        }
+    }
+
+    /**
+     * Writes to a temporary file first, so a run that dies half way never leaves a truncated index.
+     */
+    private void save(HprofHeap heap, DumpFingerprint fingerprint) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 65536));
+        try {
+            out.writeUTF(MAGIC);
+            out.writeInt(VERSION);
+            fingerprint.write(out);
+            CheckedOutputStream body = new CheckedOutputStream(out, new CRC32());
+            heap.writeToStream(new DataOutputStream(body));
+            out.writeLong(body.getChecksum().getValue());
+        } finally {
+            out.close();
+        }
+        if (!(file.delete() || !file.exists()) || !temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("cannot replace " + file);
+        }
+    }
+}
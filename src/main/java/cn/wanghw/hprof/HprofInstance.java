@@ -0,0 +1,35 @@
+package cn.wanghw.hprof;
+
+public class HprofInstance extends HprofObject {
+
+    HprofInstance(HprofHeap heap, long offset) {
+        super(heap, offset);
+    }
+
+    public HprofClass getJavaClass() {
+        return heap.getClassById(heap.buffer.getID(offset + 1 + heap.idSize + 4));
+    }
+
+    /**
+     * @return the field value boxed like the other heap libraries do, an {@link HprofObject} or
+     * {@link HprofClass} for references, or null if the class has no such field
+     */
+    public Object getValueOfField(String name) {
+        HprofClass clazz = getJavaClass();
+        if (clazz == null) return null;
+        int index = clazz.getFieldIndex(name);
+        if (index < 0) return null;
+        return getValue(clazz, index);
+    }
+
+    /**
+     * @param index a field index returned by {@link HprofClass#getFieldIndex} of this instance's class
+     */
+    Object getValue(HprofClass clazz, int index) {
+        return heap.readValue(offset + valuesOffset(heap) + clazz.valueOffsets[index], clazz.allFields[index].type);
+    }
+
+    static int valuesOffset(HprofHeap heap) {
+        return 1 + heap.idSize + 4 + heap.idSize + 4;
+    }
+}
@@ -0,0 +1,43 @@
+package cn.wanghw.hprof;
+
+/**
+ * An object record in the dump, identified by the file offset of its heap dump sub-record.
+ */
+public abstract class HprofObject {
+    final HprofHeap heap;
+    final long offset;
+
+    HprofObject(HprofHeap heap, long offset) {
+        this.heap = heap;
+        this.offset = offset;
+    }
+
+    public long getInstanceId() {
+        return heap.buffer.getID(offset + 1);
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public abstract HprofClass getJavaClass();
+
+    /**
+     * @return the value of the named instance field, always null for arrays
+     */
+    public Object getValueOfField(String name) {
+        return null;
+    }
+
+    public boolean equals(Object obj) {
+        return obj instanceof HprofObject && ((HprofObject) obj).offset == offset && ((HprofObject) obj).heap == heap;
+    }
+
+    public int hashCode() {
+        return (int) (offset ^ (offset >>> 32));
+    }
+
+    public String toString() {
+        return getJavaClass().getName() + "#" + getInstanceId();
+    }
+}
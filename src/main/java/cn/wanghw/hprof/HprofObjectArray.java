@@ -0,0 +1,32 @@
+package cn.wanghw.hprof;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class HprofObjectArray extends HprofObject {
+
+    HprofObjectArray(HprofHeap heap, long offset) {
+        super(heap, offset);
+    }
+
+    public HprofClass getJavaClass() {
+        return heap.getClassById(heap.buffer.getID(offset + 1 + heap.idSize + 4 + 4));
+    }
+
+    public int getLength() {
+        return heap.buffer.getInt(offset + 1 + heap.idSize + 4);
+    }
+
+    /**
+     * @return the elements in order, with null for null references
+     */
+    public List<Object> getValues() {
+        int length = getLength();
+        long start = offset + 1 + heap.idSize + 4 + 4 + heap.idSize;
+        List<Object> values = new ArrayList<Object>(length);
+        for (int i = 0; i < length; i++) {
+            values.add(heap.findObject(heap.buffer.getID(start + (long) i * heap.idSize)));
+        }
+        return values;
+    }
+}
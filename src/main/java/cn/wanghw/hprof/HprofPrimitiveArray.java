@@ -0,0 +1,30 @@
+package cn.wanghw.hprof;
+
+public class HprofPrimitiveArray extends HprofObject {
+
+    HprofPrimitiveArray(HprofHeap heap, long offset) {
+        super(heap, offset);
+    }
+
+    public HprofClass getJavaClass() {
+        return heap.getPrimitiveArrayClass(getType());
+    }
+
+    public int getLength() {
+        return heap.buffer.getInt(offset + 1 + heap.idSize + 4);
+    }
+
+    public byte getType() {
+        return heap.buffer.get(offset + 1 + heap.idSize + 4 + 4);
+    }
+
+    /**
+     * Copies {@code length} elements starting at element {@code start} as raw big-endian bytes.
+     */
+    public byte[] getBytes(int start, int length) {
+        int elementSize = heap.getValueSize(getType());
+        byte[] bytes = new byte[length * elementSize];
+        heap.buffer.get(offset + 1 + heap.idSize + 4 + 4 + 1 + (long) start * elementSize, bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,511 @@
+package cn.wanghw.hprof;
+
+import cn.wanghw.Deadline;
+import cn.wanghw.utils.LongIntMap;
+import cn.wanghw.utils.LongSet;
+import cn.wanghw.utils.StringDecoder;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+
+import static cn.wanghw.hprof.HprofHeap.*;
+
+/**
+ * Reads a dump front to back once, with plain sequential I/O. Nothing is memory mapped or written
+ * to disk.
+ * <p>
+ * The names, class table and class dumps are copied into an {@link HprofImage}. When the first
+ * object comes up they are indexed and handed to {@link #layoutRead}, which fills in the objects
+ * and classes wanted; from then on only the objects with a wanted id or of a wanted class are
+ * copied, until the image reaches its size limit. A copied object pulls in the objects it
+ * references, up to {@link #SPECULATION} hops: those still in a {@link RecordWindow} of the last
+ * records read, and those later in the file when they come up. Objects usually sit close to what
+ * they point at, so this answers most follow-up field reads.
+ * <p>
+ * Strings can also be decoded on the way, without copying anything, when their value array is in
+ * the window or comes up later.
+ */
+abstract class HprofStreamReader {
+    static final int SPECULATION = 5;
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final long MAX_RECORD_SIZE = Integer.MAX_VALUE - 16;
+
+    private final File file;
+    private final LongIntMap wanted;
+    private final LongSet wantedClasses;
+    private final boolean strings;
+    private final long limit;
+    private final RecordWindow window;
+    private final byte[] scratch = new byte[64 * 1024];
+    private int idSize;
+    private DataInputStream in;
+    private HprofImage image;
+    private HprofHeap heap;
+    private long stringClassId;
+    private StringLayout stringLayout;
+    private final Map<Long, PendingString> pendingStrings = new HashMap<Long, PendingString>();
+    private boolean full;
+    private int captured;
+    private int stringsRead;
+
+    private final StringDecoder<RawArray> decoder = new StringDecoder<RawArray>(RawArray.class) {
+        protected int getLength(RawArray array) {
+            return (array.record.length - array.start) / array.elementSize;
+        }
+
+        protected boolean isByteArray(RawArray array) {
+            return array.type == BYTE;
+        }
+
+        protected byte[] read(RawArray array, int start, int length, int elementSize) {
+            byte[] bytes = new byte[length * elementSize];
+            System.arraycopy(array.record, array.start + start * elementSize, bytes, 0, bytes.length);
+            return bytes;
+        }
+
+        protected Object getStaticField(String className, String fieldName) {
+            HprofClass javaClass = heap.getClassByName(className);
+            return javaClass == null ? null : javaClass.getValueOfStaticField(fieldName);
+        }
+    };
+
+    /**
+     * @param wanted        the ids of the objects to copy, mapped to the number of references to
+     *                      follow from each; filled in by {@link #layoutRead}
+     * @param wantedClasses the classes whose instances to copy; filled in by {@link #layoutRead}
+     * @param strings       whether to decode Strings and hand them to {@link #visitString}
+     * @param limit         the image size after which nothing more is copied
+     * @param windowSize    the bytes of records to keep around for references back to them
+     */
+    HprofStreamReader(File file, LongIntMap wanted, LongSet wantedClasses, boolean strings, long limit, int windowSize) {
+        this.file = file;
+        this.wanted = wanted;
+        this.wantedClasses = wantedClasses;
+        this.strings = strings;
+        this.limit = limit;
+        window = new RecordWindow(windowSize);
+    }
+
+    /**
+     * Called once the records before the first object are in {@code image}.
+     *
+     * @return an index of the image, used to look up classes while reading the objects
+     */
+    protected abstract HprofHeap layoutRead(HprofImage image) throws IOException;
+
+    protected abstract void visitString(long id, String text);
+
+    /**
+     * @return what was read; if the read stops half way, what it reached is in {@link #getImage}
+     */
+    HprofImage read(Deadline deadline) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        try {
+            String version = readHeader();
+            image = new HprofImage(version, idSize, in.readLong());
+            readRecords(deadline);
+            if (heap == null) seal();
+        } finally {
+            in.close();
+            in = null;
+            if (image != null) image.endHeapDumpSegment();
+        }
+        return image;
+    }
+
+    HprofImage getImage() {
+        return image;
+    }
+
+    int getCaptured() {
+        return captured;
+    }
+
+    int getStringsRead() {
+        return stringsRead;
+    }
+
+    /**
+     * @return how many Strings were not handed on, their value arrays having come too far before them
+     */
+    int getStringsMissed() {
+        int missed = 0;
+        for (PendingString pending : pendingStrings.values()) {
+            for (; pending != null; pending = pending.next) {
+                missed++;
+            }
+        }
+        return missed;
+    }
+
+    /**
+     * @return whether copying stopped at the size limit
+     */
+    boolean isFull() {
+        return full;
+    }
+
+    private String readHeader() throws IOException {
+        StringBuilder magic = new StringBuilder();
+        for (int b; (b = in.read()) > 0; ) {
+            magic.append((char) b);
+        }
+        if (!magic.toString().startsWith("JAVA PROFILE 1.0.")) {
+            throw new IOException("Not a HPROF file: " + file);
+        }
+        idSize = in.readInt();
+        if (idSize != 4 && idSize != 8) {
+            throw new IOException("Unsupported identifier size " + idSize + " in " + file);
+        }
+        return magic.toString();
+    }
+
+    private void readRecords(Deadline deadline) throws IOException {
+        for (int tag; (tag = in.read()) >= 0; ) {
+            int time = in.readInt();
+            long length = in.readInt() & 0xFFFFFFFFL;
+            if (tag == HEAP_DUMP || tag == HEAP_DUMP_SEGMENT) {
+                // a zero length heap dump record runs to the end of the file
+                readHeapDump(length == 0 ? Long.MAX_VALUE : length, deadline);
+            } else if (tag == UTF8 || tag == LOAD_CLASS) {
+                image.endHeapDumpSegment();
+                image.write(tag);
+                image.writeInt(time);
+                image.writeInt((int) length);
+                image.copy(in, length, scratch);
+            } else {
+                skip(length);
+            }
+        }
+    }
+
+    private void readHeapDump(long length, Deadline deadline) throws IOException {
+        long end = length;
+        long pos = 0;
+        while (pos < end) {
+            int tag = in.read();
+            if (tag < 0) {
+                if (end == Long.MAX_VALUE) return;
+                throw new EOFException();
+            }
+            pos++;
+            int size = rootRecordSize(tag, idSize);
+            if (size >= 0) {
+                skip(size);
+                pos += size;
+                continue;
+            }
+            if (tag != CLASS_DUMP) {
+                deadline.check();
+                if (heap == null) seal();
+            }
+            switch (tag) {
+                case CLASS_DUMP:
+                    pos += readClassDump();
+                    break;
+                case INSTANCE_DUMP:
+                    pos += readInstance();
+                    break;
+                case OBJECT_ARRAY_DUMP:
+                    pos += readObjectArray();
+                    break;
+                case PRIMITIVE_ARRAY_DUMP:
+                    pos += readPrimitiveArray();
+                    break;
+                default:
+                    throw new IOException("Unknown heap dump sub-record tag 0x" + Integer.toHexString(tag) + " in " + file);
+            }
+        }
+    }
+
+    private void seal() throws IOException {
+        image.endHeapDumpSegment();
+        heap = layoutRead(image);
+        HprofClass stringClass = heap.getClassByName("java.lang.String");
+        stringClassId = stringClass == null ? 0 : stringClass.getJavaClassId();
+        if (strings && stringClass != null) {
+            stringLayout = new StringLayout(stringClass);
+        }
+    }
+
+    /**
+     * Class dumps are always copied, though the ones after the first object come too late to be
+     * asked for by {@link #layoutRead}.
+     */
+    private long readClassDump() throws IOException {
+        ClassDumpCopy copy = new ClassDumpCopy();
+        copy.read(7 * idSize + 8);
+        int constantPoolSize = copy.readShort();
+        for (int i = 0; i < constantPoolSize; i++) {
+            copy.read(2);
+            copy.read(valueSize(copy.readType(), idSize));
+        }
+        int staticCount = copy.readShort();
+        for (int i = 0; i < staticCount; i++) {
+            copy.read(idSize);
+            copy.read(valueSize(copy.readType(), idSize));
+        }
+        int fieldCount = copy.readShort();
+        copy.read(fieldCount * (idSize + 1));
+        copy.flush();
+        return copy.length;
+    }
+
+    private long readInstance() throws IOException {
+        int headerSize = idSize + 4 + idSize + 4;
+        byte[] header = readBytes(headerSize);
+        long length = getInt(header, idSize + 4 + idSize) & 0xFFFFFFFFL;
+        readObject(INSTANCE_DUMP, header, length, getID(header, idSize + 4));
+        return headerSize + length;
+    }
+
+    private long readObjectArray() throws IOException {
+        int headerSize = idSize + 4 + 4 + idSize;
+        byte[] header = readBytes(headerSize);
+        long length = (getInt(header, idSize + 4) & 0xFFFFFFFFL) * idSize;
+        readObject(OBJECT_ARRAY_DUMP, header, length, getID(header, idSize + 4 + 4));
+        return headerSize + length;
+    }
+
+    private long readPrimitiveArray() throws IOException {
+        int headerSize = idSize + 4 + 4 + 1;
+        byte[] header = readBytes(headerSize);
+        long length = (getInt(header, idSize + 4) & 0xFFFFFFFFL) * valueSize(header[headerSize - 1], idSize);
+        readObject(PRIMITIVE_ARRAY_DUMP, header, length, 0);
+        return headerSize + length;
+    }
+
+    /**
+     * Reads the body of an object record, then keeps the record, hands on the Strings it makes up,
+     * or leaves it in the window in case an object kept later points back at it.
+     */
+    private void readObject(int tag, byte[] header, long length, long classId) throws IOException {
+        long id = getID(header, 0);
+        int budget = budget(id, classId);
+        boolean string = stringLayout != null && tag == INSTANCE_DUMP && classId == stringClassId;
+        PendingString pending = tag == PRIMITIVE_ARRAY_DUMP && !pendingStrings.isEmpty() ? pendingStrings.remove(id) : null;
+        long size = 1 + header.length + length;
+        if (size > MAX_RECORD_SIZE || budget < 0 && !string && pending == null && !window.accepts(size)) {
+            skip(length);
+            return;
+        }
+        byte[] record = new byte[(int) size];
+        record[0] = (byte) tag;
+        System.arraycopy(header, 0, record, 1, header.length);
+        in.readFully(record, 1 + header.length, (int) length);
+        if (string) {
+            stringLayout.read(id, record);
+        }
+        if (pending != null) {
+            RawArray array = new RawArray(record);
+            for (; pending != null; pending = pending.next) {
+                visitString(pending.id, decoder.decodeString(array, pending.coder, pending.offset, pending.count));
+                stringsRead++;
+            }
+        }
+        if (budget >= 0) {
+            keep(record, budget);
+        } else {
+            window.add(id, record);
+        }
+    }
+
+    /**
+     * Copies a record into the image and follows its references, {@code budget} hops deep.
+     */
+    private void keep(byte[] record, int budget) {
+        image.beginSubRecord(record.length);
+        image.write(record, 0, record.length);
+        captured++;
+        if (record[0] == INSTANCE_DUMP) {
+            long classId = getID(record, 1 + idSize + 4);
+            int childBudget = classId == stringClassId ? Math.max(budget - 1, 0) : budget - 1;
+            HprofClass clazz = heap.getClassById(classId);
+            if (childBudget >= 0 && clazz != null) {
+                int values = 1 + idSize + 4 + idSize + 4;
+                for (int offset : clazz.getReferenceOffsets()) {
+                    if (values + offset + idSize <= record.length) {
+                        follow(getID(record, values + offset), childBudget);
+                    }
+                }
+            }
+        } else if (record[0] == OBJECT_ARRAY_DUMP && budget > 0) {
+            for (int i = 1 + idSize + 4 + 4 + idSize; i + idSize <= record.length; i += idSize) {
+                follow(getID(record, i), budget - 1);
+            }
+        }
+    }
+
+    /**
+     * Keeps the object now if it is still in the window, or when it comes up.
+     */
+    private void follow(long id, int budget) {
+        if (id == 0 || reachedLimit()) return;
+        byte[] record = window.remove(id);
+        if (record != null) {
+            keep(record, budget);
+        } else if (wanted.get(id, Integer.MIN_VALUE) < budget) {
+            wanted.put(id, budget);
+        }
+    }
+
+    /**
+     * @return how many references to follow from the object, or -1 to skip it
+     */
+    private int budget(long id, long classId) {
+        int budget = wanted.remove(id, -1);
+        int result = wantedClasses.contains(classId) ? SPECULATION : budget;
+        return result >= 0 && reachedLimit() ? -1 : result;
+    }
+
+    private boolean reachedLimit() {
+        if (!full && image.size() > limit) {
+            full = true;
+        }
+        return full;
+    }
+
+    private byte[] readBytes(int size) throws IOException {
+        byte[] bytes = new byte[size];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private void skip(long length) throws IOException {
+        while (length > 0) {
+            long n = in.skip(length);
+            if (n <= 0) {
+                if (in.read() < 0) throw new EOFException();
+                n = 1;
+            }
+            length -= n;
+        }
+    }
+
+    private long getID(byte[] bytes, int offset) {
+        if (idSize == 4) return getInt(bytes, offset) & 0xFFFFFFFFL;
+        return ((long) getInt(bytes, offset) << 32) | (getInt(bytes, offset + 4) & 0xFFFFFFFFL);
+    }
+
+    private static int getInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16
+                | (bytes[offset + 2] & 0xFF) << 8 | (bytes[offset + 3] & 0xFF);
+    }
+
+    /**
+     * Where the fields a String is decoded from sit in its instance record, any of which may be
+     * missing in dumps of other VMs.
+     */
+    private class StringLayout {
+        private final int value;
+        private final int coder;
+        private final int offset;
+        private final int count;
+        private final HprofClass stringClass;
+
+        StringLayout(HprofClass stringClass) {
+            this.stringClass = stringClass;
+            value = indexOf("value", OBJECT);
+            coder = indexOf("coder", BYTE);
+            offset = indexOf("offset", INT);
+            count = indexOf("count", INT);
+        }
+
+        private int indexOf(String fieldName, byte type) {
+            int index = stringClass.getFieldIndex(fieldName);
+            return index >= 0 && stringClass.allFields[index].type == type ? index : -1;
+        }
+
+        /**
+         * Hands the String on now if its value is in the window, or when the value comes up.
+         */
+        void read(long id, byte[] record) {
+            int values = 1 + idSize + 4 + idSize + 4;
+            if (value < 0 || values + stringClass.valueOffsets[value] + idSize > record.length) return;
+            long valueId = getID(record, values + stringClass.valueOffsets[value]);
+            if (valueId == 0) return;
+            PendingString pending = new PendingString(id,
+                    coder < 0 ? null : Byte.valueOf(record[values + stringClass.valueOffsets[coder]]),
+                    offset < 0 ? null : Integer.valueOf(getInt(record, values + stringClass.valueOffsets[offset])),
+                    count < 0 ? null : Integer.valueOf(getInt(record, values + stringClass.valueOffsets[count])));
+            byte[] array = window.get(valueId);
+            if (array != null && array[0] == PRIMITIVE_ARRAY_DUMP) {
+                visitString(id, decoder.decodeString(new RawArray(array), pending.coder, pending.offset, pending.count));
+                stringsRead++;
+            } else {
+                // Strings may share a value array
+                pending.next = pendingStrings.put(valueId, pending);
+            }
+        }
+    }
+
+    private static class PendingString {
+        final long id;
+        final Byte coder;
+        final Integer offset;
+        final Integer count;
+        PendingString next;
+
+        PendingString(long id, Byte coder, Integer offset, Integer count) {
+            this.id = id;
+            this.coder = coder;
+            this.offset = offset;
+            this.count = count;
+        }
+    }
+
+    /**
+     * A primitive array record read off the stream, its elements big-endian as in the file.
+     */
+    private class RawArray {
+        final byte[] record;
+        final byte type;
+        final int start;
+        final int elementSize;
+
+        RawArray(byte[] record) {
+            this.record = record;
+            type = record[idSize + 4 + 4 + 1];
+            start = 1 + idSize + 4 + 4 + 1;
+            elementSize = valueSize(type, idSize);
+        }
+    }
+
+    /**
+     * Reads a class dump piece by piece, its length is only known once the last field is read,
+     * then copies it into the image.
+     */
+    private class ClassDumpCopy {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final byte[] last = new byte[8];
+        long length;
+
+        void read(int n) throws IOException {
+            while (n > 0) {
+                int chunk = Math.min(n, scratch.length);
+                in.readFully(scratch, 0, chunk);
+                bytes.write(scratch, 0, chunk);
+                System.arraycopy(scratch, Math.max(chunk - last.length, 0), last, 0, Math.min(chunk, last.length));
+                length += chunk;
+                n -= chunk;
+            }
+        }
+
+        int readShort() throws IOException {
+            read(2);
+            return (last[0] & 0xFF) << 8 | (last[1] & 0xFF);
+        }
+
+        byte readType() throws IOException {
+            read(1);
+            return last[0];
+        }
+
+        void flush() {
+            image.beginSubRecord(1 + length);
+            image.write(CLASS_DUMP);
+            image.write(bytes.toByteArray(), 0, bytes.size());
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package cn.wanghw.hprof;
+
+/**
+ * Growable list of primitive longs, used for the file offsets and ids the index keeps per object.
+ */
+class LongList {
+    private long[] values;
+    private int size;
+
+    LongList() {
+        this(16);
+    }
+
+    LongList(int capacity) {
+        values = new long[Math.max(capacity, 4)];
+    }
+
+    void add(long value) {
+        if (size == values.length) {
+            long[] grown = new long[values.length + (values.length >> 1)];
+            System.arraycopy(values, 0, grown, 0, size);
+            values = grown;
+        }
+        values[size++] = value;
+    }
+
+    long get(int index) {
+        return values[index];
+    }
+
+    int size() {
+        return size;
+    }
+
+    long[] toArray() {
+        long[] result = new long[size];
+        System.arraycopy(values, 0, result, 0, size);
+        return result;
+    }
+
+    /**
+     * Releases the spare capacity once the list will not grow any more.
+     */
+    void trim() {
+        if (values.length != size) {
+            values = toArray();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package cn.wanghw.hprof;
+
+import cn.wanghw.utils.LongIntMap;
+
+/**
+ * The object records read last off a stream, by object id, within a fixed number of bytes: the
+ * oldest ones make room for new ones. Lets {@link HprofStreamReader} follow references back to
+ * objects it has already passed, as long as they are not too far back.
+ */
+class RecordWindow {
+    private static final int ENTRY_HEADER = 4 + 8;
+
+    private final byte[] ring;
+    private final LongIntMap positions = new LongIntMap();
+    private final byte[] entryHeader = new byte[ENTRY_HEADER];
+    private long head;
+    private long tail;
+
+    RecordWindow(int capacity) {
+        ring = new byte[capacity];
+    }
+
+    /**
+     * @return whether the record is one the window takes, it only takes records much smaller
+     * than itself
+     */
+    boolean accepts(long length) {
+        return length <= ring.length / 64;
+    }
+
+    void add(long id, byte[] record) {
+        if (!accepts(record.length)) return;
+        long size = ENTRY_HEADER + record.length;
+        while (head + size - tail > ring.length) {
+            evict();
+        }
+        int position = (int) (head % ring.length);
+        for (int i = 0; i < 4; i++) {
+            entryHeader[i] = (byte) (record.length >>> (24 - 8 * i));
+        }
+        for (int i = 0; i < 8; i++) {
+            entryHeader[4 + i] = (byte) (id >>> (56 - 8 * i));
+        }
+        put(head, entryHeader, ENTRY_HEADER);
+        put(head + ENTRY_HEADER, record, record.length);
+        positions.put(id, position);
+        head += size;
+    }
+
+    /**
+     * @return the record of the object, or null if it is not in the window
+     */
+    byte[] get(long id) {
+        int position = positions.get(id, -1);
+        if (position < 0) return null;
+        long start = head - (head % ring.length) + position;
+        if (start >= head) start -= ring.length;
+        byte[] length = new byte[4];
+        take(start, length);
+        byte[] record = new byte[(length[0] & 0xFF) << 24 | (length[1] & 0xFF) << 16 | (length[2] & 0xFF) << 8 | (length[3] & 0xFF)];
+        take(start + ENTRY_HEADER, record);
+        return record;
+    }
+
+    /**
+     * Takes the object out of the window, so it is not handed out twice.
+     *
+     * @return its record, or null if it is not in the window
+     */
+    byte[] remove(long id) {
+        byte[] record = get(id);
+        if (record != null) positions.remove(id, -1);
+        return record;
+    }
+
+    private void evict() {
+        take(tail, entryHeader);
+        int length = (entryHeader[0] & 0xFF) << 24 | (entryHeader[1] & 0xFF) << 16 | (entryHeader[2] & 0xFF) << 8 | (entryHeader[3] & 0xFF);
+        long id = 0;
+        for (int i = 0; i < 8; i++) {
+            id = id << 8 | (entryHeader[4 + i] & 0xFF);
+        }
+        if (positions.get(id, -1) == (int) (tail % ring.length)) {
+            positions.remove(id, -1);
+        }
+        tail += ENTRY_HEADER + length;
+    }
+
+    private void put(long at, byte[] bytes, int length) {
+        int position = (int) (at % ring.length);
+        int first = Math.min(length, ring.length - position);
+        System.arraycopy(bytes, 0, ring, position, first);
+        System.arraycopy(bytes, first, ring, 0, length - first);
+    }
+
+    private void take(long at, byte[] bytes) {
+        int position = (int) (at % ring.length);
+        int first = Math.min(bytes.length, ring.length - position);
+        System.arraycopy(ring, position, bytes, 0, first);
+        System.arraycopy(ring, 0, bytes, first, bytes.length - first);
+    }
+}
@@ -0,0 +1,161 @@
+package cn.wanghw.hprof;
+
+import cn.wanghw.Deadline;
+import cn.wanghw.utils.LongIntMap;
+import cn.wanghw.utils.LongSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * {@link HprofHeapHolder} for {@code --stream}: instead of indexing the dump it reads it once,
+ * front to back, see {@link #read}, and holds only the records the spiders asked for before the
+ * first object went by. Objects it did not keep look like objects missing from the dump, and are
+ * counted by {@link #getMissed()}.
+ */
+public class StreamHeapHolder extends HprofHeapHolder {
+    private final File heapfile;
+    private final LongIntMap wanted = new LongIntMap();
+    private final LongSet wantedClasses = new LongSet();
+    private final LongSet missed = new LongSet();
+    private boolean declaring;
+
+    /**
+     * What the spiders of a run want out of the one pass over the dump.
+     */
+    public interface Request {
+        /**
+         * Looks up, through the holder, what the spiders will look up once the dump is read: the
+         * instances of classes, and the objects static fields point at. Called once the classes are
+         * read and before any object is; the lookups find no objects yet.
+         */
+        void declare();
+
+        /**
+         * @return whether to decode every String as it goes by and hand it to {@link #visitString}
+         */
+        boolean wantsStrings();
+
+        /**
+         * @param instance stands in for the String, it is not kept; only its id can be asked for
+         */
+        void visitString(Object instance, String text);
+    }
+
+    public StreamHeapHolder(File heapfile) {
+        super((HprofHeap) null);
+        this.heapfile = heapfile;
+    }
+
+    /**
+     * Reads the dump, keeping up to a quarter of the heap of records, and an eighth of the heap of
+     * the records read last for references back to them. If the read stops half way the holder has
+     * what it reached.
+     */
+    public void read(final Request request, Deadline deadline) throws IOException {
+        if (_heap != null) {
+            throw new IllegalStateException(heapfile + " was read already");
+        }
+        long maxMemory = Runtime.getRuntime().maxMemory();
+        HprofStreamReader reader = new HprofStreamReader(heapfile, wanted, wantedClasses, request.wantsStrings(),
+                maxMemory / 4, (int) Math.min(maxMemory / 8, Integer.MAX_VALUE - 8)) {
+            protected HprofHeap layoutRead(HprofImage image) throws IOException {
+                _heap = index(image);
+                declaring = true;
+                try {
+                    request.declare();
+                } finally {
+                    declaring = false;
+                }
+                return _heap;
+            }
+
+            protected void visitString(long id, String text) {
+                request.visitString(new StreamedString(id), text);
+            }
+        };
+        try {
+            reader.read(deadline);
+        } finally {
+            HprofImage image = reader.getImage();
+            if (image != null) {
+                _heap = index(image);
+            }
+            System.out.println("[+] Read " + heapfile.getName() + " in one pass: kept " + reader.getCaptured()
+                    + " objects, " + (image == null ? 0 : image.size() >> 20) + " MB in memory"
+                    + (request.wantsStrings() ? ", " + reader.getStringsRead() + " Strings passed on" : ""));
+            if (reader.isFull()) {
+                System.out.println("[-] Stopped keeping objects at a quarter of the heap, results are partial");
+            }
+            int stringsMissed = reader.getStringsMissed();
+            if (stringsMissed > 0) {
+                System.out.println("[-] " + stringsMissed + " Strings were not passed on, their values came too far before them in the dump");
+            }
+        }
+    }
+
+    /**
+     * @return how many objects were looked up since the dump was read that it did not keep
+     */
+    public synchronized int getMissed() {
+        return missed.size();
+    }
+
+    public long getObjectId(Object instance) {
+        if (instance instanceof StreamedString) {
+            return ((StreamedString) instance).id;
+        }
+        return super.getObjectId(instance);
+    }
+
+    public List getInstances(Object javaClass) {
+        wantInstances(javaClass);
+        return super.getInstances(javaClass);
+    }
+
+    public Iterator getInstancesIterator(Object javaClass) {
+        wantInstances(javaClass);
+        return super.getInstancesIterator(javaClass);
+    }
+
+    public List<Iterator> getInstancePartitions(Object javaClass, int parts, int minSize) {
+        wantInstances(javaClass);
+        return super.getInstancePartitions(javaClass, parts, minSize);
+    }
+
+    private void wantInstances(Object javaClass) {
+        if (declaring && javaClass instanceof HprofClass) {
+            wantedClasses.add(((HprofClass) javaClass).getJavaClassId());
+        }
+    }
+
+    private HprofHeap index(HprofImage image) throws IOException {
+        return new HprofHeap(image.toBuffer()) {
+            protected Object objectNotFound(long id) {
+                notFound(id);
+                return null;
+            }
+        };
+    }
+
+    private synchronized void notFound(long id) {
+        if (declaring) {
+            wanted.put(id, HprofStreamReader.SPECULATION);
+        } else {
+            missed.add(id);
+        }
+    }
+
+    /**
+     * A String handed on while the dump is read.
+     */
+    private static class StreamedString {
+        final long id;
+
+        StreamedString(long id) {
+            this.id = id;
+        }
+    }
+}
@@ -1,78 +1,106 @@
 package cn.wanghw.spider;
 
+import cn.wanghw.FieldPath;
+import cn.wanghw.HeapScanner;
 import cn.wanghw.IHeapHolder;
-import cn.wanghw.ISpider;
-import cn.wanghw.utils.HashMapUtils;
+import cn.wanghw.IStreamScanSpider;
+import cn.wanghw.ResultSink;
+import cn.wanghw.StringResultSink;
+import cn.wanghw.utils.KeywordMatcher;
 
 import java.util.*;
 
-public class AuthThief implements ISpider {
+public class AuthThief implements IStreamScanSpider {
     public String getName() {
         return "AuthThief";
     }
 
+    // "authorization" is covered by "auth"
+    static final KeywordMatcher keywords = new KeywordMatcher("auth", "cookie");
+
+    static final FieldPath VALUE = FieldPath.compile("value");
+
     private boolean judge(String key) {
-        key = key.toLowerCase();
-        if (key.equals("authorization")) {
-            return true;
-        } else if (key.contains("auth")) {
-            return true;
-        } else if (key.contains("cookie")) {
-            return true;
-        }
-        return false;
+        return keywords.containsAny(key);
     }
 
+    private LinkedHashMap<Object, LinkedHashMap<String, String>> values = new LinkedHashMap<Object, LinkedHashMap<String, String>>();
+
     public String sniff(IHeapHolder heapHolder) {
-        final StringBuilder result = new StringBuilder();
-        try {
-            List<Object> mapEntryClasses = new ArrayList<Object>();
-            for (Iterator it = heapHolder.getClasses(); it.hasNext(); ) {
-                Object clazz = it.next();
-                String clazzName = heapHolder.getClassName(clazz).toLowerCase();
-                if (clazzName.contains("$") && (clazzName.split("\\$")[1].endsWith("entry")))
-                    mapEntryClasses.add(clazz);
-            }
-            for (Object clazz : mapEntryClasses) {
-                LinkedHashMap<String, String> values = new LinkedHashMap<String, String>();
-                dump(heapHolder, values, clazz);
-                if (!values.isEmpty()) {
-                    result.append(heapHolder.getClassName(clazz)).append(":\r\n");
-                    result.append(HashMapUtils.dumpString(values, false)).append("\r\n");
-                }
-            }
-        } catch (Exception ex) {
-            System.out.println(ex);
-        }
-        return result.toString();
+        return HeapScanner.sniff(this, heapHolder);
+    }
+
+    public void register(HeapScanner scanner) {
+        values = new LinkedHashMap<Object, LinkedHashMap<String, String>>();
+        scanner.onMapEntry(new Visitor(values));
     }
 
-    private void dump(IHeapHolder heapHolder, LinkedHashMap<String, String> values, Object clazz) {
-        for (Object instance : heapHolder.getInstances(clazz)) {
-            String key = heapHolder.getFieldStringValue(instance, "key");
-            if (key != null && judge(key)) {
-                String val = heapHolder.getFieldStringValue(instance, "value");
+    private class Visitor implements HeapScanner.EntryVisitor, HeapScanner.Forkable<Visitor> {
+        private final LinkedHashMap<Object, LinkedHashMap<String, String>> values;
+
+        Visitor(LinkedHashMap<Object, LinkedHashMap<String, String>> values) {
+            this.values = values;
+        }
+
+        public void visit(IHeapHolder heapHolder, Object entryClass, Object entry, String key) {
+            if (judge(key)) {
+                String val = heapHolder.getFieldStringValue(entry, VALUE);
                 if (val != null && !val.equals("")) {
-                    values.put(key, val);
+                    getClassValues(entryClass).put(key, val);
                 }
             }
         }
-        Object[] subClasses = heapHolder.getSubClasses(clazz);
-        if (subClasses != null && subClasses.length > 0) {
-            for (Object subClazz : subClasses) {
-                dump(heapHolder, values, subClazz);
+
+        private LinkedHashMap<String, String> getClassValues(Object entryClass) {
+            LinkedHashMap<String, String> classValues = values.get(entryClass);
+            if (classValues == null) {
+                classValues = new LinkedHashMap<String, String>();
+                values.put(entryClass, classValues);
+            }
+            return classValues;
+        }
+
+        public Visitor fork() {
+            return new Visitor(new LinkedHashMap<Object, LinkedHashMap<String, String>>());
+        }
+
+        /**
+         * Putting a fork's values after those found before keeps the order and the last value of
+         * each key the same as putting them one by one.
+         */
+        public void join(IHeapHolder heapHolder, Visitor forked) {
+            for (Map.Entry<Object, LinkedHashMap<String, String>> classValues : forked.values.entrySet()) {
+                getClassValues(classValues.getKey()).putAll(classValues.getValue());
             }
         }
     }
 
-    public List<Object> getFields(IHeapHolder heapHolder, Object clazz) {
-        List<Object> fieldList = new LinkedList<Object>();
-        while (!heapHolder.getClassName(clazz).equals(Object.class.getName())) {
-            for (Object f : heapHolder.getFields(clazz)) {
-                fieldList.add(f);
+    /**
+     * Findings are only written once the walk is over, so the sink is not needed yet.
+     */
+    public void register(HeapScanner scanner, ResultSink sink) {
+        register(scanner);
+    }
+
+    public String collect(IHeapHolder heapHolder) {
+        StringResultSink result = new StringResultSink();
+        collect(heapHolder, result);
+        return result.toString();
+    }
+
+    public void collect(IHeapHolder heapHolder, ResultSink sink) {
+        try {
+            for (Map.Entry<Object, LinkedHashMap<String, String>> classValues : values.entrySet()) {
+                sink.append(heapHolder.getClassName(classValues.getKey()) + ":\r\n");
+                sink.dump(heapHolder, classValues.getKey(), null, classValues.getValue(), false);
+                sink.append("\r\n");
             }
-            clazz = heapHolder.getSuperClass(clazz);
+        } catch (Exception ex) {
+            System.out.println(ex);
         }
-        return fieldList;
+    }
+
+    public List<Object> getFields(IHeapHolder heapHolder, Object clazz) {
+        return new LinkedList<Object>(heapHolder.getAllFields(clazz));
     }
 }
@@ -1,28 +1,66 @@
 package cn.wanghw.spider;
 
+import cn.wanghw.BufferedResultSink;
+import cn.wanghw.HeapScanner;
 import cn.wanghw.IHeapHolder;
-import cn.wanghw.ISpider;
+import cn.wanghw.IStreamScanSpider;
+import cn.wanghw.ResultSink;
+import cn.wanghw.StringResultSink;
+
+import java.util.Collections;
+
+public class CookieThief implements IStreamScanSpider {
+    private StringResultSink result = new StringResultSink();
 
-public class CookieThief implements ISpider {
     public String getName() {
         return "CookieThief";
     }
 
-    public String sniff(IHeapHolder heapHolder)  {
-        final StringBuilder result = new StringBuilder();
-        try {
-            Object clazz = heapHolder.findClass("java.lang.String");
-            if (clazz == null)
-                return null;
-            for (Object instance : heapHolder.getInstances(clazz)) {
-                String text = heapHolder.toString(instance);
-                if (text.contains("Cookie:")) {
-                    result.append(heapHolder.toString(instance)).append("\r\n");
-                }
+    public String sniff(IHeapHolder heapHolder) {
+        return HeapScanner.sniff(this, heapHolder);
+    }
+
+    public void register(HeapScanner scanner) {
+        result = new StringResultSink();
+        register(scanner, result);
+    }
+
+    public void register(HeapScanner scanner, ResultSink sink) {
+        scanner.onString(new Visitor(sink));
+    }
+
+    /**
+     * Forks write to a buffer of their own, handed on to the spider's sink when they are joined.
+     */
+    private static class Visitor implements HeapScanner.StringVisitor, HeapScanner.Forkable<Visitor> {
+        private final ResultSink sink;
+
+        Visitor(ResultSink sink) {
+            this.sink = sink;
+        }
+
+        public void visit(IHeapHolder heapHolder, Object instance, String text) {
+            if (!text.contains("Cookie:")) return;
+            if (sink.isStructured()) {
+                sink.record("java.lang.String", heapHolder.getObjectId(instance), Collections.singletonMap((String) null, text));
+            } else {
+                sink.append(text + "\r\n");
             }
-        } catch (Exception ex) {
-            System.out.println(ex);
         }
+
+        public Visitor fork() {
+            return new Visitor(new BufferedResultSink(sink));
+        }
+
+        public void join(IHeapHolder heapHolder, Visitor forked) {
+            ((BufferedResultSink) forked.sink).flush();
+        }
+    }
+
+    public String collect(IHeapHolder heapHolder) {
         return result.toString();
     }
+
+    public void collect(IHeapHolder heapHolder, ResultSink sink) {
+    }
 }
@@ -1,36 +1,43 @@
 package cn.wanghw.spider;
 
+import cn.wanghw.FieldPath;
 import cn.wanghw.IHeapHolder;
-import cn.wanghw.ISpider;
-import cn.wanghw.utils.HashMapUtils;
+import cn.wanghw.IStreamSpider;
+import cn.wanghw.ResultSink;
+import cn.wanghw.StringResultSink;
 
 import java.util.HashMap;
+import java.util.Iterator;
 
 
-public class DataSource01 implements ISpider {
+public class DataSource01 implements IStreamSpider {
 
     public String getName() {
         return "SpringDataSourceProperties";
     }
 
     public String sniff(IHeapHolder heapHolder) {
-        final StringBuilder result = new StringBuilder();
+        return StringResultSink.sniff(this, heapHolder);
+    }
+
+    public void sniff(IHeapHolder heapHolder, ResultSink sink) {
         try {
             Object clazz = heapHolder.findClass("org.springframework.boot.autoconfigure.jdbc.DataSourceProperties");
             if (clazz == null)
-                return null;
+                return;
             HashMap<String, String> fieldList = new HashMap<String, String>() {{
                 put("driverClassName", "driverClassName");
                 put("username", "username");
                 put("password", "password");
                 put("url", "url");
             }};
-            for (Object instance : heapHolder.getInstances(clazz)) {
-                result.append(HashMapUtils.dumpString(heapHolder.getFieldsByNameList(instance, fieldList), false));
+            HashMap<String, FieldPath> paths = FieldPath.compile(fieldList);
+            for (Iterator it = heapHolder.getInstancesIterator(clazz); it.hasNext(); ) {
+                Object instance = it.next();
+                sink.dump(heapHolder, clazz, instance, heapHolder.getFieldsByPaths(instance, paths), false);
             }
         } catch (Exception ex) {
             System.out.println(ex);
         }
-        return result.toString();
     }
 }
@@ -1,12 +1,15 @@
 package cn.wanghw.spider;
 
+import cn.wanghw.FieldPath;
 import cn.wanghw.IHeapHolder;
-import cn.wanghw.ISpider;
-import cn.wanghw.utils.HashMapUtils;
+import cn.wanghw.IStreamSpider;
+import cn.wanghw.ResultSink;
+import cn.wanghw.StringResultSink;
 
 import java.util.HashMap;
+import java.util.Iterator;
 
-public class DataSource03 implements ISpider {
+public class DataSource03 implements IStreamSpider {
 
     public String getName() {
         return "MongoClient";
@@ -14,11 +17,14 @@ public class DataSource03 implements ISpider {
 
 
     public String sniff(IHeapHolder heapHolder) {
-        final StringBuilder result = new StringBuilder();
+        return StringResultSink.sniff(this, heapHolder);
+    }
+
+    public void sniff(IHeapHolder heapHolder, ResultSink sink) {
         try {
             Object clazz = heapHolder.findClass("com.mongodb.MongoClient");
             if (clazz == null)
-                return null;
+                return;
             HashMap<String, String> fieldList = new HashMap<String, String>() {{
                 put("host", "cluster.settings.hosts.list.elementData.host");
                 put("port", "cluster.settings.hosts.list.elementData.port");
@@ -26,12 +32,13 @@ public class DataSource03 implements ISpider {
                 put("password", "credentialsList.list.elementData.password");
                 put("database", "credentialsList.list.elementData.source");
             }};
-            for (Object instance : heapHolder.getInstances(clazz)) {
-                result.append(HashMapUtils.dumpString(heapHolder.getFieldsByNameList(instance, fieldList), false));
+            HashMap<String, FieldPath> paths = FieldPath.compile(fieldList);
+            for (Iterator it = heapHolder.getInstancesIterator(clazz); it.hasNext(); ) {
+                Object instance = it.next();
+                sink.dump(heapHolder, clazz, instance, heapHolder.getFieldsByPaths(instance, paths), false);
             }
         } catch (Exception ex) {
             System.out.println(ex);
         }
-        return result.toString();
     }
 }
@@ -1,13 +1,16 @@
 package cn.wanghw.spider;
 
+import cn.wanghw.FieldPath;
 import cn.wanghw.IHeapHolder;
-import cn.wanghw.ISpider;
-import cn.wanghw.utils.HashMapUtils;
+import cn.wanghw.IStreamSpider;
+import cn.wanghw.ResultSink;
+import cn.wanghw.StringResultSink;
 
 import java.util.HashMap;
+import java.util.Iterator;
 
 
-public class DataSource04 implements ISpider {
+public class DataSource04 implements IStreamSpider {
 
     public String getName() {
         return "AliDruidDataSourceWrapper";
@@ -15,22 +18,26 @@ public class DataSource04 implements ISpider {
 
 
     public String sniff(IHeapHolder heapHolder) {
-        final StringBuilder result = new StringBuilder();
+        return StringResultSink.sniff(this, heapHolder);
+    }
+
+    public void sniff(IHeapHolder heapHolder, ResultSink sink) {
         try {
             Object clazz = heapHolder.findClass("com.alibaba.druid.spring.boot.autoconfigure.DruidDataSourceWrapper");
             if (clazz == null)
-                return null;
+                return;
             HashMap<String, String> fieldList = new HashMap<String, String>() {{
                 put("username", "username");
                 put("password", "password");
                 put("jdbcUrl", "jdbcUrl");
             }};
-            for (Object instance : heapHolder.getInstances(clazz)) {
-                result.append(HashMapUtils.dumpString(heapHolder.getFieldsByNameList(instance, fieldList), false));
+            HashMap<String, FieldPath> paths = FieldPath.compile(fieldList);
+            for (Iterator it = heapHolder.getInstancesIterator(clazz); it.hasNext(); ) {
+                Object instance = it.next();
+                sink.dump(heapHolder, clazz, instance, heapHolder.getFieldsByPaths(instance, paths), false);
             }
         } catch (Exception ex) {
             System.out.println(ex);
         }
-        return result.toString();
     }
 }
@@ -1,13 +1,16 @@
 package cn.wanghw.spider;
 
+import cn.wanghw.FieldPath;
 import cn.wanghw.IHeapHolder;
-import cn.wanghw.ISpider;
-import cn.wanghw.utils.HashMapUtils;
+import cn.wanghw.IStreamSpider;
+import cn.wanghw.ResultSink;
+import cn.wanghw.StringResultSink;
 
 import java.util.HashMap;
+import java.util.Iterator;
 
 
-public class DataSource05 implements ISpider {
+public class DataSource05 implements IStreamSpider {
 
     public String getName() {
         return "HikariDataSource";
@@ -15,26 +18,28 @@ public class DataSource05 implements ISpider {
 
 
     public String sniff(IHeapHolder heapHolder) {
+        return StringResultSink.sniff(this, heapHolder);
+    }
 
-        final StringBuilder result = new StringBuilder();
+    public void sniff(IHeapHolder heapHolder, ResultSink sink) {
         try {
             Object clazz = heapHolder.findClass("com.zaxxer.hikari.util.DriverDataSource");
             if (clazz == null)
-                return null;
+                return;
             HashMap<String, String> fieldList = new HashMap<String, String>() {{
                 put("jdbcUrl", "jdbcUrl");
-                put("tableId", "driverProperties.table.@ID");
             }};
-            for (Object instance : heapHolder.getInstances(clazz)) {
-                HashMap<String, String> fieldValue = heapHolder.getFieldsByNameList(instance, fieldList);
-                Object paramsTable = heapHolder.findThing(Long.parseLong(fieldValue.get("tableId")));
-                fieldValue.remove("tableId");
+            HashMap<String, FieldPath> paths = FieldPath.compile(fieldList);
+            FieldPath paramsPath = FieldPath.compile("driverProperties.table");
+            for (Iterator it = heapHolder.getInstancesIterator(clazz); it.hasNext(); ) {
+                Object instance = it.next();
+                HashMap<String, String> fieldValue = heapHolder.getFieldsByPaths(instance, paths);
+                Object paramsTable = heapHolder.getReference(instance, paramsPath);
                 fieldValue.putAll(heapHolder.arrayDump(paramsTable));
-                result.append(HashMapUtils.dumpString(fieldValue, false));
+                sink.dump(heapHolder, clazz, instance, fieldValue, false);
             }
         } catch (Exception ex) {
             System.out.println(ex);
         }
-        return result.toString();
     }
 }
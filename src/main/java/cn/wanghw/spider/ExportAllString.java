@@ -1,32 +1,44 @@
 package cn.wanghw.spider;
 
+import cn.wanghw.HeapScanner;
 import cn.wanghw.IHeapHolder;
-import cn.wanghw.ISpider;
+import cn.wanghw.IScanSpider;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.PrintWriter;
 
-public class ExportAllString implements ISpider {
+public class ExportAllString implements IScanSpider {
+    private PrintWriter pw;
 
     public String getName() {
         return "ExportAllString";
     }
 
     public String sniff(IHeapHolder heapHolder) {
+        return HeapScanner.sniff(this, heapHolder);
+    }
+
+    public void register(HeapScanner scanner) {
         try {
             File outFile = new File(System.nanoTime() + ".txt");
-            PrintWriter pw = new PrintWriter(new FileOutputStream(outFile));
+            pw = new PrintWriter(new FileOutputStream(outFile));
             System.out.println("[+] Output to: " + outFile.getAbsolutePath());
-            Object clazz = heapHolder.findClass("java.lang.String");
-            if (clazz == null)
-                return null;
-            for (Object instance : heapHolder.getInstances(clazz)) {
-                pw.println(heapHolder.toString(instance));
-            }
+            scanner.onString(new HeapScanner.StringVisitor() {
+                public void visit(IHeapHolder heapHolder, Object instance, String text) {
+                    pw.println(text);
+                }
+            });
         } catch (Exception ex) {
             System.out.println(ex);
         }
+    }
+
+    public String collect(IHeapHolder heapHolder) {
+        if (pw != null) {
+            pw.close();
+            pw = null;
+        }
         return "\r\n";
     }
 }
@@ -1,58 +1,93 @@
 package cn.wanghw.spider;
 
+import cn.wanghw.FieldPath;
+import cn.wanghw.HeapScanner;
 import cn.wanghw.IHeapHolder;
-import cn.wanghw.ISpider;
-import cn.wanghw.utils.HashMapUtils;
+import cn.wanghw.IStreamScanSpider;
+import cn.wanghw.ResultSink;
+import cn.wanghw.StringResultSink;
+import cn.wanghw.utils.KeywordMatcher;
 
 import java.util.*;
 
-public class OSS01 implements ISpider {
+public class OSS01 implements IStreamScanSpider {
     public String getName() {
         return "OSS";
     }
 
-    final List<String> ossKeywords = Collections.unmodifiableList(Arrays.asList("key", "id", "secret", "access", "bucket", "endpoint"));
+    static final KeywordMatcher keywords = new KeywordMatcher(
+            "oss.", "cos.", "file", "upload",
+            "key", "id", "secret", "access", "bucket", "endpoint");
+    static final long STORAGE = keywords.bit("oss.") | keywords.bit("cos.");
+    static final long FILE = keywords.bit("file");
+    static final long UPLOAD = keywords.bit("upload");
+    static final long OSS_KEYWORDS = keywords.bit("key") | keywords.bit("id") | keywords.bit("secret")
+            | keywords.bit("access") | keywords.bit("bucket") | keywords.bit("endpoint");
+
+    static final FieldPath VALUE = FieldPath.compile("value");
 
     private boolean judge(String key) {
-        key = key.toLowerCase();
-        if (key.contains("oss.") || key.contains("cos.") || (key.contains("file") && key.contains("upload"))) {
-            for (String keyword : ossKeywords) {
-                if (key.contains(keyword)) return true;
-            }
+        long found = keywords.match(key);
+        if ((found & STORAGE) != 0 || ((found & FILE) != 0 && (found & UPLOAD) != 0)) {
+            return (found & OSS_KEYWORDS) != 0;
         }
         return false;
     }
 
+    private LinkedHashMap<String, String> values = new LinkedHashMap<String, String>();
+
     public String sniff(IHeapHolder heapHolder) {
-        final StringBuilder result = new StringBuilder();
-        try {
-            LinkedHashMap<String, String> values = new LinkedHashMap<String, String>();
-            List<Object> mapEntryClasses = new ArrayList<Object>();
-            for (Iterator it = heapHolder.getClasses(); it.hasNext(); ) {
-                Object clazz = it.next();
-                String clazzName = heapHolder.getClassName(clazz).toLowerCase();
-                if (clazzName.contains("$") && (clazzName.split("\\$")[1].endsWith("entry")))
-                    mapEntryClasses.add(clazz);
-            }
-            for (Object clazz : mapEntryClasses) {
-                dump(heapHolder, values, clazz);
-            }
-            result.append(HashMapUtils.dumpString(values, false));
-        } catch (Exception ex) {
-            System.out.println(ex);
-        }
-        return result.toString();
+        return HeapScanner.sniff(this, heapHolder);
+    }
+
+    public void register(HeapScanner scanner) {
+        values = new LinkedHashMap<String, String>();
+        scanner.onMapEntry(new Visitor(values));
     }
 
-    private void dump(IHeapHolder heapHolder, LinkedHashMap<String, String> values, Object clazz) {
-        for (Object instance : heapHolder.getInstances(clazz)) {
-            String key = heapHolder.getFieldStringValue(instance, "key");
-            if (key != null && judge(key)) {
-                String val = heapHolder.getFieldStringValue(instance, "value");
+    private class Visitor implements HeapScanner.EntryVisitor, HeapScanner.Forkable<Visitor> {
+        private final LinkedHashMap<String, String> values;
+
+        Visitor(LinkedHashMap<String, String> values) {
+            this.values = values;
+        }
+
+        public void visit(IHeapHolder heapHolder, Object entryClass, Object entry, String key) {
+            if (judge(key)) {
+                String val = heapHolder.getFieldStringValue(entry, VALUE);
                 if (val != null && !val.equals("")) {
                     values.put(key, val);
                 }
             }
         }
+
+        public Visitor fork() {
+            return new Visitor(new LinkedHashMap<String, String>());
+        }
+
+        public void join(IHeapHolder heapHolder, Visitor forked) {
+            values.putAll(forked.values);
+        }
+    }
+
+    /**
+     * Findings are only written once the walk is over, so the sink is not needed yet.
+     */
+    public void register(HeapScanner scanner, ResultSink sink) {
+        register(scanner);
+    }
+
+    public String collect(IHeapHolder heapHolder) {
+        StringResultSink result = new StringResultSink();
+        collect(heapHolder, result);
+        return result.toString();
+    }
+
+    public void collect(IHeapHolder heapHolder, ResultSink sink) {
+        try {
+            sink.dump(heapHolder, null, null, values, false);
+        } catch (Exception ex) {
+            System.out.println(ex);
+        }
     }
-}
\ No newline at end of file
+}
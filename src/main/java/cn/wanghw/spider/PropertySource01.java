@@ -1,12 +1,14 @@
 package cn.wanghw.spider;
 
 import cn.wanghw.IHeapHolder;
-import cn.wanghw.ISpider;
-import cn.wanghw.utils.HashMapUtils;
+import cn.wanghw.IStreamSpider;
+import cn.wanghw.ResultSink;
+import cn.wanghw.StringResultSink;
 
 import java.util.HashMap;
+import java.util.Iterator;
 
-public class PropertySource01 implements ISpider {
+public class PropertySource01 implements IStreamSpider {
 
     public String getName() {
         return "OriginTrackedMapPropertySource";
@@ -14,23 +16,25 @@ public class PropertySource01 implements ISpider {
 
 
     public String sniff(IHeapHolder heapHolder) {
+        return StringResultSink.sniff(this, heapHolder);
+    }
 
-        final StringBuilder result = new StringBuilder();
+    public void sniff(IHeapHolder heapHolder, ResultSink sink) {
         try {
             Object clazz = heapHolder.findClass("org.springframework.boot.env.OriginTrackedMapPropertySource");
             if (clazz == null)
-                return null;
+                return;
             HashMap<String, String> values = new HashMap<String, String>();
-            for (Object instance : heapHolder.getInstances(clazz)) {
+            for (Iterator it = heapHolder.getInstancesIterator(clazz); it.hasNext(); ) {
+                Object instance = it.next();
                 Object source = heapHolder.getFieldValue(instance, "source");
                 if (heapHolder.isMap(source)) {
                     values.putAll(heapHolder.arrayDump(heapHolder.getMap(source)));
                 }
             }
-            result.append(HashMapUtils.dumpString(values, false));
+            sink.dump(heapHolder, clazz, null, values, false);
         } catch (Exception ex) {
             System.out.println(ex);
         }
-        return result.toString();
     }
 }
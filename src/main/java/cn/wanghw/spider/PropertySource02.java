@@ -1,12 +1,15 @@
 package cn.wanghw.spider;
 
+import cn.wanghw.FieldPath;
 import cn.wanghw.IHeapHolder;
-import cn.wanghw.ISpider;
-import cn.wanghw.utils.HashMapUtils;
+import cn.wanghw.IStreamSpider;
+import cn.wanghw.ResultSink;
+import cn.wanghw.StringResultSink;
 
 import java.util.HashMap;
+import java.util.Iterator;
 
-public class PropertySource02 implements ISpider {
+public class PropertySource02 implements IStreamSpider {
 
 
     public String getName() {
@@ -15,23 +18,26 @@ public class PropertySource02 implements ISpider {
 
 
     public String sniff(IHeapHolder heapHolder) {
+        return StringResultSink.sniff(this, heapHolder);
+    }
 
-        final StringBuilder result = new StringBuilder();
+    public void sniff(IHeapHolder heapHolder, ResultSink sink) {
         try {
             Object clazz = heapHolder.findClass("org.springframework.core.env.MutablePropertySources");
             if (clazz == null)
-                return null;
+                return;
             HashMap<String, String> values = new HashMap<String, String>();
-            for (Object instance : heapHolder.getInstances(clazz)) {
-                Object[] array = heapHolder.getArrayItems(heapHolder.getFieldValue(instance, "propertySourceList.array"));
+            FieldPath sourceArray = FieldPath.compile("propertySourceList.array");
+            for (Iterator it = heapHolder.getInstancesIterator(clazz); it.hasNext(); ) {
+                Object instance = it.next();
+                Object[] array = heapHolder.getArrayItems(heapHolder.getFieldValue(instance, sourceArray));
                 for (Object source : array) {
                     values.putAll(heapHolder.arrayDump(heapHolder.getMap(source)));
                 }
             }
-            result.append(HashMapUtils.dumpString(values, false));
+            sink.dump(heapHolder, clazz, null, values, false);
         } catch (Exception ex) {
             System.out.println(ex);
         }
-        return result.toString();
     }
 }
@@ -1,13 +1,16 @@
 package cn.wanghw.spider;
 
+import cn.wanghw.FieldPath;
 import cn.wanghw.IHeapHolder;
-import cn.wanghw.ISpider;
-import cn.wanghw.utils.HashMapUtils;
+import cn.wanghw.IStreamSpider;
+import cn.wanghw.ResultSink;
+import cn.wanghw.StringResultSink;
 
 import java.util.HashMap;
+import java.util.Iterator;
 
 
-public class Redis01 implements ISpider {
+public class Redis01 implements IStreamSpider {
 
     public String getName() {
         return "RedisStandaloneConfiguration";
@@ -15,23 +18,27 @@ public class Redis01 implements ISpider {
 
 
     public String sniff(IHeapHolder heapHolder) {
-        final StringBuilder result = new StringBuilder();
+        return StringResultSink.sniff(this, heapHolder);
+    }
+
+    public void sniff(IHeapHolder heapHolder, ResultSink sink) {
         try {
             Object clazz = heapHolder.findClass("org.springframework.data.redis.connection.RedisStandaloneConfiguration");
             if (clazz == null)
-                return null;
+                return;
             HashMap<String, String> fieldList = new HashMap<String, String>() {{
                 put("hostName", "hostName");
                 put("port", "port");
                 put("password", "password.thePassword");
                 put("database", "database");
             }};
-            for (Object instance : heapHolder.getInstances(clazz)) {
-                result.append(HashMapUtils.dumpString(heapHolder.getFieldsByNameList(instance, fieldList)));
+            HashMap<String, FieldPath> paths = FieldPath.compile(fieldList);
+            for (Iterator it = heapHolder.getInstancesIterator(clazz); it.hasNext(); ) {
+                Object instance = it.next();
+                sink.dump(heapHolder, clazz, instance, heapHolder.getFieldsByPaths(instance, paths), true);
             }
         } catch (Exception ex) {
             System.out.println(ex);
         }
-        return result.toString();
     }
 }
\ No newline at end of file
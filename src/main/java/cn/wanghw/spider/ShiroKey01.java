@@ -1,13 +1,16 @@
 package cn.wanghw.spider;
 
+import cn.wanghw.FieldPath;
 import cn.wanghw.IHeapHolder;
-import cn.wanghw.ISpider;
+import cn.wanghw.IStreamSpider;
+import cn.wanghw.ResultSink;
+import cn.wanghw.StringResultSink;
 import cn.wanghw.utils.Base64;
-import cn.wanghw.utils.HashMapUtils;
 
 import java.util.HashMap;
+import java.util.Iterator;
 
-public class ShiroKey01 implements ISpider {
+public class ShiroKey01 implements IStreamSpider {
 
     public String getName() {
         return "CookieRememberMeManager(ShiroKey)";
@@ -15,28 +18,33 @@ public class ShiroKey01 implements ISpider {
 
 
     public String sniff(IHeapHolder heapHolder) {
+        return StringResultSink.sniff(this, heapHolder);
+    }
 
-        final StringBuilder result = new StringBuilder();
+    public void sniff(IHeapHolder heapHolder, ResultSink sink) {
         try {
             Object clazz = heapHolder.findClass("org.apache.shiro.web.mgt.CookieRememberMeManager");
             if (clazz == null)
-                return null;
-            for (Object instance : heapHolder.getInstances(clazz)) {
+                return;
+            FieldPath algName = FieldPath.compile("cipherService.algorithmName");
+            FieldPath algMode = FieldPath.compile("cipherService.modeName");
+            FieldPath cipherKey = FieldPath.compile("encryptionCipherKey");
+            for (Iterator it = heapHolder.getInstancesIterator(clazz); it.hasNext(); ) {
+                Object instance = it.next();
                 HashMap<String, String> values = new HashMap<String, String>();
-                values.put("algName", heapHolder.getFieldStringValue(instance, "cipherService.algorithmName"));
-                values.put("algMode", heapHolder.getFieldStringValue(instance, "cipherService.modeName"));
-                Object encryptionCipherKey = heapHolder.getFieldValue(instance, "encryptionCipherKey");
+                values.put("algName", heapHolder.getFieldStringValue(instance, algName));
+                values.put("algMode", heapHolder.getFieldStringValue(instance, algMode));
+                Object encryptionCipherKey = heapHolder.getFieldValue(instance, cipherKey);
                 if (encryptionCipherKey != null) {
                     byte[] key = heapHolder.toByteArray(encryptionCipherKey);
                     if (key != null) {
                         values.put("key", Base64.encode(key));
                     }
                 }
-                result.append(HashMapUtils.dumpString(values));
+                sink.dump(heapHolder, clazz, instance, values, true);
             }
         } catch (Exception ex) {
             System.out.println(ex);
         }
-        return result.toString();
     }
 }
\ No newline at end of file
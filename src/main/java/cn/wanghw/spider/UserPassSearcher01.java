@@ -1,12 +1,18 @@
 package cn.wanghw.spider;
 
+import cn.wanghw.BufferedResultSink;
+import cn.wanghw.FieldPath;
+import cn.wanghw.HeapScanner;
 import cn.wanghw.IHeapHolder;
-import cn.wanghw.ISpider;
+import cn.wanghw.IStreamScanSpider;
+import cn.wanghw.ResultSink;
+import cn.wanghw.StringResultSink;
 import cn.wanghw.utils.HashMapUtils;
+import cn.wanghw.utils.KeywordMatcher;
 
 import java.util.*;
 
-public class UserPassSearcher01 implements ISpider {
+public class UserPassSearcher01 implements IStreamScanSpider {
     public String getName() {
         return "UserPassSearcher";
     }
@@ -36,59 +42,131 @@ public class UserPassSearcher01 implements ISpider {
             "addr"
     ));
 
+    static final KeywordMatcher keywords = new KeywordMatcher(keywordList);
+    static final KeywordMatcher unimportantKeywords = new KeywordMatcher(unimportantKeywordList);
+
+    private LinkedHashMap<Object, HashMap<String, FieldPath>> classFields = new LinkedHashMap<Object, HashMap<String, FieldPath>>();
+    private StringResultSink result = new StringResultSink();
+    private Visitor visitor;
+
     public String sniff(IHeapHolder heapHolder) {
-        final StringBuilder result = new StringBuilder();
-        try {
-            for (Iterator it = heapHolder.getClasses(); it.hasNext(); ) {
-                Object clazz = it.next();
+        return HeapScanner.sniff(this, heapHolder);
+    }
+
+    public void register(HeapScanner scanner) {
+        result = new StringResultSink();
+        register(scanner, result);
+    }
+
+    public void register(HeapScanner scanner, ResultSink sink) {
+        classFields = new LinkedHashMap<Object, HashMap<String, FieldPath>>();
+        visitor = new Visitor(sink);
+        scanner.onClass(new HeapScanner.ClassFilter() {
+            public boolean accept(IHeapHolder heapHolder, Object clazz) {
                 List<String> fieldList = new LinkedList<String>();
-                fieldList.addAll(getFields(heapHolder, clazz, keywordList));
-                if (fieldList.isEmpty()) continue;
-                fieldList.addAll(getFields(heapHolder, clazz, unimportantKeywordList));
-                List instances = heapHolder.getInstances(clazz);
-                if (instances.isEmpty()) continue;
+                fieldList.addAll(getFields(heapHolder, clazz, keywords));
+                if (fieldList.isEmpty()) return false;
+                fieldList.addAll(getFields(heapHolder, clazz, unimportantKeywords));
                 HashMap<String, String> fieldMap = new HashMap<String, String>();
                 for (String fieldName : fieldList) {
                     fieldMap.put(fieldName, fieldName);
                 }
-                StringBuilder subResult = new StringBuilder();
-                boolean isAllEmpty = true;
-                subResult.append(heapHolder.getClassName(clazz)).append(":\r\n");
-                List<String> instanceInfo = new LinkedList<String>();
-                for (Object instance : instances) {
-                    String dumpString = HashMapUtils.dumpString(heapHolder.getFieldsByNameList(instance, fieldMap), true, false, true);
-                    if (!dumpString.equals("")) {
-                        isAllEmpty = false;
-                        instanceInfo.add("[" + dumpString + "]");
-                    }
+                classFields.put(clazz, FieldPath.compile(fieldMap));
+                return true;
+            }
+        }, visitor);
+    }
+
+    public String collect(IHeapHolder heapHolder) {
+        collect(heapHolder, result);
+        return result.toString();
+    }
+
+    public void collect(IHeapHolder heapHolder, ResultSink sink) {
+        if (visitor == null) return;
+        visitor.flush(heapHolder, sink);
+        visitor.currentClass = null;
+    }
+
+    private class Visitor implements HeapScanner.InstanceVisitor, HeapScanner.Forkable<Visitor> {
+        private final ResultSink sink;
+        // the scanner visits a class's instances one after another, so only the current class is held
+        private Object currentClass;
+        private List<String> currentInstances = new LinkedList<String>();
+
+        Visitor(ResultSink sink) {
+            this.sink = sink;
+        }
+
+        public void visit(IHeapHolder heapHolder, Object clazz, Object instance) {
+            if (clazz != currentClass) {
+                flush(heapHolder, sink);
+                currentClass = clazz;
+            }
+            HashMap<String, String> values = heapHolder.getFieldsByPaths(instance, classFields.get(clazz));
+            if (sink.isStructured()) {
+                for (Iterator<String> it = values.values().iterator(); it.hasNext(); ) {
+                    String value = it.next();
+                    if (value == null || value.equals("")) it.remove();
+                }
+                if (!values.isEmpty()) {
+                    sink.record(heapHolder.getClassName(clazz), heapHolder.getObjectId(instance), values);
                 }
-                if (!isAllEmpty) {
-                    Object[] instanceArray = (new HashSet(instanceInfo)).toArray();
-                    result.append(subResult);
-                    for (Object str : instanceArray) {
-                        result.append(str).append("\r\n");
-                    }
-                    result.append("\r\n");
+                return;
+            }
+            String dumpString = HashMapUtils.dumpString(values, true, false, true);
+            if (!dumpString.equals("")) {
+                currentInstances.add("[" + dumpString + "]");
+            }
+        }
+
+        public Visitor fork() {
+            return new Visitor(new BufferedResultSink(sink));
+        }
+
+        /**
+         * A fork only sees one class, so joining it is what visiting its instances here would do:
+         * write out the class before if it is another one, then take the fork's findings.
+         */
+        public void join(IHeapHolder heapHolder, Visitor forked) {
+            if (forked.currentClass == null) return;
+            if (forked.currentClass != currentClass) {
+                flush(heapHolder, sink);
+                currentClass = forked.currentClass;
+            }
+            ((BufferedResultSink) forked.sink).flush();
+            currentInstances.addAll(forked.currentInstances);
+        }
+
+        /**
+         * Writes the instances found for the current class, without duplicates.
+         */
+        void flush(IHeapHolder heapHolder, ResultSink sink) {
+            if (currentInstances.isEmpty()) return;
+            try {
+                StringBuilder block = new StringBuilder();
+                Object[] instanceArray = (new HashSet(currentInstances)).toArray();
+                block.append(heapHolder.getClassName(currentClass)).append(":\r\n");
+                for (Object str : instanceArray) {
+                    block.append(str).append("\r\n");
                 }
+                block.append("\r\n");
+                sink.append(block.toString());
+            } catch (Exception ex) {
+                System.out.println(ex);
+            } finally {
+                currentInstances = new LinkedList<String>();
             }
-        } catch (Exception ex) {
-            System.out.println(ex);
         }
-        return result.toString();
     }
 
-    public List<String> getFields(IHeapHolder heapHolder, Object clazz, List<String> keywordList) {
+    public List<String> getFields(IHeapHolder heapHolder, Object clazz, KeywordMatcher keywords) {
         List<String> fieldList = new LinkedList<String>();
-        while (!heapHolder.getClassName(clazz).equals(Object.class.getName())) {
-            for (Object f : heapHolder.getFields(clazz)) {
-                String name = heapHolder.getFieldName(f).toLowerCase();
-                for (String keyword : keywordList) {
-                    if (name.contains(keyword)) {
-                        fieldList.add(heapHolder.getFieldName(f));
-                    }
-                }
+        for (Object f : heapHolder.getAllFields(clazz)) {
+            String name = heapHolder.getFieldName(f);
+            if (keywords.containsAny(name)) {
+                fieldList.add(name);
             }
-            clazz = heapHolder.getSuperClass(clazz);
         }
         return fieldList;
     }
@@ -0,0 +1,84 @@
+package cn.wanghw.utils;
+
+import java.io.*;
+import java.util.zip.CRC32;
+
+/**
+ * Identifies one version of a dump file by its size, modification time and a checksum of its
+ * first bytes, so cached indexes can tell when the dump next to them was replaced.
+ */
+public class DumpFingerprint {
+    private static final int HEADER_BYTES = 64 * 1024;
+
+    private final long length;
+    private final long lastModified;
+    private final long headerHash;
+
+    private DumpFingerprint(long length, long lastModified, long headerHash) {
+        this.length = length;
+        this.lastModified = lastModified;
+        this.headerHash = headerHash;
+    }
+
+    public static DumpFingerprint of(File dump) throws IOException {
+        byte[] header = new byte[HEADER_BYTES];
+        int n = 0;
+        FileInputStream in = new FileInputStream(dump);
+        try {
+            for (int read; n < header.length && (read = in.read(header, n, header.length - n)) > 0; ) {
+                n += read;
+            }
+        } finally {
+            in.close();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(header, 0, n);
+        return new DumpFingerprint(dump.length(), dump.lastModified(), crc.getValue());
+    }
+
+    public static DumpFingerprint read(DataInput in) throws IOException {
+        return new DumpFingerprint(in.readLong(), in.readLong(), in.readLong());
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeLong(length);
+        out.writeLong(lastModified);
+        out.writeLong(headerHash);
+    }
+
+    /**
+     * @return whether {@code stamp} holds this fingerprint, false if it is missing or unreadable
+     */
+    public boolean matches(File stamp) {
+        if (!stamp.isFile()) return false;
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(stamp));
+            try {
+                return equals(read(in));
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    public void save(File stamp) throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(stamp));
+        try {
+            write(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    public boolean equals(Object obj) {
+        if (!(obj instanceof DumpFingerprint)) return false;
+        DumpFingerprint other = (DumpFingerprint) obj;
+        return length == other.length && lastModified == other.lastModified && headerHash == other.headerHash;
+    }
+
+    public int hashCode() {
+        return (int) (length ^ lastModified ^ headerHash);
+    }
+}
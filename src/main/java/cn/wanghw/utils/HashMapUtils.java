@@ -1,27 +1,50 @@
 package cn.wanghw.utils;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.util.Map;
 
 public class HashMapUtils {
-    public static String dumpString(HashMap<String, String> hashMap) {
+    public static String dumpString(Map<String, String> hashMap) {
         return dumpString(hashMap, true);
     }
 
-    public static String dumpString(HashMap<String, String> hashMap, boolean oneline) {
+    public static String dumpString(Map<String, String> hashMap, boolean oneline) {
         return dumpString(hashMap, oneline, true, false);
     }
 
-    public static String dumpString(HashMap<String, String> hashMap, boolean oneline, boolean newLine, boolean ignoreNull) {
-        Object[] allKey = hashMap.keySet().toArray();
-        String result = "";
-        for (int i = 0; i < allKey.length; i++) {
-            String key = allKey[i].toString();
-            if (ignoreNull && (hashMap.get(key) == null || hashMap.get(key).equals(""))) continue;
-            result += key + " = " + hashMap.get(key) + (oneline ? (i + 1 == allKey.length ? "" : ", ") : "\r\n");
+    public static String dumpString(Map<String, String> hashMap, boolean oneline, boolean newLine, boolean ignoreNull) {
+        StringBuilder result = new StringBuilder();
+        try {
+            dump(result, hashMap, oneline, newLine, ignoreNull);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
         }
-        if (result.endsWith(", "))
-            result = result.substring(0, result.length() - 2);
-        return !result.equals("") && oneline && newLine ? result + "\r\n" : result;
+        return result.toString();
+    }
+
+    public static void dump(Appendable out, Map<String, String> hashMap) throws IOException {
+        dump(out, hashMap, true);
+    }
+
+    public static void dump(Appendable out, Map<String, String> hashMap, boolean oneline) throws IOException {
+        dump(out, hashMap, oneline, true, false);
+    }
+
+    /**
+     * Writes the entries as {@code key = value}, joined by ", " when {@code oneline} or one per
+     * line otherwise, in a single pass over the map.
+     */
+    public static void dump(Appendable out, Map<String, String> hashMap, boolean oneline, boolean newLine, boolean ignoreNull) throws IOException {
+        boolean empty = true;
+        for (Map.Entry<String, String> entry : hashMap.entrySet()) {
+            String value = entry.getValue();
+            if (ignoreNull && (value == null || value.equals(""))) continue;
+            if (oneline && !empty) out.append(", ");
+            out.append(entry.getKey()).append(" = ").append(String.valueOf(value));
+            if (!oneline) out.append("\r\n");
+            empty = false;
+        }
+        if (!empty && oneline && newLine) out.append("\r\n");
     }
 
 }
@@ -0,0 +1,55 @@
+package cn.wanghw.utils;
+
+import java.io.IOException;
+
+public class JsonUtils {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    public static String quote(String value) {
+        StringBuilder result = new StringBuilder();
+        try {
+            quote(result, value);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Writes the value as a JSON string literal, or {@code null}.
+     */
+    public static void quote(Appendable out, String value) throws IOException {
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append("\\u00").append(HEX[c >> 4 & 0xf]).append(HEX[c & 0xf]);
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+}
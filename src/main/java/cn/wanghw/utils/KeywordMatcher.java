@@ -0,0 +1,186 @@
+package cn.wanghw.utils;
+
+import java.util.*;
+
+/**
+ * Case-insensitive search for up to 64 keywords at once (Aho-Corasick). The automaton is built
+ * into a flat transition table up front, so a match is a single pass over the text with one
+ * table lookup per char, whatever the number of keywords. Instances are immutable and can be
+ * shared between threads.
+ */
+public class KeywordMatcher {
+    private final String[] keywords;
+    /**
+     * Alphabet index of every ASCII char, 0 for chars no keyword contains.
+     */
+    private final int[] asciiClasses = new int[128];
+    /**
+     * Non-ASCII chars of the alphabet, sorted, and their alphabet indexes.
+     */
+    private final char[] otherChars;
+    private final int[] otherClasses;
+    private final int width;
+    private final int[] transitions;
+    /**
+     * Keywords ending at each state, as a bit per keyword index.
+     */
+    private final long[] outputs;
+
+    public KeywordMatcher(String... keywords) {
+        this(Arrays.asList(keywords));
+    }
+
+    public KeywordMatcher(List<String> keywords) {
+        if (keywords.size() > 64) {
+            throw new IllegalArgumentException("At most 64 keywords, got " + keywords.size());
+        }
+        this.keywords = new String[keywords.size()];
+        SortedSet<Character> alphabet = new TreeSet<Character>();
+        for (int i = 0; i < this.keywords.length; i++) {
+            String keyword = lowerCase(keywords.get(i));
+            if (keyword.length() == 0) {
+                throw new IllegalArgumentException("Empty keyword");
+            }
+            this.keywords[i] = keyword;
+            for (int j = 0; j < keyword.length(); j++) {
+                alphabet.add(keyword.charAt(j));
+            }
+        }
+        List<Character> others = new ArrayList<Character>();
+        int index = 1;
+        for (char c : alphabet) {
+            if (c < 128) {
+                asciiClasses[c] = index++;
+            } else {
+                others.add(c);
+            }
+        }
+        otherChars = new char[others.size()];
+        otherClasses = new int[others.size()];
+        for (int i = 0; i < otherChars.length; i++) {
+            otherChars[i] = others.get(i);
+            otherClasses[i] = index++;
+        }
+        width = index;
+
+        // trie, with -1 for a missing edge
+        List<int[]> gotos = new ArrayList<int[]>();
+        List<Long> ends = new ArrayList<Long>();
+        gotos.add(newRow());
+        ends.add(0L);
+        for (int i = 0; i < this.keywords.length; i++) {
+            int state = 0;
+            for (int j = 0; j < this.keywords[i].length(); j++) {
+                int c = classOf(this.keywords[i].charAt(j));
+                if (gotos.get(state)[c] < 0) {
+                    gotos.get(state)[c] = gotos.size();
+                    gotos.add(newRow());
+                    ends.add(0L);
+                }
+                state = gotos.get(state)[c];
+            }
+            ends.set(state, ends.get(state) | (1L << i));
+        }
+
+        // breadth first, so every state's failure target is complete before the state itself
+        int states = gotos.size();
+        transitions = new int[states * width];
+        outputs = new long[states];
+        int[] failure = new int[states];
+        int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+        for (int c = 0; c < width; c++) {
+            int next = gotos.get(0)[c];
+            transitions[c] = next < 0 ? 0 : next;
+            if (next > 0) {
+                failure[next] = 0;
+                queue[tail++] = next;
+            }
+        }
+        outputs[0] = ends.get(0);
+        while (head < tail) {
+            int state = queue[head++];
+            outputs[state] = ends.get(state) | outputs[failure[state]];
+            for (int c = 0; c < width; c++) {
+                int next = gotos.get(state)[c];
+                if (next < 0) {
+                    transitions[state * width + c] = transitions[failure[state] * width + c];
+                } else {
+                    transitions[state * width + c] = next;
+                    failure[next] = transitions[failure[state] * width + c];
+                    queue[tail++] = next;
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return keywords.length;
+    }
+
+    public String getKeyword(int index) {
+        return keywords[index];
+    }
+
+    /**
+     * @return a bit per keyword found in {@code text}, bit {@code i} for the {@code i}th keyword
+     */
+    public long match(CharSequence text) {
+        long found = 0;
+        int state = 0;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            state = transitions[state * width + classOf(text.charAt(i))];
+            found |= outputs[state];
+        }
+        return found;
+    }
+
+    /**
+     * @return whether {@code text} contains any of the keywords, stopping at the first one
+     */
+    public boolean containsAny(CharSequence text) {
+        int state = 0;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            state = transitions[state * width + classOf(text.charAt(i))];
+            if (outputs[state] != 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the bit {@link #match(CharSequence)} sets for {@code keyword}
+     */
+    public long bit(String keyword) {
+        String lower = lowerCase(keyword);
+        for (int i = 0; i < keywords.length; i++) {
+            if (keywords[i].equals(lower)) return 1L << i;
+        }
+        throw new IllegalArgumentException("Not a keyword: " + keyword);
+    }
+
+    private int classOf(char c) {
+        if (c < 128) {
+            if (c >= 'A' && c <= 'Z') c += 'a' - 'A';
+            return asciiClasses[c];
+        }
+        char lower = Character.toLowerCase(c);
+        if (lower < 128) return asciiClasses[lower];
+        int index = Arrays.binarySearch(otherChars, lower);
+        return index < 0 ? 0 : otherClasses[index];
+    }
+
+    private int[] newRow() {
+        int[] row = new int[width];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    private static String lowerCase(String text) {
+        StringBuilder result = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            result.append(Character.toLowerCase(text.charAt(i)));
+        }
+        return result.toString();
+    }
+}
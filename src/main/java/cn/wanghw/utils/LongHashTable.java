@@ -0,0 +1,160 @@
+package cn.wanghw.utils;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing table of primitive long keys with linear probing, the base of {@link LongSet},
+ * {@link LongIntMap} and {@link LongObjectMap}. Subclasses keep their values in arrays parallel to
+ * the keys, one slot longer: key 0 marks a free slot, so it lives apart in that last slot.
+ * Not synchronized.
+ */
+abstract class LongHashTable {
+    private static final int MIN_CAPACITY = 8;
+
+    private long[] keys;
+    private int mask;
+    private int size;
+    private boolean hasZero;
+
+    LongHashTable(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 < expectedSize * 4) {
+            capacity <<= 1;
+        }
+        keys = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        for (int slot = 0; slot <= keys.length; slot++) {
+            clearValue(slot);
+        }
+        size = 0;
+        hasZero = false;
+    }
+
+    /**
+     * @return the keys, in no particular order
+     */
+    public long[] keys() {
+        long[] result = new long[size];
+        int i = 0;
+        if (hasZero) result[i++] = 0;
+        for (long key : keys) {
+            if (key != 0) result[i++] = key;
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of slots, {@link #allocateValues} is asked for one more
+     */
+    final int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * @return the slot holding the key, or -1
+     */
+    final int slotOf(long key) {
+        if (key == 0) return hasZero ? keys.length : -1;
+        for (int slot = indexOf(key); ; slot = (slot + 1) & mask) {
+            long current = keys[slot];
+            if (current == key) return slot;
+            if (current == 0) return -1;
+        }
+    }
+
+    /**
+     * @return the slot holding the key if it was there, or {@code -slot - 1} for the slot it was
+     * added at, with the value still to be set
+     */
+    final int insert(long key) {
+        if (key == 0) {
+            if (hasZero) return keys.length;
+            hasZero = true;
+            size++;
+            return -keys.length - 1;
+        }
+        if ((size + 1) * 4 > keys.length * 3) {
+            grow();
+        }
+        int slot = indexOf(key);
+        for (; keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) return slot;
+        }
+        keys[slot] = key;
+        size++;
+        return -slot - 1;
+    }
+
+    /**
+     * Empties a slot returned by {@link #slotOf}.
+     */
+    final void deleteSlot(int slot) {
+        size--;
+        if (slot == keys.length) {
+            hasZero = false;
+            clearValue(slot);
+            return;
+        }
+        // shift later keys of the probe sequence back, so lookups never stop early at the hole
+        int gap = slot;
+        for (int i = (gap + 1) & mask; keys[i] != 0; i = (i + 1) & mask) {
+            if (((i - indexOf(keys[i])) & mask) >= ((i - gap) & mask)) {
+                keys[gap] = keys[i];
+                moveValue(i, gap);
+                gap = i;
+            }
+        }
+        keys[gap] = 0;
+        clearValue(gap);
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        Object oldValues = values();
+        int capacity = oldKeys.length * 2;
+        keys = new long[capacity];
+        mask = capacity - 1;
+        allocateValues(capacity + 1);
+        copyValue(oldValues, oldKeys.length, capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key == 0) continue;
+            int slot = indexOf(key);
+            while (keys[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            copyValue(oldValues, i, slot);
+        }
+    }
+
+    private int indexOf(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    /**
+     * @return the values array, or null if there are none
+     */
+    abstract Object values();
+
+    abstract void allocateValues(int length);
+
+    abstract void copyValue(Object from, int fromSlot, int toSlot);
+
+    abstract void moveValue(int fromSlot, int toSlot);
+
+    abstract void clearValue(int slot);
+}
@@ -0,0 +1,66 @@
+package cn.wanghw.utils;
+
+/**
+ * Map from primitive long to int, for object ids, without boxing either side.
+ * Not synchronized.
+ */
+public class LongIntMap extends LongHashTable {
+    private int[] values;
+
+    public LongIntMap() {
+        this(16);
+    }
+
+    public LongIntMap(int expectedSize) {
+        super(expectedSize);
+        values = new int[capacity() + 1];
+    }
+
+    public boolean containsKey(long key) {
+        return slotOf(key) >= 0;
+    }
+
+    /**
+     * @return the value of the key, or {@code missing} if there is none
+     */
+    public int get(long key, int missing) {
+        int slot = slotOf(key);
+        return slot < 0 ? missing : values[slot];
+    }
+
+    public void put(long key, int value) {
+        int slot = insert(key);
+        values[slot < 0 ? -slot - 1 : slot] = value;
+    }
+
+    /**
+     * @return the value the key had, or {@code missing} if there was none
+     */
+    public int remove(long key, int missing) {
+        int slot = slotOf(key);
+        if (slot < 0) return missing;
+        int value = values[slot];
+        deleteSlot(slot);
+        return value;
+    }
+
+    Object values() {
+        return values;
+    }
+
+    void allocateValues(int length) {
+        values = new int[length];
+    }
+
+    void copyValue(Object from, int fromSlot, int toSlot) {
+        values[toSlot] = ((int[]) from)[fromSlot];
+    }
+
+    void moveValue(int fromSlot, int toSlot) {
+        values[toSlot] = values[fromSlot];
+    }
+
+    void clearValue(int slot) {
+        values[slot] = 0;
+    }
+}
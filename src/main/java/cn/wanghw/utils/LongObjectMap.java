@@ -0,0 +1,78 @@
+package cn.wanghw.utils;
+
+/**
+ * Map from primitive long to objects, for caches keyed by object or string ids, without a boxed
+ * Long and a map entry per key. Not synchronized.
+ */
+public class LongObjectMap<V> extends LongHashTable {
+    private Object[] values;
+
+    public LongObjectMap() {
+        this(16);
+    }
+
+    public LongObjectMap(int expectedSize) {
+        super(expectedSize);
+        values = new Object[capacity() + 1];
+    }
+
+    public boolean containsKey(long key) {
+        return slotOf(key) >= 0;
+    }
+
+    /**
+     * @return the value of the key, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int slot = slotOf(key);
+        return slot < 0 ? null : (V) values[slot];
+    }
+
+    /**
+     * @return the value the key had, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        int slot = insert(key);
+        if (slot < 0) {
+            values[-slot - 1] = value;
+            return null;
+        }
+        V previous = (V) values[slot];
+        values[slot] = value;
+        return previous;
+    }
+
+    /**
+     * @return the value the key had, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int slot = slotOf(key);
+        if (slot < 0) return null;
+        V value = (V) values[slot];
+        deleteSlot(slot);
+        return value;
+    }
+
+    Object values() {
+        return values;
+    }
+
+    void allocateValues(int length) {
+        values = new Object[length];
+    }
+
+    void copyValue(Object from, int fromSlot, int toSlot) {
+        values[toSlot] = ((Object[]) from)[fromSlot];
+    }
+
+    void moveValue(int fromSlot, int toSlot) {
+        values[toSlot] = values[fromSlot];
+    }
+
+    void clearValue(int slot) {
+        values[slot] = null;
+    }
+}
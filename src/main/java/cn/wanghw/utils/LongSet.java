@@ -0,0 +1,59 @@
+package cn.wanghw.utils;
+
+/**
+ * Set of primitive longs, for object and class ids, without a boxed Long per entry.
+ * Not synchronized.
+ */
+public class LongSet extends LongHashTable {
+
+    public LongSet() {
+        this(16);
+    }
+
+    public LongSet(int expectedSize) {
+        super(expectedSize);
+    }
+
+    public boolean contains(long value) {
+        return slotOf(value) >= 0;
+    }
+
+    /**
+     * @return false if the value was already there
+     */
+    public boolean add(long value) {
+        return insert(value) < 0;
+    }
+
+    public void addAll(LongSet values) {
+        for (long value : values.keys()) {
+            add(value);
+        }
+    }
+
+    /**
+     * @return false if the value was not there
+     */
+    public boolean remove(long value) {
+        int slot = slotOf(value);
+        if (slot < 0) return false;
+        deleteSlot(slot);
+        return true;
+    }
+
+    Object values() {
+        return null;
+    }
+
+    void allocateValues(int length) {
+    }
+
+    void copyValue(Object from, int fromSlot, int toSlot) {
+    }
+
+    void moveValue(int fromSlot, int toSlot) {
+    }
+
+    void clearValue(int slot) {
+    }
+}
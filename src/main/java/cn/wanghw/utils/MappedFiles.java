@@ -0,0 +1,88 @@
+package cn.wanghw.utils;
+
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Releases memory maps and files held by objects that offer no way to close them, such as the
+ * buffers of the heap libraries. A map is otherwise only released once the garbage collector finds
+ * it, which for a large dump may be never in a short run.
+ */
+public class MappedFiles {
+    /**
+     * Unmaps every {@link MappedByteBuffer}, or array of them, and closes every
+     * {@link RandomAccessFile} the fields of {@code owner} and of its superclasses hold. Nothing may
+     * read through {@code owner} afterwards: reading an unmapped buffer crashes the JVM.
+     */
+    public static void release(Object owner) {
+        if (owner == null) return;
+        for (Class<?> c = owner.getClass(); c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers())) continue;
+                try {
+                    field.setAccessible(true);
+                    Object value = field.get(owner);
+                    if (value instanceof MappedByteBuffer) {
+                        unmap((MappedByteBuffer) value);
+                    } else if (value instanceof MappedByteBuffer[]) {
+                        for (MappedByteBuffer buffer : (MappedByteBuffer[]) value) {
+                            unmap(buffer);
+                        }
+                    } else if (value instanceof RandomAccessFile) {
+                        ((RandomAccessFile) value).close();
+                    }
+                } catch (Exception ex) {
+                    System.out.println(ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the value of a field of {@code owner} it declares itself, private or not, or null if
+     * it has none by that name
+     */
+    public static Object get(Object owner, String name) {
+        if (owner == null) return null;
+        try {
+            Field field = owner.getClass().getDeclaredField(name);
+            field.setAccessible(true);
+            return field.get(owner);
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Unmaps a buffer {@link java.nio.channels.FileChannel#map} returned, through the cleaner of
+     * the JVM; if the JVM has none this can reach, the map stays until the buffer is collected.
+     */
+    public static void unmap(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) return;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner;
+            try {
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (NoSuchMethodException ex) {
+                // before Java 9 the buffer hands out its own cleaner
+                Method cleaner = buffer.getClass().getMethod("cleaner");
+                cleaner.setAccessible(true);
+                Object bufferCleaner = cleaner.invoke(buffer);
+                if (bufferCleaner != null) {
+                    bufferCleaner.getClass().getMethod("clean").invoke(bufferCleaner);
+                }
+                return;
+            }
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+        } catch (Exception ex) {
+            System.out.println(ex);
+        }
+    }
+}
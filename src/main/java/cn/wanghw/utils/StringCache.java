@@ -0,0 +1,142 @@
+package cn.wanghw.utils;
+
+/**
+ * Decoded Strings by object id, so that a String several spiders read is only decoded once.
+ * Bounded by an estimate of the memory the entries hold, evicting with the CLOCK approximation of
+ * least recently used. Shared by spiders running on several threads, so every method is
+ * synchronized.
+ */
+public class StringCache {
+    /**
+     * Rough cost of an entry besides the chars: the slot arrays, String and array headers.
+     */
+    private static final int ENTRY_OVERHEAD = 72;
+
+    private final long budget;
+    private final LongIntMap slots = new LongIntMap(1024);
+    private long[] ids = new long[1024];
+    private String[] values = new String[1024];
+    private boolean[] referenced = new boolean[1024];
+    private int[] free = new int[16];
+    private int freeCount;
+    private int used;
+    private int hand;
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param budget the bytes the cached Strings may take
+     */
+    public StringCache(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * @return the String cached for the object, or null, counting a hit or a miss
+     */
+    public synchronized String get(long objectId) {
+        int slot = slots.get(objectId, -1);
+        if (slot < 0) {
+            misses++;
+            return null;
+        }
+        hits++;
+        referenced[slot] = true;
+        return values[slot];
+    }
+
+    public synchronized void put(long objectId, String value) {
+        long cost = cost(value);
+        if (cost > budget) return;
+        int slot = slots.get(objectId, -1);
+        if (slot >= 0) {
+            bytes += cost - cost(values[slot]);
+            values[slot] = value;
+        } else {
+            // only hits set the reference bit, so Strings a full scan reads once go first
+            while (bytes + cost > budget) {
+                evict();
+            }
+            slot = allocate();
+            ids[slot] = objectId;
+            values[slot] = value;
+            referenced[slot] = false;
+            slots.put(objectId, slot);
+            bytes += cost;
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the estimated bytes held by the cached Strings
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized String toString() {
+        return String.format("string cache: %d hits, %d misses, %d evictions, %d entries, %d KB",
+                hits, misses, evictions, slots.size(), bytes / 1024);
+    }
+
+    public synchronized String toJson() {
+        return "{\"hits\":" + hits + ",\"misses\":" + misses + ",\"evictions\":" + evictions
+                + ",\"entries\":" + slots.size() + ",\"bytes\":" + bytes + "}";
+    }
+
+    private void evict() {
+        while (true) {
+            if (hand >= used) hand = 0;
+            int slot = hand++;
+            if (values[slot] == null) continue;
+            if (referenced[slot]) {
+                referenced[slot] = false;
+                continue;
+            }
+            bytes -= cost(values[slot]);
+            slots.remove(ids[slot], -1);
+            values[slot] = null;
+            if (freeCount == free.length) {
+                int[] grown = new int[freeCount * 2];
+                System.arraycopy(free, 0, grown, 0, freeCount);
+                free = grown;
+            }
+            free[freeCount++] = slot;
+            evictions++;
+            return;
+        }
+    }
+
+    private int allocate() {
+        if (freeCount > 0) return free[--freeCount];
+        if (used == ids.length) {
+            long[] grownIds = new long[used * 2];
+            String[] grownValues = new String[used * 2];
+            boolean[] grownReferenced = new boolean[used * 2];
+            System.arraycopy(ids, 0, grownIds, 0, used);
+            System.arraycopy(values, 0, grownValues, 0, used);
+            System.arraycopy(referenced, 0, grownReferenced, 0, used);
+            ids = grownIds;
+            values = grownValues;
+            referenced = grownReferenced;
+        }
+        return used++;
+    }
+
+    private static long cost(String value) {
+        return ENTRY_OVERHEAD + 2L * value.length();
+    }
+}
@@ -0,0 +1,106 @@
+package cn.wanghw.utils;
+
+import java.nio.charset.Charset;
+
+/**
+ * Decodes the raw contents of {@code String.value} arrays as read from a dump. A heap holder
+ * subclasses it for the primitive array type of its library and supplies only the raw reads.
+ *
+ * @param <A> the primitive array type of the heap holder's library
+ */
+public abstract class StringDecoder<A> {
+    public static final byte LATIN1 = 0;
+    public static final byte UTF16 = 1;
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private final Class<A> arrayClass;
+    private volatile int[] utf16Shifts;
+
+    protected StringDecoder(Class<A> arrayClass) {
+        this.arrayClass = arrayClass;
+    }
+
+    protected abstract int getLength(A array);
+
+    protected abstract boolean isByteArray(A array);
+
+    /**
+     * @return {@code length} elements from element {@code start} on, as raw big-endian bytes
+     */
+    protected abstract byte[] read(A array, int start, int length, int elementSize);
+
+    /**
+     * @return the value of a static field of a class in the dump, or null if there is no such class
+     */
+    protected abstract Object getStaticField(String className, String fieldName);
+
+    /**
+     * Decodes a String from the values of its fields, any of which may be missing or of another
+     * type in dumps of other VMs.
+     */
+    public String decodeString(Object value, Object coder, Object offset, Object count) {
+        if (!arrayClass.isInstance(value))
+            return "";
+        A array = arrayClass.cast(value);
+        int length = getLength(array);
+        int start = offset instanceof Integer ? (Integer) offset : 0;
+        int len = count instanceof Integer ? (Integer) count : length - start;
+        if (start < 0 || len < 0 || start + len > length) {
+            start = 0;
+            len = length;
+        }
+        if (isByteArray(array)) {
+            int[] shifts = getUTF16Shifts();
+            return decode(read(array, start, len, 1), coder instanceof Byte ? (Byte) coder : null, shifts[0], shifts[1]);
+        }
+        return decodeChars(read(array, start, len, 2));
+    }
+
+    public String decodeCharArray(A array) {
+        return decodeChars(read(array, 0, getLength(array), 2));
+    }
+
+    private int[] getUTF16Shifts() {
+        int[] shifts = utf16Shifts;
+        if (shifts == null) {
+            // little-endian VMs, which is what StringUTF16 reports on x86 and aarch64
+            shifts = new int[]{0, 8};
+            Object hiShift = getStaticField("java.lang.StringUTF16", "HI_BYTE_SHIFT");
+            Object loShift = getStaticField("java.lang.StringUTF16", "LO_BYTE_SHIFT");
+            if (hiShift instanceof Integer && loShift instanceof Integer) {
+                shifts = new int[]{(Integer) hiShift, (Integer) loShift};
+            }
+            utf16Shifts = shifts;
+        }
+        return shifts;
+    }
+
+    /**
+     * @param bytes     the {@code byte[]} value of a compact string (JDK 9+)
+     * @param coder     the string's {@code coder} field, or null if the dump predates it
+     * @param hiShift   {@code StringUTF16.HI_BYTE_SHIFT} of the dumped VM
+     * @param loShift   {@code StringUTF16.LO_BYTE_SHIFT} of the dumped VM
+     */
+    public static String decode(byte[] bytes, Byte coder, int hiShift, int loShift) {
+        if (coder != null && coder == UTF16) {
+            char[] chars = new char[bytes.length / 2];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = (char) (((bytes[i * 2] & 0xFF) << hiShift) | ((bytes[i * 2 + 1] & 0xFF) << loShift));
+            }
+            return new String(chars);
+        }
+        return new String(bytes, ISO_8859_1);
+    }
+
+    /**
+     * @param bytes the contents of a {@code char[]}, which HPROF always stores big-endian
+     */
+    public static String decodeChars(byte[] bytes) {
+        char[] chars = new char[bytes.length / 2];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (((bytes[i * 2] & 0xFF) << 8) | (bytes[i * 2 + 1] & 0xFF));
+        }
+        return new String(chars);
+    }
+}
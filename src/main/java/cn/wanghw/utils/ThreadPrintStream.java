@@ -0,0 +1,73 @@
+package cn.wanghw.utils;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * A System.out for running several dumps side by side: each thread prints to the stream it was
+ * given, or to the default one, so their progress lines and errors do not mix. Threads start
+ * with the stream of the thread that created them, which covers the pools a dump's run starts.
+ */
+public class ThreadPrintStream extends PrintStream {
+    private final PrintStream fallback;
+    private final InheritableThreadLocal<PrintStream> streams;
+
+    public ThreadPrintStream(PrintStream fallback) {
+        this(fallback, new InheritableThreadLocal<PrintStream>());
+    }
+
+    private ThreadPrintStream(final PrintStream fallback, final InheritableThreadLocal<PrintStream> streams) {
+        super(new OutputStream() {
+            public void write(int b) {
+                current(fallback, streams).write(b);
+            }
+
+            public void write(byte[] b, int off, int len) {
+                current(fallback, streams).write(b, off, len);
+            }
+
+            public void flush() {
+                current(fallback, streams).flush();
+            }
+        }, true);
+        this.fallback = fallback;
+        this.streams = streams;
+    }
+
+    /**
+     * Makes System.out a ThreadPrintStream, printing to the current System.out by default, unless
+     * it already is one. It stays installed: taking it down would undo what other threads set.
+     */
+    public static synchronized ThreadPrintStream install() {
+        if (!(System.out instanceof ThreadPrintStream)) {
+            System.setOut(new ThreadPrintStream(System.out));
+        }
+        return (ThreadPrintStream) System.out;
+    }
+
+    /**
+     * @return the stream the current thread printed to before, null for the default one
+     */
+    public PrintStream set(PrintStream stream) {
+        PrintStream previous = streams.get();
+        if (stream == null || stream == fallback) {
+            streams.remove();
+        } else {
+            streams.set(stream);
+        }
+        return previous;
+    }
+
+    public PrintStream getFallback() {
+        return fallback;
+    }
+
+    private static PrintStream current(PrintStream fallback, InheritableThreadLocal<PrintStream> streams) {
+        PrintStream stream = streams.get();
+        return stream == null ? fallback : stream;
+    }
+
+    public void close() {
+        flush();
+    }
+}
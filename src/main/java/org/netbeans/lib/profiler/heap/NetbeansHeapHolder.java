@@ -1,31 +1,108 @@
 package org.netbeans.lib.profiler.heap;
 
 
+import cn.wanghw.FieldLayouts;
+import cn.wanghw.FieldPath;
 import cn.wanghw.IHeapHolder;
-import cn.wanghw.utils._StringJoiner;
+import cn.wanghw.InstanceRuns;
+import cn.wanghw.utils.MappedFiles;
+import cn.wanghw.utils.StringCache;
+import cn.wanghw.utils.StringDecoder;
 import org.netbeans.modules.profiler.oql.engine.api.impl.Snapshot;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 public class NetbeansHeapHolder implements IHeapHolder {
-    final private AtomicBoolean cancelled = new AtomicBoolean(false);
+    private static final int READ_CHUNK = 8192;
+    private volatile StringCache stringCache;
+    private final FieldLayouts<ClassDump, HprofField> layouts = new FieldLayouts<ClassDump, HprofField>() {
+        protected List<HprofField> getAllInstanceFields(ClassDump javaClass) {
+            return (List) javaClass.getAllInstanceFields();
+        }
+
+        protected String getName(HprofField field) {
+            return field.getName();
+        }
+
+        protected int getValueSize(HprofField field) {
+            return field.getValueSize();
+        }
+
+        protected int getHeaderSize(ClassDump javaClass) {
+            int idSize = javaClass.getHprofBuffer().getIDSize();
+            return 1 + idSize + 4 + idSize + 4;
+        }
+
+        protected ClassDump getRecordClass(Object instance) {
+            return instance instanceof InstanceDump ? ((InstanceDump) instance).dumpClass : null;
+        }
+
+        protected long getRecordOffset(Object instance) {
+            return ((InstanceDump) instance).fileOffset;
+        }
+
+        protected Object readValue(Object instance, HprofField field, long offset) {
+            InstanceDump dump = (InstanceDump) instance;
+            if (field.getValueType() == HprofHeap.OBJECT) {
+                return new HprofInstanceObjectValue(dump, field, offset).getInstance();
+            }
+            return new HprofInstanceValue(dump, field, offset).getTypeValue();
+        }
+
+        protected long getObjectId(Object instance) {
+            return NetbeansHeapHolder.this.getObjectId(instance);
+        }
+    };
+    private final FieldPath keyPath = FieldPath.compile("key");
+    private final FieldPath valuePath = FieldPath.compile("value");
+    private final FieldPath sourceTablePath = FieldPath.compile("source.table");
+    private final StringDecoder<PrimitiveArrayDump> decoder = new StringDecoder<PrimitiveArrayDump>(PrimitiveArrayDump.class) {
+        protected int getLength(PrimitiveArrayDump array) {
+            return array.getLength();
+        }
+
+        protected boolean isByteArray(PrimitiveArrayDump array) {
+            return array.getJavaClass().getName().equals("byte[]");
+        }
+
+        protected byte[] read(PrimitiveArrayDump array, int start, int length, int elementSize) {
+            return readArray(array, start, length, elementSize);
+        }
+
+        protected Object getStaticField(String className, String fieldName) {
+            JavaClass javaClass = findClass(className);
+            return javaClass == null ? null : javaClass.getValueOfStaticField(fieldName);
+        }
+    };
     private Heap _heap;
     private Snapshot snapshot;
 
     public NetbeansHeapHolder(File heapfile) throws IOException {
         _heap = HeapFactory.createHeap(heapfile);
         snapshot = new Snapshot(_heap, this);
+        // ClassDump.getInstancesCount reads the count without the lock computeInstances holds while
+        // it fills the counts in, so a spider on another thread could list a class's instances
+        // half counted. Count them all before the holder is shared.
+        if (_heap instanceof HprofHeap) {
+            ((HprofHeap) _heap).computeInstances();
+        }
     }
 
     public Snapshot getSnapshot() {
         return new Snapshot(_heap, this);
     }
 
-    public boolean isCancelled() {
-        return cancelled.get();
+    public StringCache getStringCache() {
+        return stringCache;
+    }
+
+    /**
+     * @param stringCache where decoded Strings are kept, or null to decode on every call
+     */
+    public void setStringCache(StringCache stringCache) {
+        this.stringCache = stringCache;
     }
 
     public JavaClass findClass(String var1) {
@@ -50,6 +127,70 @@ public class NetbeansHeapHolder implements IHeapHolder {
         return new ArrayList();
     }
 
+    /**
+     * The library has no instance iterator: this walks the dump the way
+     * {@code ClassDump.getInstances} does, but hands out each instance as it is found.
+     */
+    public Iterator getInstancesIterator(Object javaClass) {
+        if (javaClass instanceof ClassDump) {
+            ClassDump classDump = (ClassDump) javaClass;
+            return new InstancesIterator(classDump, classDump.getHprof().getAllInstanceDumpBounds().startOffset,
+                    classDump.getInstancesCount());
+        }
+        return new ArrayList().iterator();
+    }
+
+    /**
+     * Runs find where they start by skipping records from the start of the instance dumps; a run
+     * then reads on from there.
+     */
+    public List<Iterator> getInstancePartitions(Object javaClass, int parts, int minSize) {
+        List<Iterator> result = new ArrayList<Iterator>();
+        if (!(javaClass instanceof ClassDump)) {
+            result.add(getInstancesIterator(javaClass));
+            return result;
+        }
+        final ClassDump classDump = (ClassDump) javaClass;
+        int instances = classDump.getInstancesCount();
+        int count = Math.max(1, Math.min(parts, instances / minSize));
+        if (count == 1) {
+            result.add(getInstancesIterator(javaClass));
+            return result;
+        }
+        final HprofHeap heap = classDump.getHprof();
+        TagBounds bounds = heap.getAllInstanceDumpBounds();
+        return new InstanceRuns(bounds.startOffset, bounds.endOffset, instances, count) {
+            protected boolean skip(long[] offset) {
+                long start = offset[0];
+                int tag = heap.readDumpTag(offset);
+                return getRecordClassId(classDump, tag, start) == classDump.getJavaClassId();
+            }
+
+            protected Iterator iterator(long start, int size) {
+                return new InstancesIterator(classDump, start, size);
+            }
+        }.getRuns();
+    }
+
+    /**
+     * @return the class id of the record at {@code start}, read from its header, or 0 if it is
+     * not an instance or array
+     */
+    private static long getRecordClassId(ClassDump classDump, int tag, long start) {
+        HprofByteBuffer buffer = classDump.getHprofBuffer();
+        int idSize = buffer.getIDSize();
+        if (tag == HprofHeap.INSTANCE_DUMP) {
+            return buffer.getID(start + 1 + idSize + 4);
+        } else if (tag == HprofHeap.OBJECT_ARRAY_DUMP) {
+            return buffer.getID(start + 1 + idSize + 4 + 4);
+        } else if (tag == HprofHeap.PRIMITIVE_ARRAY_DUMP) {
+            byte type = buffer.get(start + 1 + idSize + 4 + 4);
+            JavaClass arrayClass = classDump.classDumpSegment.getPrimitiveArrayClass(type);
+            return arrayClass == null ? 0 : arrayClass.getJavaClassId();
+        }
+        return 0;
+    }
+
     public List getFields(Object javaClass) {
         if (javaClass instanceof JavaClass) {
             return ((JavaClass) javaClass).getFields();
@@ -57,6 +198,13 @@ public class NetbeansHeapHolder implements IHeapHolder {
         return new ArrayList();
     }
 
+    public List getAllFields(Object javaClass) {
+        if (javaClass instanceof ClassDump) {
+            return layouts.getAllFields((ClassDump) javaClass);
+        }
+        return new ArrayList();
+    }
+
     public List hasField(Object javaClass, String fieldName) {
         if (javaClass instanceof JavaClass) {
             return ((JavaClass) javaClass).getFields();
@@ -108,25 +256,36 @@ public class NetbeansHeapHolder implements IHeapHolder {
         return null;
     }
 
-    public Object findThing(Long objectId) {
+    public Object findThing(long objectId) {
         return snapshot.findThing(objectId);
     }
 
-    public Object getValueOfField(Object instance, String fieldName) {
+    public long getObjectId(Object instance) {
         if (instance instanceof Instance) {
+            return ((Instance) instance).getInstanceId();
+        } else if (instance instanceof JavaClass) {
+            return ((JavaClass) instance).getJavaClassId();
+        }
+        return 0;
+    }
+
+    public Object getValueOfField(Object instance, String fieldName) {
+        if (instance instanceof InstanceDump) {
+            return layouts.getValueOfField(instance, fieldName);
+        } else if (instance instanceof Instance) {
             return ((Instance) instance).getValueOfField(fieldName);
         }
         return null;
     }
 
-    public void cancelQuery() {
-        cancelled.set(true);
+    public HashMap<String, String> getFieldsByNameList(Object instance, HashMap<String, String> fieldList) {
+        return getFieldsByPaths(instance, FieldPath.compile(fieldList));
     }
 
-    public HashMap<String, String> getFieldsByNameList(Object instance, HashMap<String, String> fieldList) {
+    public HashMap<String, String> getFieldsByPaths(Object instance, Map<String, FieldPath> paths) {
         HashMap<String, String> result = new HashMap<String, String>();
-        for (Map.Entry<String, String> fieldName : fieldList.entrySet()) {
-            result.put(fieldName.getKey(), getFieldStringValue(instance, fieldName.getValue()));
+        for (Map.Entry<String, FieldPath> path : paths.entrySet()) {
+            result.put(path.getKey(), getFieldStringValue(instance, path.getValue()));
         }
         return result;
     }
@@ -137,9 +296,9 @@ public class NetbeansHeapHolder implements IHeapHolder {
             ObjectArrayDump arrayDump = (ObjectArrayDump) instance;
             for (Object _entry : arrayDump.getValues()) {
                 if (_entry == null) continue;
-                String val = getFieldStringValue((Instance) _entry, "value");
+                String val = getFieldStringValue(_entry, valuePath);
                 if (val != null && !val.equals("")) {
-                    result.put(getFieldStringValue((Instance) _entry, "key"), val);
+                    result.put(getFieldStringValue(_entry, keyPath), val);
                 }
             }
         }
@@ -155,59 +314,36 @@ public class NetbeansHeapHolder implements IHeapHolder {
     }
 
     public String getFieldStringValue(Object instance, String fieldName) {
-        Object val = getFieldValue(instance, fieldName);
+        return getFieldStringValue(instance, FieldPath.compile(fieldName));
+    }
+
+    public String getFieldStringValue(Object instance, FieldPath path) {
+        Object val = getFieldValue(instance, path);
         if (val instanceof Instance) {
-            return toString((Instance) val);
+            return toCachedString((Instance) val);
         } else if (val != null) {
             return String.valueOf(val);
         }
         return null;
     }
 
-    public Object getFieldValue(Object _instance, String fieldName) {
-        Instance instance = (Instance) _instance;
-        if (fieldName.contains(".")) {
-            Object fInstance = instance.getValueOfField(fieldName.substring(0, fieldName.indexOf(".")));
-            if (fInstance != null) {
-                return getFieldValue(fInstance, fieldName.substring(fieldName.indexOf(".") + 1));
-            } else {
-                return null;
-            }
-        } else {
-            if (fieldName.equals("@ID"))
-                return String.valueOf(instance.getInstanceId());
-            Object fInstance = instance.getValueOfField(fieldName);
-            if (fInstance != null) {
-                if (fInstance instanceof Integer) {
-                    return String.valueOf(fInstance);
-                }
-                return instance.getValueOfField(fieldName);
-            } else {
-                return null;
-            }
-        }
+    public Object getFieldValue(Object instance, String fieldName) {
+        return getFieldValue(instance, FieldPath.compile(fieldName));
+    }
+
+    public Object getFieldValue(Object instance, FieldPath path) {
+        return layouts.getFieldValue(instance, path);
     }
 
     public String toString(Object _instance) {
         Instance instance = (Instance) _instance;
         String instanceClassName = instance.getJavaClass().getName();
         if (instanceClassName.equals("java.lang.String")) {
-            PrimitiveArrayDump arrayDump = (PrimitiveArrayDump) (instance.getValueOfField("value"));
-            if (arrayDump == null)
-                return "";
-            if (arrayDump.getJavaClass().getName().equals("byte[]")) {
-                List<String> byteStr = arrayDump.getValues();
-                byte[] target = new byte[byteStr.size()];
-                for (int i = 0; i < byteStr.size(); i++) {
-                    target[i] = (byte) Integer.parseInt(byteStr.get(i));
-                }
-                return new String(target);
-            }
-            return join("", arrayDump.getValues());
+            return decodeString(instance);
         } else if (instanceClassName.equals("char[]")) {
-            return join("", ((PrimitiveArrayDump) instance).getValues());
+            return decoder.decodeCharArray((PrimitiveArrayDump) instance);
         } else {
-            Object val = instance.getValueOfField("value");
+            Object val = getValueOfField(instance, "value");
             if (val instanceof Instance) {
                 return toString(val);
             }
@@ -215,30 +351,82 @@ public class NetbeansHeapHolder implements IHeapHolder {
         return null;
     }
 
+    /**
+     * {@link #toString} through the String cache. Only field and map reads use it: the scanner's
+     * walk over every String reads each once, and would only push out the Strings read again.
+     */
+    private String toCachedString(Instance instance) {
+        StringCache cache = stringCache;
+        if (cache == null || !instance.getJavaClass().getName().equals("java.lang.String"))
+            return toString(instance);
+        String text = cache.get(instance.getInstanceId());
+        if (text == null) {
+            text = decodeString(instance);
+            cache.put(instance.getInstanceId(), text);
+        }
+        return text;
+    }
+
+        private String decodeString(Instance instance) {
+        return decoder.decodeString(getValueOfField(instance, "value"), getValueOfField(instance, "coder"),
+                getValueOfField(instance, "offset"), getValueOfField(instance, "count"));
+    }
+
     public byte[] toByteArray(Object _instance) {
         if (_instance instanceof PrimitiveArrayDump) {
             PrimitiveArrayDump arrayDump = (PrimitiveArrayDump) _instance;
             if (arrayDump.getJavaClass().getName().equals("byte[]")) {
-                List<String> byteStr = arrayDump.getValues();
-                byte[] target = new byte[byteStr.size()];
-                for (int i = 0; i < byteStr.size(); i++) {
-                    target[i] = (byte) Integer.parseInt(byteStr.get(i));
-                }
-                return target;
+                return readArray(arrayDump, 0, arrayDump.getLength(), 1);
             }
         }
         return null;
     }
 
-    public String join(CharSequence delimiter,
-                       Iterable<? extends CharSequence> elements) {
-        _StringJoiner.requireNonNull(delimiter);
-        _StringJoiner.requireNonNull(elements);
-        _StringJoiner joiner = new _StringJoiner(delimiter);
-        for (CharSequence cs : elements) {
-            joiner.add(cs);
+    /**
+     * The library has no close of its own; it maps the dump, its id index and the references
+     * between objects, or holds them open, until they are collected.
+     */
+    public synchronized void close() {
+        if (_heap instanceof HprofHeap) {
+            HprofHeap heap = (HprofHeap) _heap;
+            MappedFiles.release(heap.dumpBuffer);
+            if (heap.idToOffsetMap != null) {
+                MappedFiles.release(heap.idToOffsetMap.dumpBuffer);
+                MappedFiles.release(MappedFiles.get(heap.idToOffsetMap, "referenceList"));
+            }
         }
-        return joiner.toString();
+        _heap = null;
+        snapshot = null;
+    }
+
+    /**
+     * Copies array elements straight out of the dump buffer. Large arrays are read in chunks
+     * smaller than the overlap between the library's 1 GB mappings, so a read never straddles two.
+     */
+    private byte[] readArray(PrimitiveArrayDump arrayDump, int start, int length, int elementSize) {
+        HprofByteBuffer buffer = arrayDump.dumpClass.getHprofBuffer();
+        long offset = arrayDump.fileOffset + 1 + buffer.getIDSize() + 4 + 4 + 1 + (long) start * elementSize;
+        byte[] bytes = new byte[length * elementSize];
+        if (bytes.length <= READ_CHUNK) {
+            buffer.get(offset, bytes);
+            return bytes;
+        }
+        byte[] chunk = new byte[READ_CHUNK];
+        for (int pos = 0; pos < bytes.length; pos += READ_CHUNK) {
+            int n = Math.min(READ_CHUNK, bytes.length - pos);
+            if (n < chunk.length) {
+                chunk = new byte[n];
+            }
+            buffer.get(offset + pos, chunk);
+            System.arraycopy(chunk, 0, bytes, pos, n);
+        }
+        return bytes;
+    }
+
+    public Object getReference(Object instance, FieldPath path) {
+        if (path.endsWithId()) return null;
+        Object value = getFieldValue(instance, path);
+        return value instanceof Instance || value instanceof JavaClass ? value : null;
     }
 
     static final List<String> mapClassList = Arrays.asList(
@@ -259,19 +447,19 @@ public class NetbeansHeapHolder implements IHeapHolder {
     public Instance getMap(Object _instance) {
         if (_instance != null) {
             Instance instance = (Instance) _instance;
-            Object table = instance.getValueOfField("table");
+            Object table = getValueOfField(instance, "table");
             if (table == null)
-                table = getFieldValue(instance, "source.table");
+                table = getFieldValue(instance, sourceTablePath);
             if (table != null) {
                 return (Instance) table;
             } else {
-                Object m1 = instance.getValueOfField("m");
+                Object m1 = getValueOfField(instance, "m");
                 if (m1 != null) {
-                    Object m2 = ((Instance) m1).getValueOfField("m");
+                    Object m2 = getValueOfField(m1, "m");
                     if (m2 != null) {
-                        return (Instance) ((Instance) m2).getValueOfField("table");
+                        return (Instance) getValueOfField(m2, "table");
                     } else {
-                        return (Instance) ((Instance) m1).getValueOfField("table");
+                        return (Instance) getValueOfField(m1, "table");
                     }
                 } else {
                     return null;
@@ -279,4 +467,55 @@ public class NetbeansHeapHolder implements IHeapHolder {
             }
         } else return null;
     }
+
+    private static class InstancesIterator implements Iterator {
+        private final ClassDump classDump;
+        private final HprofHeap heap;
+        private final long classId;
+        private final long end;
+        private final long[] offset;
+        private int remaining;
+        private Object next;
+
+        /**
+         * @param start the offset of a record at or before the first instance to hand out
+         * @param count how many instances to hand out
+         */
+        InstancesIterator(ClassDump classDump, long start, int count) {
+            this.classDump = classDump;
+            heap = classDump.getHprof();
+            classId = classDump.getJavaClassId();
+            remaining = count;
+            offset = new long[]{start};
+            end = heap.getAllInstanceDumpBounds().endOffset;
+        }
+
+        public boolean hasNext() {
+            while (next == null && remaining > 0 && offset[0] < end) {
+                long start = offset[0];
+                int tag = heap.readDumpTag(offset);
+                if (getRecordClassId(classDump, tag, start) != classId) continue;
+                if (tag == HprofHeap.INSTANCE_DUMP) {
+                    next = new InstanceDump(classDump, start);
+                } else if (tag == HprofHeap.OBJECT_ARRAY_DUMP) {
+                    next = new ObjectArrayDump(classDump, start);
+                } else {
+                    next = new PrimitiveArrayDump(classDump, start);
+                }
+                remaining--;
+            }
+            return next != null;
+        }
+
+        public Object next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            Object result = next;
+            next = null;
+            return result;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
 }